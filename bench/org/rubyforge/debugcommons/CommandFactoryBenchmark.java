@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rubyforge.debugcommons.model.RubyDebugTarget;
+import org.rubyforge.debugcommons.model.RubyFrame;
+import org.rubyforge.debugcommons.model.RubyFrameInfo;
+import org.rubyforge.debugcommons.model.RubyThread;
+import org.rubyforge.debugcommons.model.RubyVariable;
+import org.rubyforge.debugcommons.model.RubyVariableInfo;
+
+/** Building of command strings by the {@link ICommandFactory}s. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandFactoryBenchmark {
+
+    @Param({ "RUBY_DEBUG", "CLASSIC_DEBUGGER" })
+    public String debugger;
+
+    private ICommandFactory factory;
+    private RubyThread thread;
+    private RubyFrame frame;
+    private RubyVariable variable;
+
+    @Setup
+    public void setUp() {
+        factory = "RUBY_DEBUG".equals(debugger)
+                ? new RubyDebugCommandFactory()
+                : new ClassicDebuggerCommandFactory();
+        RubyDebuggerProxy proxy = new RubyDebuggerProxy(RubyDebuggerProxy.RUBY_DEBUG);
+        RubyDebugTarget target = new RubyDebugTarget(proxy, "127.0.0.1", 1234);
+        thread = new RubyThread(target, 2);
+        frame = new RubyFrame(thread, new RubyFrameInfo("/home/user/project/lib/models/order.rb", 42, 3));
+        variable = new RubyVariable(new RubyVariableInfo("order", "local", "#<Order:0x1>", "Order", true, "+0x1a2b"), frame);
+    }
+
+    @Benchmark
+    public String addBreakpoint() {
+        return factory.createAddBreakpoint("/home/user/project/lib/models/order.rb", 42);
+    }
+
+    @Benchmark
+    public String readFrames() {
+        return factory.createReadFrames(thread);
+    }
+
+    @Benchmark
+    public String readLocalVariables() {
+        return factory.createReadLocalVariables(frame);
+    }
+
+    @Benchmark
+    public String readInstanceVariable() {
+        return factory.createReadInstanceVariable(variable);
+    }
+
+    @Benchmark
+    public String inspect() {
+        return factory.createInspect(frame, "order.items.map { |i| i.price }.sum");
+    }
+
+    @Benchmark
+    public String stepOver() {
+        return factory.createStepOver(frame);
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rubyforge.debugcommons.model.RubyFrameInfo;
+import org.rubyforge.debugcommons.model.RubyThreadInfo;
+import org.rubyforge.debugcommons.model.RubyVariableInfo;
+import org.rubyforge.debugcommons.reader.FramesReader;
+import org.rubyforge.debugcommons.reader.ThreadInfoReader;
+import org.rubyforge.debugcommons.reader.VariablesReader;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Parsing of synthetic <code>&lt;frames&gt;</code>, <code>&lt;variables&gt;</code>
+ * and <code>&lt;threads&gt;</code> responses the same way {@link
+ * ReadersSupport} does, with both {@link ProtocolParserFactory parsers}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProtocolParsingBenchmark {
+
+    @Param({ "KXML", "SPECIALIZED" })
+    public String parser;
+
+    /** Number of frames, variables or threads in each document. */
+    @Param({ "1", "20", "500", "5000" })
+    public int size;
+
+    private XmlPullParser xpp;
+    private String frames;
+    private String variables;
+    private String threads;
+
+    @Setup
+    public void setUp() throws Exception {
+        xpp = ("KXML".equals(parser) ? ProtocolParserFactory.KXML : ProtocolParserFactory.SPECIALIZED).newParser();
+        StringBuilder sb = new StringBuilder("<frames>");
+        for (int i = 1; i <= size; i++) {
+            sb.append("<frame no='").append(i).append("' file='/home/user/project/lib/models/order_")
+                    .append(i).append(".rb' line='").append(i * 7).append("'/>");
+        }
+        frames = sb.append("</frames>").toString();
+        sb = new StringBuilder("<variables>");
+        for (int i = 1; i <= size; i++) {
+            sb.append("<variable name='var_").append(i).append("' kind='local' value='&quot;value ")
+                    .append(i).append(" &amp; more&quot;' type='String' hasChildren='false' objectId='+0x")
+                    .append(Integer.toHexString(0x1000 + i)).append("'/>");
+        }
+        variables = sb.append("</variables>").toString();
+        sb = new StringBuilder("<threads>");
+        for (int i = 1; i <= size; i++) {
+            sb.append("<thread id='").append(i).append("' status='").append(i == 1 ? "run" : "sleep").append("'/>");
+        }
+        threads = sb.append("</threads>").toString();
+    }
+
+    private void start(final String document) throws Exception {
+        xpp.setInput(new StringReader(document));
+        xpp.nextTag();
+    }
+
+    @Benchmark
+    public RubyFrameInfo[] frames() throws Exception {
+        start(frames);
+        return FramesReader.readFrames(xpp);
+    }
+
+    @Benchmark
+    public RubyVariableInfo[] variables() throws Exception {
+        start(variables);
+        return VariablesReader.readVariables(xpp);
+    }
+
+    @Benchmark
+    public RubyThreadInfo[] threads() throws Exception {
+        start(threads);
+        return ThreadInfoReader.readThreads(xpp);
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rubyforge.debugcommons.RubyDebuggerProxy;
+
+/**
+ * Merging of re-listed threads into the known ones, as done by {@link
+ * RubyDebugTarget#refreshThreads}. Every other thread dies and new threads
+ * are started between the listings.
+ * <p>
+ * Lives in the model package on purpose: it calls the package-private
+ * <code>RubyDebugTarget.mergeThreads</code> directly, so that the merge is
+ * measured without a backend answering <code>th l</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThreadMergeBenchmark {
+
+    @Param({ "10", "1000", "5000" })
+    public int threads;
+
+    private RubyDebugTarget target;
+    private RubyThreadInfo[] initial;
+    private RubyThreadInfo[] relisted;
+
+    @Setup
+    public void setUp() {
+        target = new RubyDebugTarget(new RubyDebuggerProxy(RubyDebuggerProxy.RUBY_DEBUG), "127.0.0.1", 1234);
+        initial = new RubyThreadInfo[threads];
+        for (int i = 0; i < threads; i++) {
+            initial[i] = new RubyThreadInfo(i + 1, "sleep");
+        }
+        relisted = new RubyThreadInfo[threads];
+        int alive = 0;
+        for (int i = 0; i < threads; i += 2) {
+            relisted[alive++] = initial[i];
+        }
+        for (int id = threads + 1; alive < threads; id++) {
+            relisted[alive++] = new RubyThreadInfo(id, "run");
+        }
+    }
+
+    @Benchmark
+    public RubyThread[] merge() {
+        target.mergeThreads(initial, target.getThreads());
+        target.mergeThreads(relisted, target.getThreads());
+        return target.getThreads();
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rubyforge.debugcommons.RubyDebuggerProxy;
+
+/** Cost of constructing {@link RubyVariable}s, including their {@link RubyValue}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VariableConstructionBenchmark {
+
+    private RubyFrame frame;
+    private RubyVariable parent;
+    private RubyVariableInfo local;
+    private RubyVariableInfo instance;
+    private RubyVariableInfo nil;
+
+    @Setup
+    public void setUp() {
+        RubyDebuggerProxy proxy = new RubyDebuggerProxy(RubyDebuggerProxy.RUBY_DEBUG);
+        RubyDebugTarget target = new RubyDebugTarget(proxy, "127.0.0.1", 1234);
+        RubyThread thread = new RubyThread(target, 1);
+        frame = new RubyFrame(thread, new RubyFrameInfo("/tmp/test.rb", 1, 1));
+        local = new RubyVariableInfo("order", "local", "#<Order:0x1>", "Order", true, "+0x1a2b");
+        instance = new RubyVariableInfo("@items", "instance", "[1, 2, 3]", "Array", true, "+0x1a2c");
+        nil = new RubyVariableInfo("x", "local");
+        parent = new RubyVariable(local, frame);
+    }
+
+    @Benchmark
+    public RubyVariable local() {
+        return new RubyVariable(local, frame);
+    }
+
+    @Benchmark
+    public RubyVariable instance() {
+        return new RubyVariable(instance, parent);
+    }
+
+    @Benchmark
+    public RubyVariable nil() {
+        return new RubyVariable(nil, frame);
+    }
+
+    @Benchmark
+    public String qualifiedName() {
+        return new RubyVariable(instance, parent).getQualifiedName();
+    }
+
+}
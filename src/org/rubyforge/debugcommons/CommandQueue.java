@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lock-free submission of commands to the debugger backend. Submitting
+ * threads only enqueue their commands; a single thread at a time, the first
+ * submitter which finds the writer free, writes everything queued so far in
+ * one batch through the {@link CommandWriter}. Nobody waits for responses
+ * here, responses are demultiplexed by the {@link ReadersSupport}, so e.g. a
+ * step command is never held back by a pending variable fetch.
+ * <p>
+ * Commands are written in the submission order and their responses are
+ * {@link ReadersSupport#register registered} right before writing, which
+ * keeps the responses correlated with their commands.
+ */
+final class CommandQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(CommandQueue.class.getName());
+
+    /** Commands submitted together; written contiguously and in one batch. */
+    private static final class Submission {
+
+        final String[] commands;
+        final RubyDebugFuture<?>[] responses;
+
+        Submission(final String[] commands, final RubyDebugFuture<?>[] responses) {
+            this.commands = commands;
+            this.responses = responses;
+        }
+
+    }
+
+    private final CommandWriter writer;
+    private final ReadersSupport readersSupport;
+
+    private final Queue<Submission> submissions;
+
+    /** Whether some thread is writing the queued commands. */
+    private final AtomicBoolean writing;
+
+    /** Number of batches written, i.e. how many times was the writer taken. */
+    private final AtomicLong batches;
+
+    CommandQueue(final CommandWriter writer, final ReadersSupport readersSupport) {
+        this.writer = writer;
+        this.readersSupport = readersSupport;
+        this.submissions = new ConcurrentLinkedQueue<Submission>();
+        this.writing = new AtomicBoolean();
+        this.batches = new AtomicLong();
+    }
+
+    /**
+     * Submits the given command.
+     *
+     * @param response response to be registered for the command; might be
+     *        <code>null</code> for commands without response
+     * @return the given response
+     */
+    <T> RubyDebugFuture<T> submit(final String command, final RubyDebugFuture<T> response) {
+        submit(new String[] { command }, new RubyDebugFuture<?>[] { response });
+        return response;
+    }
+
+    /**
+     * Submits the given commands to be written together, in the given order.
+     *
+     * @param responses responses to be registered for the commands at the
+     *        same indices; elements might be <code>null</code>
+     */
+    void submit(final String[] commands, final RubyDebugFuture<?>[] responses) {
+        assert commands.length == responses.length : "commands and responses do not match";
+        submissions.offer(new Submission(commands, responses));
+        drain();
+    }
+
+    /**
+     * Writes the queued commands unless another thread is already doing so.
+     * The check after releasing the writer makes sure that no command
+     * submitted meanwhile is left behind.
+     */
+    private void drain() {
+        while (!submissions.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                writeQueued();
+            } finally {
+                writing.set(false);
+            }
+        }
+    }
+
+    private void writeQueued() {
+        batches.incrementAndGet();
+        writer.beginBatch();
+        Submission submission;
+        while ((submission = submissions.poll()) != null) {
+            for (int i = 0; i < submission.commands.length; i++) {
+                write(submission.commands[i], submission.responses[i]);
+            }
+        }
+        try {
+            writer.endBatch();
+        } catch (IOException e) {
+            // the connection is broken, the readers fail all pending responses
+            LOGGER.log(Level.FINE, "Cannot write commands to the backend", e);
+        }
+    }
+
+    private void write(final String command, final RubyDebugFuture<?> response) {
+        LOGGER.fine("Sending command debugger: " + command);
+        if (response != null) {
+            readersSupport.register(response);
+        } else {
+            readersSupport.registerWithoutResponse();
+        }
+        try {
+            writer.write(command);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot send a command [" + command + ']', e);
+            if (response != null) {
+                response.fail(new RubyDebuggerException("Cannot send a command [" + command + ']', e));
+                readersSupport.discard(response);
+            }
+        }
+    }
+
+    /** Number of batches written so far. */
+    long getBatches() {
+        return batches.get();
+    }
+
+}
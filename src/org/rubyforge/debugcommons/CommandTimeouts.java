@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Timeouts after which a command waiting for its response is failed, with
+ * millisecond precision and configurable per {@link CommandType}.
+ * <p>
+ * In the <em>adaptive</em> mode the latencies of answered commands are
+ * tracked per command type and, once enough of them is known, the timeout is
+ * derived from their distribution: {@link #getAdaptiveMultiplier multiple}
+ * of the 99th percentile, but at least {@link #getMinimumTimeout} (two
+ * seconds by default, leaving room for jitter of pipelined commands). A hung
+ * backend is then detected in a fraction of the configured timeout, while
+ * commands which are slow in the session (e.g. inspecting of huge objects)
+ * get longer timeouts. Adaptive timeouts are never longer than {@link
+ * #getMaximumTimeout}.
+ * <p>
+ * Thread-safe.
+ */
+public final class CommandTimeouts {
+
+    /** How many latencies are kept per command type. */
+    private static final int SAMPLES = 128;
+
+    /** How many latencies are needed before the timeout is adapted. */
+    private static final int MIN_SAMPLES = 20;
+
+    private final Map<CommandType, Long> timeouts;
+    private final Map<CommandType, Latencies> latencies;
+
+    private volatile long defaultTimeout;
+    private volatile boolean adaptive;
+    private volatile long minimumTimeout = 2000;
+    private volatile long maximumTimeout = 60000;
+    private volatile int adaptiveMultiplier = 4;
+
+    /**
+     * @param defaultTimeout timeout of all command types [ms]
+     */
+    public CommandTimeouts(final long defaultTimeout) {
+        this.defaultTimeout = defaultTimeout;
+        this.timeouts = new EnumMap<CommandType, Long>(CommandType.class);
+        this.latencies = new EnumMap<CommandType, Latencies>(CommandType.class);
+        for (CommandType type : CommandType.values()) {
+            latencies.put(type, new Latencies());
+        }
+    }
+
+    /**
+     * Returns timeout of the given command type [ms], adapted to the observed
+     * latencies when in the adaptive mode.
+     */
+    public long getTimeout(final CommandType type) {
+        if (adaptive) {
+            long p99 = latencies.get(type).percentile(0.99);
+            if (p99 >= 0) {
+                return Math.min(maximumTimeout, Math.max(minimumTimeout, p99 * adaptiveMultiplier));
+            }
+        }
+        return getConfiguredTimeout(type);
+    }
+
+    /** Returns timeout set for the given command type, ignoring adaptation [ms]. */
+    public long getConfiguredTimeout(final CommandType type) {
+        synchronized (timeouts) {
+            Long timeout = timeouts.get(type);
+            return timeout == null ? defaultTimeout : timeout;
+        }
+    }
+
+    /** Sets timeout of the given command type [ms]. */
+    public void setTimeout(final CommandType type, final long timeout) {
+        synchronized (timeouts) {
+            timeouts.put(type, timeout);
+        }
+    }
+
+    /** Sets timeout of command types without their own timeout [ms]. */
+    public void setDefaultTimeout(final long defaultTimeout) {
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    public long getDefaultTimeout() {
+        return defaultTimeout;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Turns the adaptive mode on or off. Until enough latencies of a command
+     * type are known, its configured timeout is used.
+     */
+    public void setAdaptive(final boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public long getMinimumTimeout() {
+        return minimumTimeout;
+    }
+
+    /** Sets lower bound of adaptive timeouts [ms]. */
+    public void setMinimumTimeout(final long minimumTimeout) {
+        this.minimumTimeout = minimumTimeout;
+    }
+
+    public long getMaximumTimeout() {
+        return maximumTimeout;
+    }
+
+    /** Sets upper bound of adaptive timeouts [ms]. */
+    public void setMaximumTimeout(final long maximumTimeout) {
+        this.maximumTimeout = maximumTimeout;
+    }
+
+    public int getAdaptiveMultiplier() {
+        return adaptiveMultiplier;
+    }
+
+    /** Sets how many times the 99th percentile of latencies is the adaptive timeout. */
+    public void setAdaptiveMultiplier(final int adaptiveMultiplier) {
+        this.adaptiveMultiplier = adaptiveMultiplier;
+    }
+
+    /** Records latency of an answered command [ms]. */
+    public void record(final CommandType type, final long latency) {
+        latencies.get(type).add(latency);
+    }
+
+    /**
+     * Returns the given percentile of recent latencies of the given command
+     * type [ms], or -1 if not enough latencies were recorded yet.
+     *
+     * @param percentile between 0 and 1, e.g. 0.5 for median
+     */
+    public long getLatency(final CommandType type, final double percentile) {
+        return latencies.get(type).percentile(percentile);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CommandTimeouts[");
+        for (CommandType type : CommandType.values()) {
+            sb.append(type).append('=').append(getTimeout(type)).append("ms (p50: ")
+                    .append(getLatency(type, 0.5)).append(", p99: ")
+                    .append(getLatency(type, 0.99)).append(") ");
+        }
+        return sb.append(']').toString();
+    }
+
+    /** The most recent latencies of one command type. */
+    private static final class Latencies {
+
+        private final long[] samples = new long[SAMPLES];
+        private int count;
+        private int next;
+
+        /** Sorted copy of the samples; <code>null</code> if stale. */
+        private long[] sorted;
+
+        synchronized void add(final long latency) {
+            samples[next] = latency;
+            next = (next + 1) % SAMPLES;
+            if (count < SAMPLES) {
+                count++;
+            }
+            sorted = null;
+        }
+
+        synchronized long percentile(final double percentile) {
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+            if (sorted == null) {
+                sorted = new long[count];
+                System.arraycopy(samples, 0, sorted, 0, count);
+                Arrays.sort(sorted);
+            }
+            int index = (int) Math.ceil(percentile * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+/**
+ * Kinds of commands expecting a response from the debugger backend. Used to
+ * give each kind its own {@link CommandTimeouts timeout}.
+ */
+public enum CommandType {
+
+    /** Listing of threads. */
+    THREADS,
+
+    /** Reading of a thread's frames. */
+    FRAMES,
+
+    /** Reading of local, instance or global variables. */
+    VARIABLES,
+
+    /** Evaluation of an expression. */
+    INSPECT,
+
+    /** Adding, removing, enabling or disabling a breakpoint or its condition. */
+    BREAKPOINT,
+
+    /** Setting of a catchpoint. */
+    CATCHPOINT
+
+}
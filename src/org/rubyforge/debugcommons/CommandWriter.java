@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writes commands to the debugger backend. Commands are encoded in UTF-8 into
+ * a reused buffer which is written to the underlying stream in one call.
+ * <p>
+ * A command written outside of a batch is flushed immediately. Commands
+ * written between {@link #beginBatch} and {@link #endBatch} are collected and
+ * flushed together once the outermost batch ends (or on explicit {@link
+ * #flush}), so e.g. a bulk of breakpoints is sent in a single write.
+ */
+final class CommandWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private static final int INITIAL_CAPACITY = 512;
+
+    private final OutputStream out;
+    private final CharsetEncoder encoder;
+
+    /** Encoded commands not written yet; guarded by this. */
+    private ByteBuffer buffer;
+
+    private int batchDepth;
+
+    private long commandsWritten;
+    private long bytesWritten;
+    private long flushes;
+
+    CommandWriter(final OutputStream out) {
+        this.out = out;
+        this.encoder = UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Writes the given command followed by a line separator. The command is
+     * flushed unless a batch is open.
+     */
+    synchronized void write(final String command) throws IOException {
+        encode(command);
+        encode(LINE_SEPARATOR);
+        commandsWritten++;
+        if (batchDepth == 0) {
+            flush();
+        }
+    }
+
+    /** Starts collecting commands. Batches might be nested. */
+    synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    /** Ends the batch, flushing the collected commands if it is the outermost one. */
+    synchronized void endBatch() throws IOException {
+        assert batchDepth > 0 : "endBatch() without beginBatch()";
+        batchDepth--;
+        if (batchDepth == 0) {
+            flush();
+        }
+    }
+
+    /** Writes all the collected commands to the underlying stream. */
+    synchronized void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        int length = buffer.position();
+        buffer.clear();
+        out.write(buffer.array(), 0, length);
+        out.flush();
+        bytesWritten += length;
+        flushes++;
+    }
+
+    /** Number of commands written so far. */
+    synchronized long getCommandsWritten() {
+        return commandsWritten;
+    }
+
+    /** Number of bytes written to the underlying stream so far. */
+    synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Number of writes to the underlying stream so far. */
+    synchronized long getFlushes() {
+        return flushes;
+    }
+
+    private void encode(final String s) throws CharacterCodingException {
+        CharBuffer chars = CharBuffer.wrap(s);
+        encoder.reset();
+        CoderResult result;
+        while ((result = encoder.encode(chars, buffer, true)).isOverflow()) {
+            grow();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Access to {@link SessionMetrics} of all live sessions, i.e. of all {@link
+ * RubyDebuggerProxy#PROXIES}.
+ * <p>
+ * When JMX is {@link #setJmxEnabled enabled}, metrics of every session
+ * started by the {@link RubyDebuggerFactory} are registered in the platform
+ * MBean server as <code>org.rubyforge.debugcommons:type=DebuggerSession,name=&lt;session&gt;</code>
+ * until the session is finished.
+ */
+public final class DebuggerMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(DebuggerMetrics.class.getName());
+
+    private static final String DOMAIN = "org.rubyforge.debugcommons";
+
+    private static volatile boolean jmxEnabled = Boolean.getBoolean("org.rubyforge.debugcommons.jmx");
+
+    private static final Map<RubyDebuggerProxy, ObjectName> REGISTERED = new ConcurrentHashMap<RubyDebuggerProxy, ObjectName>();
+
+    private DebuggerMetrics() { /* static methods only */ }
+
+    /**
+     * Whether metrics of new sessions are registered in JMX. Defaults to
+     * <code>false</code>, might be set by the
+     * <code>org.rubyforge.debugcommons.jmx</code> system property.
+     */
+    public static boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /** @see #isJmxEnabled */
+    public static void setJmxEnabled(final boolean jmxEnabled) {
+        DebuggerMetrics.jmxEnabled = jmxEnabled;
+    }
+
+    /** Returns identification of the given session used in metrics. */
+    public static String getSessionId(final RubyDebuggerProxy proxy) {
+        return Integer.toHexString(System.identityHashCode(proxy));
+    }
+
+    /** Reports metrics of all live sessions to the given registry. */
+    public static void reportAll(final MetricsRegistry registry) {
+        for (RubyDebuggerProxy proxy : RubyDebuggerProxy.PROXIES) {
+            proxy.getMetrics().reportTo(registry, getSessionId(proxy));
+        }
+    }
+
+    static void register(final RubyDebuggerProxy proxy) {
+        if (!jmxEnabled) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=DebuggerSession,name=" + getSessionId(proxy));
+            getServer().registerMBean(proxy.getMetrics(), name);
+            REGISTERED.put(proxy, name);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Cannot register metrics of " + proxy, e);
+        }
+    }
+
+    static void unregister(final RubyDebuggerProxy proxy) {
+        ObjectName name = REGISTERED.remove(proxy);
+        if (name == null) {
+            return;
+        }
+        try {
+            getServer().unregisterMBean(name);
+        } catch (JMException e) {
+            LOGGER.log(Level.FINE, "Cannot unregister metrics of " + proxy, e);
+        }
+    }
+
+    private static MBeanServer getServer() {
+        return ManagementFactory.getPlatformMBeanServer();
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+/**
+ * Receives metrics of debugger sessions, e.g. to export them to a monitoring
+ * system. Implementations are passed to {@link DebuggerMetrics#reportAll} or
+ * {@link SessionMetrics#reportTo}, typically on each scrape.
+ */
+public interface MetricsRegistry {
+
+    /**
+     * Monotonically growing value.
+     *
+     * @param session identification of the debugger session
+     * @param name name of the metric, like <code>commands.frames.count</code>
+     */
+    void counter(String session, String name, long value);
+
+    /** Current value, like a queue depth. */
+    void gauge(String session, String name, long value);
+
+    /**
+     * Histogram of values.
+     *
+     * @param upperBounds inclusive upper bounds of the buckets
+     * @param counts number of values in the corresponding buckets
+     */
+    void histogram(String session, String name, long[] upperBounds, long[] counts);
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Non-blocking command connection of one debugging session served by the
+ * {@link NioSessionMultiplexer}. Read bytes are decoded, split into complete
+ * top-level elements and handed over to the {@link ReadersSupport}. Writes
+ * are done directly in the calling thread when the socket accepts them,
+ * otherwise they are queued and finished by the selector thread.
+ */
+final class NioSession implements XmlElementSplitter.ChunkHandler {
+
+    private static final Logger LOGGER = Logger.getLogger(NioSession.class.getName());
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final SocketChannel channel;
+    private final ReadersSupport readersSupport;
+
+    /** Executes tasks in the selector thread serving this session. */
+    private final Executor selectorThread;
+
+    private final ByteBuffer input;
+    private final CharBuffer chars;
+    private final CharsetDecoder decoder;
+    private final XmlElementSplitter splitter;
+
+    /** Data not yet accepted by the socket; guarded by itself. */
+    private final LinkedList<ByteBuffer> pendingWrites;
+
+    private SelectionKey key;
+    private volatile boolean closed;
+
+    NioSession(final SocketChannel channel, final ReadersSupport readersSupport, final Executor selectorThread) {
+        this.channel = channel;
+        this.readersSupport = readersSupport;
+        this.selectorThread = selectorThread;
+        this.input = ByteBuffer.allocate(BUFFER_SIZE);
+        this.chars = CharBuffer.allocate(BUFFER_SIZE);
+        this.decoder = Charset.forName("UTF-8").newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.splitter = new XmlElementSplitter();
+        this.pendingWrites = new LinkedList<ByteBuffer>();
+    }
+
+    /** Called in the selector thread once the channel is registered. */
+    void registered(final SelectionKey key) {
+        this.key = key;
+        if (closed) {
+            key.cancel();
+        }
+    }
+
+    /** Called in the selector thread when the channel is ready. */
+    void process(final SelectionKey key) {
+        if (key.isValid() && key.isWritable()) {
+            flushPendingWrites();
+        }
+        if (key.isValid() && key.isReadable()) {
+            read();
+        }
+    }
+
+    private void read() {
+        try {
+            int read = channel.read(input);
+            if (read == -1) {
+                LOGGER.fine("Backend closed the connection: " + channel);
+                close(false);
+                return;
+            }
+            readersSupport.getMetrics().bytesRead(read);
+            SessionRecorder recorder = readersSupport.getRecorder();
+            if (recorder != null) {
+                recorder.recordInput(input.array(), input.arrayOffset() + input.position() - read, read);
+            }
+            input.flip();
+            decoder.decode(input, chars, false);
+            input.compact();
+            chars.flip();
+            splitter.feed(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining(), this);
+            chars.clear();
+        } catch (IOException e) {
+            // debugger is just killed, see ReadersSupport's XPPLoop
+            LOGGER.log(Level.FINE, "Reading from " + channel + " failed", e);
+            close(true);
+        }
+    }
+
+    public void chunk(final String chunk) {
+        if (closed) {
+            return;
+        }
+        try {
+            if (readersSupport.processChunk(chunk)) {
+                LOGGER.fine("Backend has finished, closing " + channel);
+                close(false);
+            }
+        } catch (XmlPullParserException e) {
+            LOGGER.log(Level.SEVERE, "Cannot parse \"" + chunk + '"', e);
+            readersSupport.getMetrics().parserError();
+            close(true);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Cannot parse \"" + chunk + '"', e);
+            close(true);
+        }
+    }
+
+    private void write(final byte[] b, final int off, final int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        synchronized (pendingWrites) {
+            if (closed) {
+                throw new IOException("Connection to the debugger backend is closed");
+            }
+            if (pendingWrites.isEmpty()) {
+                channel.write(buffer);
+                if (!buffer.hasRemaining()) {
+                    return;
+                }
+            }
+            // caller might reuse the array
+            ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+            copy.put(buffer).flip();
+            pendingWrites.add(copy);
+            if (pendingWrites.size() == 1) {
+                selectorThread.execute(new Runnable() {
+                    public void run() {
+                        if (key != null && key.isValid()) {
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private void flushPendingWrites() {
+        synchronized (pendingWrites) {
+            try {
+                while (!pendingWrites.isEmpty()) {
+                    ByteBuffer buffer = pendingWrites.getFirst();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        return;
+                    }
+                    pendingWrites.removeFirst();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Writing to " + channel + " failed", e);
+                close(true);
+            }
+        }
+    }
+
+    /** Called in the selector thread. */
+    void close(final boolean unexpected) {
+        synchronized (pendingWrites) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pendingWrites.clear();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Cannot close " + channel, e);
+        }
+        readersSupport.connectionClosed(unexpected);
+    }
+
+    /** Returns stream writing to the session's channel. */
+    OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                NioSession.this.write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                NioSession.this.write(b, off, len);
+            }
+        };
+    }
+
+}
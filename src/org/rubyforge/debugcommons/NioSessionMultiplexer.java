@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives command sockets of many debugging sessions from a fixed number of
+ * selector threads. Suspensions are handled by a fixed pool of worker
+ * threads, events of one session are always handled one by one in the order
+ * they were read. So the number of threads does not grow with the number of
+ * sessions.
+ * <p>
+ * Without a multiplexer, each {@link RubyDebuggerProxy} uses its own reader
+ * threads. To use the multiplexer either set it via {@link
+ * RubyDebuggerFactory.Descriptor#setMultiplexer} or {@link
+ * RubyDebuggerProxy#setMultiplexer} before the proxy is attached. One
+ * multiplexer is typically shared by all sessions in the VM.
+ */
+public final class NioSessionMultiplexer {
+
+    private static final Logger LOGGER = Logger.getLogger(NioSessionMultiplexer.class.getName());
+
+    private final SelectorLoop[] loops;
+    private final ExecutorService workers;
+    private final AtomicInteger nextLoop;
+
+    /** One selector thread and four workers. */
+    public NioSessionMultiplexer() throws RubyDebuggerException {
+        this(1, 4);
+    }
+
+    /**
+     * @param selectorThreads number of threads reading and writing sockets
+     * @param workerThreads number of threads handling suspensions
+     */
+    public NioSessionMultiplexer(final int selectorThreads, final int workerThreads) throws RubyDebuggerException {
+        if (selectorThreads < 1 || workerThreads < 1) {
+            throw new IllegalArgumentException("At least one selector and worker thread is needed");
+        }
+        this.nextLoop = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "NioSessionMultiplexer worker [" + count.incrementAndGet() + ']');
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.loops = new SelectorLoop[selectorThreads];
+        try {
+            for (int i = 0; i < selectorThreads; i++) {
+                loops[i] = new SelectorLoop(Selector.open(), i);
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw new RubyDebuggerException(e);
+        }
+        for (SelectorLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    /**
+     * Registers the given connected channel. Data read from the channel are
+     * fed into the given {@link ReadersSupport}.
+     */
+    NioSession register(final SocketChannel channel, final ReadersSupport readersSupport) throws RubyDebuggerException {
+        final SelectorLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+        try {
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            throw new RubyDebuggerException(e);
+        }
+        final NioSession session = new NioSession(channel, readersSupport, loop);
+        loop.execute(new Runnable() {
+            public void run() {
+                try {
+                    session.registered(channel.register(loop.selector, SelectionKey.OP_READ, session));
+                } catch (ClosedChannelException e) {
+                    LOGGER.log(Level.FINE, "Channel closed before registration", e);
+                    session.close(true);
+                }
+            }
+        });
+        return session;
+    }
+
+    /**
+     * Returns executor running tasks one by one in the worker threads. Used
+     * to handle events of one session.
+     */
+    Executor newSerialExecutor() {
+        return new SerialExecutor(workers);
+    }
+
+    /** Returns number of currently connected sessions. */
+    public int getSessionCount() {
+        int count = 0;
+        for (SelectorLoop loop : loops) {
+            if (loop != null) {
+                count += loop.sessionCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Closes all sessions and stops all threads. Events of sessions which
+     * were not handled yet are dropped.
+     */
+    public void shutdown() {
+        for (final SelectorLoop loop : loops) {
+            if (loop == null) {
+                continue;
+            }
+            loop.execute(new Runnable() {
+                public void run() {
+                    try {
+                        for (SelectionKey key : loop.selector.keys()) {
+                            ((NioSession) key.attachment()).close(true);
+                        }
+                        loop.selector.close();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Cannot close selector", e);
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+    }
+
+    /** Thread selecting and serving channels of its selector. */
+    private static final class SelectorLoop extends Thread implements Executor {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks;
+
+        /** Registered sessions; written only by the loop thread. */
+        private volatile int sessionCount;
+
+        SelectorLoop(final Selector selector, final int index) {
+            super("NioSessionMultiplexer selector [" + index + ']');
+            this.selector = selector;
+            this.tasks = new ConcurrentLinkedQueue<Runnable>();
+            setDaemon(true);
+        }
+
+        /** Runs the given task in the loop thread. */
+        public void execute(final Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            LOGGER.fine("Starting " + getName());
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        ((NioSession) key.attachment()).process(key);
+                    }
+                    sessionCount = selector.keys().size();
+                } catch (ClosedSelectorException e) {
+                    break;
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Exception during selecting in " + getName(), e);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Exception in " + getName(), e);
+                }
+            }
+            sessionCount = 0;
+            LOGGER.fine(getName() + " finished");
+        }
+    }
+
+    /** Runs submitted tasks one by one in the given executor. */
+    private static final class SerialExecutor implements Executor {
+
+        private final Executor executor;
+        private final Queue<Runnable> tasks;
+        private Runnable active;
+
+        SerialExecutor(final Executor executor) {
+            this.executor = executor;
+            this.tasks = new LinkedList<Runnable>();
+        }
+
+        public synchronized void execute(final Runnable task) {
+            tasks.add(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                try {
+                    executor.execute(active);
+                } catch (RejectedExecutionException e) {
+                    LOGGER.fine("Multiplexer was shut down, dropping " + (tasks.size() + 1) + " event(s)");
+                    tasks.clear();
+                    active = null;
+                }
+            }
+        }
+    }
+
+}
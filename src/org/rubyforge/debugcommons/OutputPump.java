@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drains a debuggee's output stream so that the debuggee never blocks on a
+ * full pipe. The stream is read in bulk by a dedicated daemon thread, the last
+ * {@link #getTailCapacity bytes} are kept in a ring buffer for diagnostics
+ * (see {@link Util#dumpAndDestroyProcess}) and the read chunks are passed to
+ * {@link Listener listeners}.
+ * <p>
+ * Listeners are called in the pump's thread. A slow listener therefore slows
+ * down the reading, which eventually blocks the debuggee's writes; there is no
+ * unbounded buffering in between.
+ */
+public final class OutputPump {
+
+    private static final Logger LOGGER = Logger.getLogger(OutputPump.class.getName());
+
+    /** Default number of the last bytes kept for diagnostics. */
+    public static final int DEFAULT_TAIL_CAPACITY = 64 * 1024;
+
+    private static final int CHUNK_SIZE = 8192;
+
+    /** Receives chunks of the pumped output. */
+    public interface Listener {
+
+        /**
+         * Called for every chunk read. The buffer is reused for the next
+         * chunk, so its content has to be copied if needed later.
+         */
+        void output(byte[] buffer, int offset, int length);
+
+        /** Called once the stream is closed. */
+        void closed();
+
+    }
+
+    /**
+     * Listener splitting the output into lines, decoded in the platform's
+     * default encoding.
+     */
+    public static abstract class LineListener implements Listener {
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+
+        /** Called for every line read, without the line terminator. */
+        protected abstract void line(String line);
+
+        public final void output(final byte[] buffer, final int offset, final int length) {
+            int start = offset;
+            for (int i = offset, end = offset + length; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    line.write(buffer, start, i - start);
+                    flushLine();
+                    start = i + 1;
+                }
+            }
+            line.write(buffer, start, offset + length - start);
+        }
+
+        public final void closed() {
+            if (line.size() > 0) {
+                flushLine();
+            }
+        }
+
+        private void flushLine() {
+            String s = line.toString();
+            line.reset();
+            if (s.endsWith("\r")) {
+                s = s.substring(0, s.length() - 1);
+            }
+            line(s);
+        }
+
+    }
+
+    private final InputStream stream;
+    private final String name;
+    private final List<Listener> listeners;
+
+    /** The last bytes read; guarded by itself. */
+    private final byte[] tail;
+    private int tailEnd;
+    private boolean tailFull;
+
+    private final CountDownLatch finished;
+    private volatile long bytesRead;
+    private Thread thread;
+
+    /**
+     * @param stream stream to be pumped
+     * @param name name used for the pump's thread and in logging
+     * @param tailCapacity number of the last bytes kept for {@link #getTail}
+     */
+    public OutputPump(final InputStream stream, final String name, final int tailCapacity) {
+        this.stream = stream;
+        this.name = name;
+        this.listeners = new CopyOnWriteArrayList<Listener>();
+        this.tail = new byte[tailCapacity];
+        this.finished = new CountDownLatch(1);
+    }
+
+    /** Starts pumping. Listeners added before are not going to miss any output. */
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Pump already started: " + name);
+        }
+        thread = new Thread(new Runnable() {
+            public void run() {
+                pump();
+            }
+        }, "Output pump: " + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void pump() {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try {
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                appendToTail(buffer, read);
+                bytesRead += read;
+                for (Listener listener : listeners) {
+                    try {
+                        listener.output(buffer, 0, read);
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.SEVERE, "Listener of " + name + " failed", e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Reading of " + name + " failed", e);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot close " + name, e);
+            }
+            for (Listener listener : listeners) {
+                try {
+                    listener.closed();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Listener of " + name + " failed", e);
+                }
+            }
+            finished.countDown();
+        }
+    }
+
+    private void appendToTail(final byte[] buffer, final int length) {
+        synchronized (tail) {
+            int offset = Math.max(0, length - tail.length);
+            int remaining = length - offset;
+            while (remaining > 0) {
+                int n = Math.min(remaining, tail.length - tailEnd);
+                System.arraycopy(buffer, offset, tail, tailEnd, n);
+                offset += n;
+                remaining -= n;
+                tailEnd += n;
+                if (tailEnd == tail.length) {
+                    tailEnd = 0;
+                    tailFull = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the last bytes read, at most {@link #getTailCapacity}, decoded
+     * in the platform's default encoding.
+     */
+    public String getTail() {
+        synchronized (tail) {
+            if (!tailFull) {
+                return new String(tail, 0, tailEnd);
+            }
+            byte[] ordered = new byte[tail.length];
+            System.arraycopy(tail, tailEnd, ordered, 0, tail.length - tailEnd);
+            System.arraycopy(tail, 0, ordered, tail.length - tailEnd, tailEnd);
+            return new String(ordered);
+        }
+    }
+
+    public int getTailCapacity() {
+        return tail.length;
+    }
+
+    /** Returns number of bytes read so far. */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /** Whether the whole stream has been read. */
+    public boolean isFinished() {
+        return finished.getCount() == 0;
+    }
+
+    /**
+     * Waits until the whole stream is read, at most the given time.
+     *
+     * @return whether the stream has been read
+     */
+    public boolean awaitFinished(final long timeout) throws InterruptedException {
+        return finished.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "OutputPump[" + name + ", read: " + bytesRead + "B]";
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import org.kxml2.io.KXmlParser;
+import org.rubyforge.debugcommons.reader.ProtocolParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Creates parsers reading the debugger protocol. The parser to be used might
+ * be chosen when creating the {@link RubyDebuggerProxy}.
+ */
+public interface ProtocolParserFactory {
+
+    /** Generic kXML parser. The default. */
+    ProtocolParserFactory KXML = new ProtocolParserFactory() {
+        public XmlPullParser newParser() throws XmlPullParserException {
+            return new KXmlParser();
+        }
+        @Override
+        public String toString() {
+            return "KXML";
+        }
+    };
+
+    /** Parser specialised for the debugger protocol, see {@link ProtocolParser}. */
+    ProtocolParserFactory SPECIALIZED = new ProtocolParserFactory() {
+        public XmlPullParser newParser() throws XmlPullParserException {
+            return new ProtocolParser();
+        }
+        @Override
+        public String toString() {
+            return "SPECIALIZED";
+        }
+    };
+
+    /** Returns new parser, each connection uses its own one. */
+    XmlPullParser newParser() throws XmlPullParserException;
+
+}
@@ -27,8 +27,23 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,7 +54,6 @@ import org.rubyforge.debugcommons.model.RubyThreadInfo;
 import org.rubyforge.debugcommons.model.RubyVariableInfo;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 final class ReadersSupport {
 
@@ -61,48 +75,128 @@ final class ReadersSupport {
     
     private static final String PROCESSING_EXCEPTION_ELEMENT = "processingException";
     
+    private static final String ERROR_ELEMENT = "error";
+    
     private static final String RUBY_DEBUG_PROMPT = "PROMPT";
     
     /** Message sent by debugger backend when debugger has finished. */
     private static final String FINISHED = "finished";
 
     /**
-     * Reading timeout until giving up when polling information from socket
-     * communication.
+     * Fails commands which were not answered in time. Shared by all sessions
+     * so that waiting for a response never parks a thread per command.
      */
-    private final long timeout;
-    
-    private final BlockingQueue<RubyThreadInfo[]> threads;
-    private final BlockingQueue<RubyFrameInfo[]> frames;
-    private final BlockingQueue<RubyVariableInfo[]> variables;
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, ReadersSupport.class.getName() + " timeouts");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** Timeouts until giving up when waiting for responses. */
+    private final CommandTimeouts timeouts;
+
+    private final ProtocolParserFactory parserFactory;
     
     private final BlockingQueue<SuspensionPoint> suspensions;
-    private final BlockingQueue<Integer> addedBreakpoints;
-    private final BlockingQueue<Integer> removedBreakpoints;
-    private final BlockingQueue<Integer> enabledBreakpoints;
-    private final BlockingQueue<Integer> disabledBreakpoints;
-    private final BlockingQueue<Integer> conditionSets;
-    private final BlockingQueue<String> catchpointSets;
+
+    /**
+     * Commands waiting for their response, keyed by the name of the element
+     * which answers them. The backend processes commands one by one, so the
+     * responses of the same type come in the order the commands were sent.
+     * Futures which timed out or were cancelled stay in the queue until
+     * their late response arrives, which is then thrown away; removing them
+     * would hand the response to the next command.
+     */
+    private final Map<String, Queue<RubyDebugFuture<?>>> pendingResponses;
+
+    /**
+     * All written commands not answered yet, in the order they were written:
+     * futures of the commands expecting response and {@link #NO_RESPONSE}
+     * markers of the other ones. Used to find the command answered by an
+     * <code>&lt;error&gt;</code>, which does not tell its type. Guarded by
+     * itself.
+     */
+    private final LinkedList<Object> inFlight = new LinkedList<Object>();
+
+    /** Marker of a command without response in {@link #inFlight}. */
+    private static final Object NO_RESPONSE = new Object();
+    
+    /**
+     * Receives suspensions as they are read when the connection is driven by
+     * a {@link NioSessionMultiplexer}; <code>null</code> when suspensions are
+     * queued for {@link #readSuspension}.
+     */
+    private volatile SuspensionListener suspensionListener;
+
+    /** Parser reused for all chunks fed by {@link #processChunk}. */
+    private XmlPullParser chunkParser;
     
     private boolean finished;
     private boolean unexpectedFail;
+    private volatile boolean connectionClosed;
+
+    /** Opened once the whole input from the backend was read. */
+    private final CountDownLatch drained = new CountDownLatch(1);
+
+    private final SessionMetrics metrics;
+
+    /** Deduplicates strings of the read frames and variables. */
+    private final StringPool stringPool = new StringPool();
+
+    /** Records the read protocol; <code>null</code> if not recording. */
+    private volatile SessionRecorder recorder;
+
+    /**
+     * Push alternative to {@link ReadersSupport#readSuspension}. Called in
+     * the thread reading the connection, so implementations must not block.
+     */
+    interface SuspensionListener {
+
+        /**
+         * @param sp read suspension point or {@link SuspensionPoint#END} when
+         *        the connection was closed
+         */
+        void suspended(SuspensionPoint sp);
+
+    }
     
     /**
      * @param timeout reading timeout until giving up when polling information
      *        from socket communication.
      */
     ReadersSupport(final long timeout) {
-        this.timeout = timeout;
-        this.threads = new LinkedBlockingQueue<RubyThreadInfo[]>();
-        this.frames = new LinkedBlockingQueue<RubyFrameInfo[]>();
-        this.variables = new LinkedBlockingQueue<RubyVariableInfo[]>();
+        this(timeout, ProtocolParserFactory.KXML);
+    }
+    
+    /**
+     * @param timeout reading timeout until giving up when polling information
+     *        from socket communication.
+     * @param parserFactory creates parser used to read the protocol
+     */
+    ReadersSupport(final long timeout, final ProtocolParserFactory parserFactory) {
+        this(new CommandTimeouts(TimeUnit.SECONDS.toMillis(timeout)), parserFactory);
+    }
+
+    /**
+     * @param timeouts timeouts until giving up when waiting for responses
+     * @param parserFactory creates parser used to read the protocol
+     */
+    ReadersSupport(final CommandTimeouts timeouts, final ProtocolParserFactory parserFactory) {
+        this.timeouts = timeouts;
+        this.metrics = new SessionMetrics(this);
+        this.parserFactory = parserFactory;
         this.suspensions = new LinkedBlockingQueue<SuspensionPoint>();
-        this.addedBreakpoints = new LinkedBlockingQueue<Integer>();
-        this.removedBreakpoints = new LinkedBlockingQueue<Integer>();
-        this.enabledBreakpoints = new LinkedBlockingQueue<Integer>();
-        this.disabledBreakpoints = new LinkedBlockingQueue<Integer>();
-        this.conditionSets = new LinkedBlockingQueue<Integer>();
-        this.catchpointSets = new LinkedBlockingQueue<String>();
+        this.pendingResponses = new HashMap<String, Queue<RubyDebugFuture<?>>>();
+        for (String element : new String[] {
+                THREADS_ELEMENT, FRAMES_ELEMENT, VARIABLES_ELEMENT,
+                BREAKPOINT_ADDED_ELEMENT, BREAKPOINT_DELETED_ELEMENT,
+                BREAKPOINT_ENABLED_ELEMENT, BREAKPOINT_DISABLED_ELEMENT,
+                CONDITION_SET_ELEMENT, CATCHPOINT_SET_ELEMENT }) {
+            pendingResponses.put(element, new ConcurrentLinkedQueue<RubyDebugFuture<?>>());
+        }
     }
     
     void startCommandLoop(final InputStream is) throws RubyDebuggerException {
@@ -115,7 +209,73 @@ final class ReadersSupport {
         }
     }
     
+    void setSuspensionListener(final SuspensionListener suspensionListener) {
+        this.suspensionListener = suspensionListener;
+    }
+
+    /**
+     * Processes one complete top-level chunk of the protocol, as split by the
+     * {@link XmlElementSplitter}. Used for non-blocking connections, where
+     * the reader cannot wait for the rest of the stream.
+     *
+     * @return whether the backend has announced the end of the session
+     */
+    boolean processChunk(final String chunk) throws XmlPullParserException, IOException {
+        if (chunkParser == null) {
+            chunkParser = parserFactory.newParser();
+        }
+        chunkParser.setInput(new StringReader(chunk));
+        startXPPLoop(chunkParser);
+        return finished;
+    }
+
+    /**
+     * Called once the connection to the backend is closed. Fails commands
+     * waiting for response and notifies suspension consumers.
+     */
+    void connectionClosed(final boolean unexpected) {
+        if (unexpected) {
+            unexpectedFail = true;
+        }
+        failPendingResponses();
+        SessionRecorder sessionRecorder = recorder;
+        if (sessionRecorder != null) {
+            sessionRecorder.flush();
+        }
+        drained.countDown();
+        suspended(SuspensionPoint.END);
+    }
+
+    /**
+     * Waits until the connection to the backend is closed, i.e. the whole
+     * input was read, at most the given time.
+     *
+     * @return whether the connection was closed
+     */
+    boolean awaitDrained(final long millis) throws InterruptedException {
+        return drained.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void suspended(final SuspensionPoint sp) {
+        if (sp != SuspensionPoint.END) {
+            metrics.suspensionRead();
+            // commands without response resume the debuggee, were processed
+            synchronized (inFlight) {
+                while (inFlight.remove(NO_RESPONSE)) {
+                    // remove all
+                }
+            }
+        }
+        SuspensionListener listener = suspensionListener;
+        if (listener == null) {
+            suspensions.add(sp);
+        } else {
+            listener.suspended(sp);
+        }
+    }
+    
     private void startXPPLoop(final XmlPullParser xpp) throws XmlPullParserException, IOException {
+        boolean logEvents = !(xpp instanceof ProtocolParser);
         int eventType = xpp.getEventType();
         do {
             if (eventType == XmlPullParser.START_TAG) {
@@ -137,39 +297,42 @@ final class ReadersSupport {
                 break;
             }
             eventType = xpp.next();
-            Util.logEvent(xpp);
+            if (logEvents) {
+                Util.logEvent(xpp);
+            }
         } while (eventType != XmlPullParser.END_DOCUMENT);
     }
     
     private void processElement(final XmlPullParser xpp) throws IOException, XmlPullParserException {
         String element = xpp.getName();
         if (BREAKPOINT_ADDED_ELEMENT.equals(element)) {
-            addedBreakpoints.add(BreakpointAddedReader.readBreakpointNo(xpp));
+            complete(element, BreakpointAddedReader.readBreakpointNo(xpp));
         } else if (BREAKPOINT_DELETED_ELEMENT.equals(element)) {
-            removedBreakpoints.add(BreakpointDeletedReader.readBreakpointNo(xpp));
+            complete(element, BreakpointDeletedReader.readBreakpointNo(xpp));
         } else if (BREAKPOINT_ENABLED_ELEMENT.equals(element)) {
-            enabledBreakpoints.add(BreakpointEnabledReader.readBreakpointNo(xpp));
+            complete(element, BreakpointEnabledReader.readBreakpointNo(xpp));
         } else if (BREAKPOINT_DISABLED_ELEMENT.equals(element)) {
-            disabledBreakpoints.add(BreakpointDisabledReader.readBreakpointNo(xpp));
+            complete(element, BreakpointDisabledReader.readBreakpointNo(xpp));
         } else if (BREAKPOINT_ELEMENT.equals(element) || SUSPENDED_ELEMENT.equals(element) || EXCEPTION_ELEMENT.equals(element)) {
-            SuspensionPoint sp = SuspensionReader.readSuspension(xpp);
-            suspensions.add(sp);
+            suspended(SuspensionReader.readSuspension(xpp));
         } else if (CONDITION_SET_ELEMENT.equals(element)) {
-            conditionSets.add(ConditionSetReader.readBreakpointNo(xpp));
+            complete(element, ConditionSetReader.readBreakpointNo(xpp));
         } else if (CATCHPOINT_SET_ELEMENT.equals(element)) {
-            catchpointSets.add(CatchpointSetReader.readExceptionClassName(xpp));
+            complete(element, CatchpointSetReader.readExceptionClassName(xpp));
         } else if (THREADS_ELEMENT.equals(element)) {
-            threads.add(ThreadInfoReader.readThreads(xpp));
+            complete(element, ThreadInfoReader.readThreads(xpp));
         } else if (FRAMES_ELEMENT.equals(element)) {
-            frames.add(FramesReader.readFrames(xpp));
+            complete(element, FramesReader.readFrames(xpp, stringPool));
         } else if (VARIABLES_ELEMENT.equals(element)) {
-            variables.add(VariablesReader.readVariables(xpp));
+            complete(element, VariablesReader.readVariables(xpp, stringPool));
         } else if (PROCESSING_EXCEPTION_ELEMENT.equals(element)) {
             VariablesReader.logProcessingException(xpp);
-            variables.add(new RubyVariableInfo[0]);
+            complete(VARIABLES_ELEMENT, new RubyVariableInfo[0]);
         } else {
             Message message = ErrorReader.tryToReadMessageOrError(xpp, element);
-            if (message != null) {
+            if (ERROR_ELEMENT.equals(element)) {
+                failOldest(message.getText());
+            } else if (message != null) {
                 if (message.getText().equals(FINISHED)) {
                     LOGGER.fine("Got 'finished' <message>, text == finished");
                     finished = true;
@@ -180,84 +343,295 @@ final class ReadersSupport {
         }
     }
 
-    private <T> T[] readInfo(BlockingQueue<T[]> queue) throws RubyDebuggerException {
-        try {
-            T[] result = queue.poll(timeout, TimeUnit.SECONDS);
-            if (result == null) {
-                throw new RubyDebuggerException("Unable to read information in the specified timeout [" + timeout + "s]");
-            } else {
-                return result;
-            }
-        } catch (InterruptedException ex) {
-            Thread.currentThread().interrupt();
-            throw new RubyDebuggerException("Interruped during reading information " + queue.getClass(), ex);
+    /**
+     * Hands the response over to the oldest command waiting for the given
+     * element.
+     */
+    @SuppressWarnings("unchecked")
+    private void complete(final String element, final Object response) {
+        RubyDebugFuture<Object> future = (RubyDebugFuture<Object>) pendingResponses.get(element).poll();
+        if (future == null) {
+            LOGGER.fine("No command waiting for <" + element + ">, ignoring the response");
+            return;
+        }
+        answered(future);
+        if (!future.complete(response)) {
+            LOGGER.fine("Late response <" + element + "> for " + future + ", ignoring");
         }
     }
-    
-    RubyThreadInfo[] readThreads() throws RubyDebuggerException {
-        return readInfo(threads);
-    }
-    
-    RubyFrameInfo[] readFrames() throws RubyDebuggerException {
-        return readInfo(frames);
+
+    /**
+     * Removes the answered command from the {@link #inFlight} list together
+     * with the preceding commands without response, which were obviously
+     * processed by the backend as well.
+     */
+    private void answered(final RubyDebugFuture<?> future) {
+        synchronized (inFlight) {
+            for (Iterator<Object> it = inFlight.iterator(); it.hasNext();) {
+                Object command = it.next();
+                if (command == future) {
+                    it.remove();
+                    break;
+                }
+                if (command == NO_RESPONSE) {
+                    it.remove();
+                }
+            }
+            startOldest();
+        }
     }
-    
-    RubyVariableInfo[] readVariables() throws RubyDebuggerException {
-        return readInfo(variables);
+
+    /**
+     * Marks the oldest command waiting for a response as being processed by
+     * the backend, which answers the commands one by one. Latencies are
+     * measured from then, not including the time the command spent queued
+     * behind the preceding pipelined commands.
+     */
+    private void startOldest() {
+        assert Thread.holdsLock(inFlight);
+        for (Object command : inFlight) {
+            if (command != NO_RESPONSE) {
+                RubyDebugFuture<?> future = (RubyDebugFuture<?>) command;
+                if (future.getStarted() == 0) {
+                    future.setStarted(System.nanoTime());
+                }
+                return;
+            }
+        }
     }
-    
-    int readAddedBreakpointNo() throws RubyDebuggerException {
-        return poll(addedBreakpoints, "added breakpoint number");
+
+    /**
+     * Fails the oldest command not answered yet with the given error. If the
+     * oldest one does not expect a response, the error is attributed to it:
+     * failing a command whose response might still come would hand the
+     * response to a later command.
+     */
+    private void failOldest(final String error) {
+        Object oldest;
+        synchronized (inFlight) {
+            oldest = inFlight.poll();
+            startOldest();
+        }
+        if (oldest == null || oldest == NO_RESPONSE) {
+            LOGGER.fine("Error not answering any pending command: " + error);
+            return;
+        }
+        RubyDebugFuture<?> future = (RubyDebugFuture<?>) oldest;
+        pendingResponses.get(future.getResponseElement()).remove(future);
+        future.fail(new RubyDebuggerException("Error reading " + future.getDescription() + ": " + error));
     }
 
-    int readEnabledBreakpointNo(int breakpointID) throws RubyDebuggerException {
-        int enabledID = poll(enabledBreakpoints, "breakpoint number of the enabled breakpoint (" + breakpointID + ")");
-        if (enabledID != breakpointID) {
-            throw new RubyDebuggerException("Unexpected breakpoint removed. " +
-                    "Received id: " + enabledID + ", expected: " + breakpointID);
+    /**
+     * Records that a command without response is about to be written. Must
+     * be called in the same order in which the commands are written.
+     */
+    void registerWithoutResponse() {
+        synchronized (inFlight) {
+            inFlight.add(NO_RESPONSE);
         }
-        return enabledID;
     }
 
-    int readDisabledBreakpointNo(int breakpointID) throws RubyDebuggerException {
-        int disabledID = poll(disabledBreakpoints, "breakpoint number of the disabled breakpoint (" + breakpointID + ")");
-        if (disabledID != breakpointID) {
-            throw new RubyDebuggerException("Unexpected breakpoint removed. " +
-                    "Received id: " + disabledID + ", expected: " + breakpointID);
+    /**
+     * Forgets the command which was not written, so that its response is not
+     * expected.
+     */
+    private void forget(final RubyDebugFuture<?> future) {
+        pendingResponses.get(future.getResponseElement()).remove(future);
+        synchronized (inFlight) {
+            inFlight.remove(future);
+            startOldest();
         }
-        return disabledID;
     }
-    
-    int readConditionSet() throws RubyDebuggerException {
-        return poll(conditionSets, "breakpoint number of the set condition");
+
+    /**
+     * Starts to wait for the response to the command which is about to be
+     * sent. Must be called in the same order in which the commands are
+     * written to the socket.
+     */
+    <T> RubyDebugFuture<T> register(final RubyDebugFuture<T> future) {
+        synchronized (inFlight) {
+            inFlight.add(future);
+            startOldest();
+        }
+        pendingResponses.get(future.getResponseElement()).add(future);
+        if (connectionClosed) {
+            failPendingResponses();
+            return future;
+        }
+        final CommandType type = future.getType();
+        final long timeout = type == null ? timeouts.getDefaultTimeout() : timeouts.getTimeout(type);
+        final ScheduledFuture<?> timeoutTask = TIMEOUTS.schedule(new Runnable() {
+            public void run() {
+                // stays pending to absorb the late response, see complete()
+                future.fail(new RubyDebuggerException("Unable to read " + future.getDescription() +
+                        " in the specified timeout [" + timeout + "ms]"));
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        future.addListener(new RubyDebugFuture.Listener<T>() {
+            public void completed(T result) {
+                timeoutTask.cancel(false);
+                if (type != null) {
+                    long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - future.getStarted());
+                    timeouts.record(type, latency);
+                    metrics.commandCompleted(type, latency);
+                }
+            }
+            public void failed(RubyDebuggerException e) {
+                timeoutTask.cancel(false);
+                if (type != null) {
+                    metrics.commandFailed(type);
+                }
+            }
+        });
+        return future;
     }
 
-    String readCatchpointSet() throws RubyDebuggerException {
-        return poll(catchpointSets, "catchpoint set");
+    /**
+     * Stops waiting for the response to the command which could not be sent
+     * at all.
+     */
+    void discard(final RubyDebugFuture<?> future) {
+        forget(future);
+        future.cancel(false);
     }
 
-    int waitForRemovedBreakpoint(int breakpointID) throws RubyDebuggerException {
-        int removedID = poll(removedBreakpoints, "breakpoint number of the removed breakpoint (" + breakpointID + ")");
-        if (removedID != breakpointID) {
-            throw new RubyDebuggerException("Unexpected breakpoint removed. " +
-                    "Received id: " + removedID + ", expected: " + breakpointID);
+    /** Fails all pending commands. Used when the connection is closed. */
+    private void failPendingResponses() {
+        connectionClosed = true;
+        synchronized (inFlight) {
+            inFlight.clear();
+        }
+        for (Queue<RubyDebugFuture<?>> queue : pendingResponses.values()) {
+            RubyDebugFuture<?> future;
+            while ((future = queue.poll()) != null) {
+                future.fail(new RubyDebuggerException("Connection to the debugger backend was closed " +
+                        "before " + future.getDescription() + " was read"));
+            }
         }
-        return removedID;
     }
-    
-    private <T> T poll(final BlockingQueue<T> queue, final String toRead) throws RubyDebuggerException {
+
+    /**
+     * Waits for the given response. Registered responses are failed when they
+     * are not read in their {@link #getTimeouts timeout}.
+     */
+    <T> T await(final RubyDebugFuture<T> future) throws RubyDebuggerException {
         try {
-            T t = queue.poll(timeout, TimeUnit.SECONDS);
-            if (t == null) {
-                throw new RubyDebuggerException("Unable to read " + toRead + " in the specified timeout [" + timeout + "s]");
-            } else {
-                return t;
-            }
+            return future.get();
+        } catch (ExecutionException ex) {
+            throw (RubyDebuggerException) ex.getCause();
+        } catch (CancellationException ex) {
+            throw new RubyDebuggerException(ex.getMessage(), ex);
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new RubyDebuggerException("Interruped during reading " +
-                    toRead + " (timeout: " + timeout + ')', ex);
+                    future.getDescription(), ex);
+        }
+    }
+
+    CommandTimeouts getTimeouts() {
+        return timeouts;
+    }
+
+    SessionMetrics getMetrics() {
+        return metrics;
+    }
+
+    StringPool getStringPool() {
+        return stringPool;
+    }
+
+    /** Must be set before the reading starts. */
+    void setRecorder(final SessionRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    SessionRecorder getRecorder() {
+        return recorder;
+    }
+
+    /** Returns numbers of commands waiting for response per response element. */
+    Map<String, Integer> getPendingCounts() {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (Map.Entry<String, Queue<RubyDebugFuture<?>>> pending : pendingResponses.entrySet()) {
+            counts.put(pending.getKey(), pending.getValue().size());
+        }
+        return counts;
+    }
+
+    /** Returns number of suspensions read but not taken by {@link #readSuspension} yet. */
+    int getQueuedSuspensions() {
+        return suspensions.size();
+    }
+
+    RubyDebugFuture<RubyThreadInfo[]> threadsResponse() {
+        return new RubyDebugFuture<RubyThreadInfo[]>(THREADS_ELEMENT, CommandType.THREADS, "threads");
+    }
+
+    RubyDebugFuture<RubyFrameInfo[]> framesResponse() {
+        return new RubyDebugFuture<RubyFrameInfo[]>(FRAMES_ELEMENT, CommandType.FRAMES, "frames");
+    }
+
+    RubyDebugFuture<RubyVariableInfo[]> variablesResponse() {
+        return new RubyDebugFuture<RubyVariableInfo[]>(VARIABLES_ELEMENT, CommandType.VARIABLES, "variables");
+    }
+
+    RubyDebugFuture<RubyVariableInfo[]> inspectResponse() {
+        return new RubyDebugFuture<RubyVariableInfo[]>(VARIABLES_ELEMENT, CommandType.INSPECT, "inspected expression");
+    }
+
+    RubyDebugFuture<Integer> addedBreakpointResponse() {
+        return new RubyDebugFuture<Integer>(BREAKPOINT_ADDED_ELEMENT, CommandType.BREAKPOINT, "added breakpoint number");
+    }
+
+    RubyDebugFuture<Integer> removedBreakpointResponse(final int breakpointID) {
+        return new RubyDebugFuture<Integer>(BREAKPOINT_DELETED_ELEMENT, CommandType.BREAKPOINT,
+                "breakpoint number of the removed breakpoint (" + breakpointID + ")");
+    }
+
+    RubyDebugFuture<Integer> enabledBreakpointResponse(final int breakpointID) {
+        return new RubyDebugFuture<Integer>(BREAKPOINT_ENABLED_ELEMENT, CommandType.BREAKPOINT,
+                "breakpoint number of the enabled breakpoint (" + breakpointID + ")");
+    }
+
+    RubyDebugFuture<Integer> disabledBreakpointResponse(final int breakpointID) {
+        return new RubyDebugFuture<Integer>(BREAKPOINT_DISABLED_ELEMENT, CommandType.BREAKPOINT,
+                "breakpoint number of the disabled breakpoint (" + breakpointID + ")");
+    }
+
+    RubyDebugFuture<Integer> conditionSetResponse() {
+        return new RubyDebugFuture<Integer>(CONDITION_SET_ELEMENT, CommandType.BREAKPOINT, "breakpoint number of the set condition");
+    }
+
+    RubyDebugFuture<String> catchpointSetResponse() {
+        return new RubyDebugFuture<String>(CATCHPOINT_SET_ELEMENT, CommandType.CATCHPOINT, "catchpoint set");
+    }
+    
+    RubyThreadInfo[] readThreads() throws RubyDebuggerException {
+        return await(register(threadsResponse()));
+    }
+    
+    RubyFrameInfo[] readFrames() throws RubyDebuggerException {
+        return await(register(framesResponse()));
+    }
+    
+    RubyVariableInfo[] readVariables() throws RubyDebuggerException {
+        return await(register(variablesResponse()));
+    }
+    
+    int readAddedBreakpointNo() throws RubyDebuggerException {
+        return await(register(addedBreakpointResponse()));
+    }
+
+    /**
+     * Checks that the backend answered with the expected breakpoint ID.
+     */
+    static int checkBreakpointNo(final int receivedID, final int breakpointID, final String action)
+            throws RubyDebuggerException {
+        if (receivedID != breakpointID) {
+            throw new RubyDebuggerException("Unexpected breakpoint " + action + ". " +
+                    "Received id: " + receivedID + ", expected: " + breakpointID);
         }
+        return receivedID;
     }
 
     SuspensionPoint readSuspension() {
@@ -273,11 +647,12 @@ final class ReadersSupport {
         return unexpectedFail;
     }
     
-    private static XmlPullParser getXpp(final InputStream is)  throws XmlPullParserException, IOException {
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance(
-                "org.kxml2.io.KXmlParser,org.kxml2.io.KXmlSerializer", null);
-        XmlPullParser xpp = factory.newPullParser();
-        xpp.setInput(new BufferedReader(new InputStreamReader(is)));
+    private XmlPullParser getXpp(final InputStream is)  throws XmlPullParserException, IOException {
+        XmlPullParser xpp = parserFactory.newParser();
+        InputStream counted = metrics.countingStream(is);
+        SessionRecorder sessionRecorder = recorder;
+        xpp.setInput(new BufferedReader(new InputStreamReader(sessionRecorder == null
+                ? counted : sessionRecorder.recordingStream(counted))));
         return xpp;
     }
 
@@ -294,6 +669,7 @@ final class ReadersSupport {
         
         @Override
         public void run() {
+            boolean unexpected = false;
             try {
                 LOGGER.fine("Starting ReadersSupport readloop: " + getName());
                 startXPPLoop(xpp);
@@ -305,20 +681,18 @@ final class ReadersSupport {
                 //  - incorectly handling finishing of the session in the backends
                 LOGGER.fine("SocketException. Loop [" + getName() + "]: " + e.getMessage());
                 LOGGER.log(Level.FINE, e.getMessage(), e);
-                ReadersSupport.this.unexpectedFail = true;
+                unexpected = true;
             } catch (XmlPullParserException e) {
                 LOGGER.log(Level.SEVERE, "Exception during ReadersSupport loop [" + getName() + ']', e);
-                ReadersSupport.this.unexpectedFail = true;
+                metrics.parserError();
+                unexpected = true;
             } finally {
-                suspensions.add(SuspensionPoint.END);
                 try {
                     is.close();
-                    Thread.sleep(1000); // Avoid Commodification Exceptions
                 } catch (IOException e) {
                     LOGGER.log(Level.SEVERE, "Cannot close socket's input stream", e);
-                } catch (InterruptedException e) {
-                    LOGGER.log(Level.SEVERE, "Readers loop interrupted", e);
                 }
+                connectionClosed(unexpected);
             }
         }
     }
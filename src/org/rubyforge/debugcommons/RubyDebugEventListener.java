@@ -22,6 +22,13 @@
 
 package org.rubyforge.debugcommons;
 
+/**
+ * Listens to events of a {@link RubyDebuggerProxy}. Suspension events are
+ * delivered in the threads of the proxy's {@link SuspensionDispatcher}, so
+ * listeners should not block; a blocked listener delays the following
+ * suspensions of the same Ruby thread and holds a worker which might be
+ * shared with other sessions.
+ */
 public interface RubyDebugEventListener {
 
     void onDebugEvent(RubyDebugEvent e);
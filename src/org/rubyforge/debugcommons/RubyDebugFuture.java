@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Response to a command sent to the debugger backend. Created for every
+ * command which expects an answer and completed by the {@link ReadersSupport}
+ * once the corresponding XML element is read from the command socket.
+ * <p>
+ * Besides blocking {@link #get}, clients might {@link #addListener listen} to
+ * the completion or derive new futures using {@link #transform} and {@link
+ * #chain} without parking any thread.
+ */
+public final class RubyDebugFuture<T> implements Future<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(RubyDebugFuture.class.getName());
+
+    /**
+     * Notified once the future is completed. Listeners are called in the
+     * thread which completed the future, typically the thread reading the
+     * debugger's command socket, so they must not block.
+     */
+    public interface Listener<T> {
+
+        void completed(T result);
+
+        void failed(RubyDebuggerException e);
+
+    }
+
+    /** Function used to derive new futures. */
+    public interface Function<S, R> {
+
+        R apply(S source) throws RubyDebuggerException;
+
+    }
+
+    /** Name of the XML element which answers the command. */
+    private final String responseElement;
+
+    /** Type of the command; <code>null</code> for derived futures. */
+    private final CommandType type;
+
+    /** Human readable description of the response, used in messages. */
+    private final String description;
+
+    private final CountDownLatch doneLatch;
+
+    /**
+     * When the backend started to process the command, i.e. when the command
+     * preceding it was answered [ns]; set by {@link ReadersSupport}.
+     */
+    private volatile long started;
+
+    /** Listeners to be notified on completion; guarded by this. */
+    private List<Listener<? super T>> listeners;
+
+    private T result;
+    private RubyDebuggerException failure;
+    private boolean done;
+    private boolean cancelled;
+
+    RubyDebugFuture(final String responseElement, final String description) {
+        this(responseElement, null, description);
+    }
+
+    RubyDebugFuture(final String responseElement, final CommandType type, final String description) {
+        this.responseElement = responseElement;
+        this.type = type;
+        this.description = description;
+        this.doneLatch = new CountDownLatch(1);
+    }
+
+    String getResponseElement() {
+        return responseElement;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    CommandType getType() {
+        return type;
+    }
+
+    long getStarted() {
+        return started;
+    }
+
+    void setStarted(final long started) {
+        this.started = started;
+    }
+
+    /**
+     * Completes this future with the given result.
+     *
+     * @return <code>false</code> if the future was already completed, e.g.
+     *         because it has timed out
+     */
+    boolean complete(final T result) {
+        return finish(result, null, false);
+    }
+
+    /**
+     * Completes this future with the given failure.
+     *
+     * @return <code>false</code> if the future was already completed
+     */
+    boolean fail(final RubyDebuggerException failure) {
+        return finish(null, failure, false);
+    }
+
+    /**
+     * Cancels waiting for the response. The command itself was already sent
+     * to the backend, so the response will still be read from the socket,
+     * just thrown away. {@link #get} then throws {@link
+     * CancellationException}, listeners are notified about a failure.
+     */
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return finish(null, new RubyDebuggerException("Reading of " + description + " was cancelled"), true);
+    }
+
+    private boolean finish(final T result, final RubyDebuggerException failure, final boolean cancel) {
+        List<Listener<? super T>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.result = result;
+            this.failure = failure;
+            this.cancelled = cancel;
+            this.done = true;
+            toNotify = listeners;
+            listeners = null;
+        }
+        // listeners first, so that waiters see their effects, e.g. metrics
+        if (toNotify != null) {
+            for (Listener<? super T> listener : toNotify) {
+                notifyListener(listener);
+            }
+        }
+        doneLatch.countDown();
+        return true;
+    }
+
+    private void notifyListener(final Listener<? super T> listener) {
+        try {
+            if (failure == null) {
+                listener.completed(result);
+            } else {
+                listener.failed(failure);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Listener of " + this + " failed", e);
+        }
+    }
+
+    /**
+     * Adds listener to be notified once this future is completed. If the
+     * future is already completed, the listener is notified immediately in
+     * the calling thread.
+     */
+    public void addListener(final Listener<? super T> listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<Listener<? super T>>(2);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    /**
+     * Returns future completed with the result of the given function applied
+     * to the result of this future. Failures are propagated.
+     */
+    public <R> RubyDebugFuture<R> transform(final Function<? super T, ? extends R> function) {
+        final RubyDebugFuture<R> derived = new RubyDebugFuture<R>(null, description);
+        addListener(new Listener<T>() {
+            public void completed(T result) {
+                try {
+                    derived.complete(function.apply(result));
+                } catch (RubyDebuggerException e) {
+                    derived.fail(e);
+                }
+            }
+            public void failed(RubyDebuggerException e) {
+                derived.fail(e);
+            }
+        });
+        return derived;
+    }
+
+    /**
+     * Returns future completed once the future returned by the given
+     * function, applied to the result of this future, is completed. Useful
+     * for sending a command which depends on a response of previous one.
+     * <p>
+     * Like {@link Listener listeners}, the function is called in the thread
+     * completing this future, typically the thread reading the command
+     * socket. It might send further commands asynchronously, but must not
+     * block, e.g. wait for a response, which is read by that very thread.
+     */
+    public <R> RubyDebugFuture<R> chain(final Function<? super T, RubyDebugFuture<R>> function) {
+        final RubyDebugFuture<R> derived = new RubyDebugFuture<R>(null, description);
+        addListener(new Listener<T>() {
+            public void completed(T result) {
+                try {
+                    function.apply(result).addListener(new Listener<R>() {
+                        public void completed(R result) {
+                            derived.complete(result);
+                        }
+                        public void failed(RubyDebuggerException e) {
+                            derived.fail(e);
+                        }
+                    });
+                } catch (RubyDebuggerException e) {
+                    derived.fail(e);
+                }
+            }
+            public void failed(RubyDebuggerException e) {
+                derived.fail(e);
+            }
+        });
+        return derived;
+    }
+
+    /** Returns already completed future. */
+    static <T> RubyDebugFuture<T> completed(final String description, final T result) {
+        RubyDebugFuture<T> future = new RubyDebugFuture<T>(null, description);
+        future.complete(result);
+        return future;
+    }
+
+    /** Returns already failed future. */
+    static <T> RubyDebugFuture<T> failed(final String description, final RubyDebuggerException e) {
+        RubyDebugFuture<T> future = new RubyDebugFuture<T>(null, description);
+        future.fail(e);
+        return future;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        doneLatch.await();
+        return getResult();
+    }
+
+    public T get(final long timeout, final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!doneLatch.await(timeout, unit)) {
+            throw new TimeoutException("Unable to read " + description +
+                    " in the specified timeout [" + timeout + ' ' + unit + ']');
+        }
+        return getResult();
+    }
+
+    /**
+     * Like {@link #get()}, but throws the failure directly. Cancellation is
+     * reported as {@link RubyDebuggerException} as well.
+     */
+    public T await() throws RubyDebuggerException {
+        try {
+            return get();
+        } catch (ExecutionException e) {
+            throw (RubyDebuggerException) e.getCause();
+        } catch (CancellationException e) {
+            throw new RubyDebuggerException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RubyDebuggerException("Interrupted during reading " + description, e);
+        }
+    }
+
+    private synchronized T getResult() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException(failure.getMessage());
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure.getMessage(), failure);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RubyDebugFuture@" + System.identityHashCode(this) + '[' + description + ']';
+    }
+
+}
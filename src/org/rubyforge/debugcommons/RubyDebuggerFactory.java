@@ -219,13 +219,16 @@ public final class RubyDebuggerFactory {
             pb.environment().putAll(desc.getEnvironment());
         }
         LOGGER.fine("Environment: " + pb.environment());
-        RubyDebuggerProxy proxy = new RubyDebuggerProxy(desc.getType(), timeout);
+        RubyDebuggerProxy proxy = new RubyDebuggerProxy(desc.getType(), timeout, desc.getParserFactory());
         
         // set whether backend support condition on breakpoints
         String rdebugIDEVer = desc.getRubyDebugIDEVersion();
         boolean suitableVersion = rdebugIDEVer == null || Util.compareVersions(rdebugIDEVer, "0.1.10") > 0;
         boolean supportsCondition = desc.getType() == RUBY_DEBUG && suitableVersion;
         proxy.setConditionSupport(supportsCondition);
+        if (desc.getMultiplexer() != null) {
+            proxy.setMultiplexer(desc.getMultiplexer());
+        }
         
         // 127.0.0.1 seemingly works with all systems and with IPv6 as well.
         // "localhost" and InetAddress.getLocalHost() have problems on some systems.
@@ -233,7 +236,17 @@ public final class RubyDebuggerFactory {
         RubyDebugTarget target = new RubyDebugTarget(proxy, "127.0.0.1", desc.getPort(),
                 pb.start(), desc.getDebuggeePath(), desc.getBaseDirectory());
         proxy.setDebugTarget(target);
+        if (desc.isOutputPumped()) {
+            final RubyDebuggerProxy listeningProxy = proxy;
+            target.startOutputPumps(OutputPump.DEFAULT_TAIL_CAPACITY, null, new OutputPump.LineListener() {
+                @Override
+                protected void line(String line) {
+                    listeningProxy.debuggeeOutput(line);
+                }
+            });
+        }
         RubyDebuggerProxy.PROXIES.add(proxy);
+        DebuggerMetrics.register(proxy);
         return proxy;
     }
     
@@ -281,6 +294,9 @@ public final class RubyDebuggerFactory {
         private Collection<? extends String> additionalOptions;
         private boolean jruby;
         private String rubyDebugIDEVersion;
+        private NioSessionMultiplexer multiplexer;
+        private ProtocolParserFactory parserFactory;
+        private boolean outputPumped;
         
         public DebuggerType getType() {
             return type;
@@ -390,6 +406,42 @@ public final class RubyDebuggerFactory {
         private String getRubyDebugIDEVersion() {
             return rubyDebugIDEVersion;
         }
+
+        public NioSessionMultiplexer getMultiplexer() {
+            return multiplexer;
+        }
+
+        /**
+         * @param multiplexer multiplexer to drive the session's connection or
+         *        <code>null</code> to use dedicated threads (the default)
+         */
+        public void setMultiplexer(NioSessionMultiplexer multiplexer) {
+            this.multiplexer = multiplexer;
+        }
+
+        /**
+         * Returns factory of parsers reading the debugger protocol. {@link
+         * ProtocolParserFactory#KXML} if not set.
+         */
+        public ProtocolParserFactory getParserFactory() {
+            return parserFactory == null ? ProtocolParserFactory.KXML : parserFactory;
+        }
+
+        public void setParserFactory(ProtocolParserFactory parserFactory) {
+            this.parserFactory = parserFactory;
+        }
+
+        /**
+         * Whether the debuggee's output is drained by {@link OutputPump}s.
+         * See {@link RubyDebugTarget#startOutputPumps}.
+         */
+        public boolean isOutputPumped() {
+            return outputPumped;
+        }
+
+        public void setOutputPumped(boolean outputPumped) {
+            this.outputPumped = outputPumped;
+        }
     }
 
     private static Pattern pattern = Pattern.compile("\\$\\{([^}]+)\\}");
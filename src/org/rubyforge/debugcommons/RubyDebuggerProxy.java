@@ -23,17 +23,27 @@
 package org.rubyforge.debugcommons;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import org.rubyforge.debugcommons.model.ExceptionSuspensionPoint;
 import org.rubyforge.debugcommons.model.IRubyBreakpoint;
 import org.rubyforge.debugcommons.model.IRubyExceptionBreakpoint;
@@ -46,11 +56,21 @@ import org.rubyforge.debugcommons.model.RubyFrameInfo;
 import org.rubyforge.debugcommons.model.RubyThread;
 import org.rubyforge.debugcommons.model.RubyVariable;
 import org.rubyforge.debugcommons.model.RubyVariableInfo;
+import org.rubyforge.debugcommons.reader.StringPool;
 
 public final class RubyDebuggerProxy {
 
     private static final Logger LOGGER = Logger.getLogger(RubyDebuggerProxy.class.getName());
 
+    /** First delay between attempts to connect to the debuggee [ms]. */
+    private static final long FIRST_ATTACH_DELAY = 5;
+
+    /** Maximal delay between attempts to connect to the debuggee [ms]. */
+    private static final long MAX_ATTACH_DELAY = 500;
+
+    /** Printed by ruby-debug-ide once it accepts connections. */
+    private static final Pattern LISTENING_BANNER = Pattern.compile("Fast Debugger .* listens on");
+
     public static enum DebuggerType { CLASSIC_DEBUGGER, RUBY_DEBUG }
     
     public static final DebuggerType CLASSIC_DEBUGGER = DebuggerType.CLASSIC_DEBUGGER;
@@ -65,14 +85,43 @@ public final class RubyDebuggerProxy {
     private final DebuggerType debuggerType;
     private RubyDebugTarget debugTarget;
     private Socket commandSocket;
-    private boolean finished;
+    private volatile boolean finished;
     
-    private PrintWriter commandWriter;
+    private volatile CommandWriter commandWriter;
+    private volatile CommandQueue commandQueue;
     private ICommandFactory commandFactory;
     private ReadersSupport readersSupport;
+    private NioSessionMultiplexer multiplexer;
+    private volatile SuspensionDispatcher suspensionDispatcher;
+
+    /** Passes dispatched suspensions to the {@link #debugTarget}. */
+    private final SuspensionDispatcher.Handler suspensionHandler = new SuspensionDispatcher.Handler() {
+        public void suspensionOccurred(final SuspensionPoint sp) {
+            getMetrics().suspensionDelivered(sp.getReadTime());
+            variableCache.nextGeneration();
+            if (prefetcher.isEnabled()) {
+                prefetch(sp);
+            }
+            debugTarget.suspensionOccurred(sp);
+        }
+    };
     
     private boolean supportsCondition;
-    private Object variablesLock = new Object();
+
+    /** Instance variables read in this session, see {@link VariableCache}. */
+    private final VariableCache variableCache = new VariableCache();
+
+    /** Reads sent ahead on suspensions, see {@link SuspensionPrefetcher}. */
+    private final SuspensionPrefetcher prefetcher = new SuspensionPrefetcher();
+
+    /** Registered watch expressions, see {@link WatchEngine}. */
+    private final WatchEngine watchEngine = new WatchEngine(this);
+
+    /** Opened once the debuggee announces that it accepts connections or exits. */
+    private final CountDownLatch debuggerListening = new CountDownLatch(1);
+
+    /** Time spent by connecting to the debuggee [ms]; -1 if not connected. */
+    private volatile long attachTime = -1;
     
     // catchpoint removing is not supported by backend yet, handle it in the
     // debug-commons-java until the support is added
@@ -84,23 +133,81 @@ public final class RubyDebuggerProxy {
     }
     
     public RubyDebuggerProxy(final DebuggerType debuggerType, final int timeout) {
+        this(debuggerType, timeout, ProtocolParserFactory.KXML);
+    }
+    
+    /**
+     * @param parserFactory creates parser used to read the debugger protocol,
+     *        e.g. {@link ProtocolParserFactory#SPECIALIZED}
+     */
+    public RubyDebuggerProxy(final DebuggerType debuggerType, final int timeout,
+            final ProtocolParserFactory parserFactory) {
         this.debuggerType = debuggerType;
         this.listeners = new CopyOnWriteArrayList<RubyDebugEventListener>();
-        this.breakpointsIDs = new HashMap<Integer, IRubyLineBreakpoint>();
-        this.removedCatchpoints = new HashSet<String>();
+        this.breakpointsIDs = new ConcurrentHashMap<Integer, IRubyLineBreakpoint>();
+        this.removedCatchpoints = Collections.synchronizedSet(new HashSet<String>());
         this.timeout = timeout;
-        this.readersSupport = new ReadersSupport(timeout);
+        this.readersSupport = new ReadersSupport(timeout, parserFactory);
     }
     
     public void setDebugTarget(RubyDebugTarget debugTarget) throws IOException, RubyDebuggerException {
         this.debugTarget = debugTarget;
         LOGGER.fine("Proxy target: " + debugTarget);
+        if (!debugTarget.isRemote()) {
+            debugTarget.addExitListener(new Runnable() {
+                public void run() {
+                    // wakes up pending attaching which then gives up at once
+                    debuggerListening.countDown();
+                }
+            });
+        }
     }
     
     public RubyDebugTarget getDebugTarget() {
         return debugTarget;
     }
     
+    /**
+     * Makes the proxy communicate with the backend through the given
+     * multiplexer instead of its own reader threads. Must be called before
+     * the proxy is {@link #attach attached}. The {@link #getCommandSocket
+     * command socket} is then in non-blocking mode and its streams cannot be
+     * used.
+     */
+    public synchronized void setMultiplexer(final NioSessionMultiplexer multiplexer) {
+        if (commandSocket != null) {
+            throw new IllegalStateException("Proxy is already attached: " + this);
+        }
+        this.multiplexer = multiplexer;
+    }
+    
+    /**
+     * Records the command connection of this session into the given
+     * recorder. Must be called before the proxy is {@link #attach attached}.
+     * The recorder is flushed once the connection is closed; closing it is up
+     * to the caller.
+     */
+    public synchronized void setRecorder(final SessionRecorder recorder) {
+        if (commandSocket != null) {
+            throw new IllegalStateException("Proxy is already attached: " + this);
+        }
+        getReadersSupport().setRecorder(recorder);
+    }
+
+    /**
+     * Sets dispatcher used to pass suspensions to the {@link
+     * RubyDebugTarget}. If not set, the {@link
+     * SuspensionDispatcher#getShared shared} dispatcher is used.
+     */
+    public void setSuspensionDispatcher(final SuspensionDispatcher suspensionDispatcher) {
+        this.suspensionDispatcher = suspensionDispatcher;
+    }
+
+    public SuspensionDispatcher getSuspensionDispatcher() {
+        SuspensionDispatcher dispatcher = suspensionDispatcher;
+        return dispatcher == null ? SuspensionDispatcher.getShared() : dispatcher;
+    }
+    
     /** <b>Package-private</b> for unit tests only. */
     ReadersSupport getReadersSupport() {
         return readersSupport;
@@ -128,9 +235,12 @@ public final class RubyDebuggerProxy {
             }
         } catch (RubyDebuggerException e) {
             PROXIES.remove(this);
+            DebuggerMetrics.unregister(this);
             throw e;
         }
-        startSuspensionReaderLoop();
+        if (multiplexer == null) {
+            startSuspensionReaderLoop();
+        }
     }
 
 
@@ -139,15 +249,14 @@ public final class RubyDebuggerProxy {
      * finished (in a standard manner or unexpectedly, e.g. was killed) or the
      * proxy did not start yet, false is returned.
      */
-    public synchronized boolean isReady() {
+    public boolean isReady() {
         return !finished && commandWriter != null && debugTarget.isAvailable();
     }
 
     private synchronized void attachToClassicDebugger(final IRubyBreakpoint[] initialBreakpoints) throws RubyDebuggerException {
         try {
             commandFactory = new ClassicDebuggerCommandFactory();
-            readersSupport.startCommandLoop(getCommandSocket().getInputStream());
-            commandWriter = new PrintWriter(getCommandSocket().getOutputStream(), true);
+            startCommunication();
             setBreakpoints(initialBreakpoints);
             sendCommand("cont");
         } catch (IOException ex) {
@@ -158,8 +267,7 @@ public final class RubyDebuggerProxy {
     private synchronized void attachToRubyDebug(final IRubyBreakpoint[] initialBreakpoints) throws RubyDebuggerException {
         try {
             commandFactory = new RubyDebugCommandFactory();
-            readersSupport.startCommandLoop(getCommandSocket().getInputStream());
-            commandWriter = new PrintWriter(getCommandSocket().getOutputStream(), true);
+            startCommunication();
             setBreakpoints(initialBreakpoints);
             sendCommand("start");
         } catch (IOException ex) {
@@ -167,6 +275,40 @@ public final class RubyDebuggerProxy {
         }
     }
     
+    private void startCommunication() throws RubyDebuggerException, IOException {
+        Socket socket = getCommandSocket();
+        if (multiplexer == null) {
+            readersSupport.startCommandLoop(socket.getInputStream());
+            commandWriter = new CommandWriter(recorded(socket.getOutputStream()));
+            getMetrics().setCommandWriter(commandWriter);
+            commandQueue = new CommandQueue(commandWriter, readersSupport);
+        } else {
+            final Executor events = multiplexer.newSerialExecutor();
+            readersSupport.setSuspensionListener(new ReadersSupport.SuspensionListener() {
+                public void suspended(final SuspensionPoint sp) {
+                    events.execute(new Runnable() {
+                        public void run() {
+                            if (sp == SuspensionPoint.END) {
+                                readersFinished();
+                            } else if (acceptSuspension(sp)) {
+                                getSuspensionDispatcher().dispatch(suspensionHandler, sp);
+                            }
+                        }
+                    });
+                }
+            });
+            NioSession session = multiplexer.register(socket.getChannel(), readersSupport);
+            commandWriter = new CommandWriter(recorded(session.getOutputStream()));
+            getMetrics().setCommandWriter(commandWriter);
+            commandQueue = new CommandQueue(commandWriter, readersSupport);
+        }
+    }
+    
+    private OutputStream recorded(final OutputStream out) {
+        SessionRecorder recorder = readersSupport.getRecorder();
+        return recorder == null ? out : recorder.recordingStream(out);
+    }
+    
     public void fireDebugEvent(final RubyDebugEvent e) {
         for (RubyDebugEventListener listener : listeners) {
             listener.onDebugEvent(e);
@@ -181,18 +323,178 @@ public final class RubyDebuggerProxy {
         listeners.remove(listener);
     }
     
-    private PrintWriter getCommandWriter() throws RubyDebuggerException {
-        assert commandWriter != null : "Proxy has to be started, before using the writer";
-        return commandWriter;
+    private CommandQueue getCommandQueue() {
+        assert commandQueue != null : "Proxy has to be started, before sending commands";
+        return commandQueue;
     }
 
     protected void setBreakpoints(final IRubyBreakpoint[] breakpoints) throws RubyDebuggerException {
-        for (IRubyBreakpoint breakpoint: breakpoints) {
-            addBreakpoint(breakpoint);
+        Map<IRubyBreakpoint, RubyDebuggerException> failures = addBreakpoints(breakpoints);
+        if (isReady()) {
+            for (Map.Entry<IRubyBreakpoint, RubyDebuggerException> failure : failures.entrySet()) {
+                LOGGER.log(Level.WARNING, "Cannot add breakpoint " + failure.getKey() +
+                        " to: " + getDebugTarget(), failure.getValue());
+            }
+        }
+    }
+
+    /**
+     * Adds all the given breakpoints at once. Unlike calling {@link
+     * #addBreakpoint} for each of them, all commands are written to the
+     * backend in one burst and the acknowledgements are collected afterwards,
+     * so the installation does not wait for a round trip per breakpoint.
+     * Conditions and disabling of line breakpoints are sent in a second burst
+     * once the breakpoint IDs are known.
+     *
+     * @param breakpoints breakpoints to be added
+     * @return breakpoints which could not be added (or whose condition or
+     *         state could not be set) mapped to the reason; empty if all
+     *         breakpoints were added successfully. Duplicates in the array
+     *         are added once per occurrence.
+     */
+    public Map<IRubyBreakpoint, RubyDebuggerException> addBreakpoints(final IRubyBreakpoint[] breakpoints) {
+        Map<IRubyBreakpoint, RubyDebuggerException> failures = new LinkedHashMap<IRubyBreakpoint, RubyDebuggerException>();
+        if (!isReady()) {
+            LOGGER.fine("Session and/or debuggee is not ready, skipping addition of " + breakpoints.length + " breakpoint(s)");
+            return failures;
+        }
+        for (IRubyBreakpoint breakpoint : breakpoints) {
+            if (!(breakpoint instanceof IRubyLineBreakpoint) && !(breakpoint instanceof IRubyExceptionBreakpoint)) {
+                throw new IllegalArgumentException("Unknown breakpoint type: " + breakpoint);
+            }
+        }
+
+        // first burst: breakpoints and catchpoints; responses are keyed by
+        // the position in the array, so that duplicates do not clash
+        Map<Integer, RubyDebugFuture<?>> added = new LinkedHashMap<Integer, RubyDebugFuture<?>>();
+        List<String> batch = new ArrayList<String>();
+        List<RubyDebugFuture<?>> batchResponses = new ArrayList<RubyDebugFuture<?>>();
+        for (int i = 0; i < breakpoints.length; i++) {
+            IRubyBreakpoint breakpoint = breakpoints[i];
+            LOGGER.fine("Adding breakpoint: " + breakpoint);
+            if (breakpoint instanceof IRubyLineBreakpoint) {
+                IRubyLineBreakpoint lineBreakpoint = (IRubyLineBreakpoint) breakpoint;
+                String command = commandFactory.createAddBreakpoint(
+                        lineBreakpoint.getFilePath(), lineBreakpoint.getLineNumber());
+                queueCommand(command, getReadersSupport().addedBreakpointResponse(), i,
+                        batch, batchResponses, added);
+            } else {
+                IRubyExceptionBreakpoint excBreakpoint = (IRubyExceptionBreakpoint) breakpoint;
+                // just 're-enable' if contained in removedCatchpoints
+                if (!removedCatchpoints.remove(excBreakpoint.getException())) {
+                    String command = commandFactory.createCatchOn(excBreakpoint);
+                    queueCommand(command, getReadersSupport().catchpointSetResponse(), i,
+                            batch, batchResponses, added);
+                }
+            }
+        }
+        sendBatch(batch, batchResponses);
+        Map<Integer, Integer> ids = new LinkedHashMap<Integer, Integer>();
+        for (Map.Entry<Integer, RubyDebugFuture<?>> entry : added.entrySet()) {
+            int index = entry.getKey();
+            try {
+                Object response = getReadersSupport().await(entry.getValue());
+                if (breakpoints[index] instanceof IRubyLineBreakpoint) {
+                    ids.put(index, (Integer) response);
+                }
+            } catch (RubyDebuggerException e) {
+                failures.put(breakpoints[index], e);
+            }
+        }
+
+        // second burst: conditions and disabling of the added breakpoints
+        Map<Integer, RubyDebugFuture<?>> conditions = new LinkedHashMap<Integer, RubyDebugFuture<?>>();
+        Map<Integer, RubyDebugFuture<?>> disablings = new LinkedHashMap<Integer, RubyDebugFuture<?>>();
+        batch.clear();
+        batchResponses.clear();
+        for (Map.Entry<Integer, Integer> entry : ids.entrySet()) {
+            int index = entry.getKey();
+            IRubyLineBreakpoint breakpoint = (IRubyLineBreakpoint) breakpoints[index];
+            Integer id = entry.getValue();
+            breakpointsIDs.put(id, breakpoint);
+            String condition = breakpoint.getCondition();
+            if (condition != null && supportsCondition) {
+                String command = commandFactory.createSetCondition(id, condition);
+                if (command != null) {
+                    queueCommand(command, getReadersSupport().conditionSetResponse(), index,
+                            batch, batchResponses, conditions);
+                } else {
+                    LOGGER.info("conditional breakpoints are not supported by backend");
+                }
+            }
+            if (!breakpoint.isEnabled()) {
+                LOGGER.fine("Disabling breakpoint: " + breakpoint);
+                String command = commandFactory.createDisableBreakpoint(id);
+                if (command != null) {
+                    queueCommand(command, getReadersSupport().disabledBreakpointResponse(id), index,
+                            batch, batchResponses, disablings);
+                } else {
+                    LOGGER.info("disabling breakpoints is nor supported by backend");
+                }
+            }
+        }
+        sendBatch(batch, batchResponses);
+        for (Map.Entry<Integer, RubyDebugFuture<?>> entry : conditions.entrySet()) {
+            try {
+                getReadersSupport().await(entry.getValue());
+            } catch (RubyDebuggerException e) {
+                failures.put(breakpoints[entry.getKey()], e);
+            }
+        }
+        for (Map.Entry<Integer, RubyDebugFuture<?>> entry : disablings.entrySet()) {
+            int id = ids.get(entry.getKey());
+            try {
+                ReadersSupport.checkBreakpointNo((Integer) getReadersSupport().await(entry.getValue()), id, "disabled");
+            } catch (RubyDebuggerException e) {
+                failures.put(breakpoints[entry.getKey()], e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Adds the given command to the batch and remembers its response under
+     * the position of its breakpoint. Used for bursts of breakpoint commands.
+     */
+    private void queueCommand(final String command, final RubyDebugFuture<?> response, final int index,
+            final List<String> batch, final List<RubyDebugFuture<?>> batchResponses,
+            final Map<Integer, RubyDebugFuture<?>> responses) {
+        LOGGER.fine("Queueing command debugger: " + command);
+        batch.add(command);
+        batchResponses.add(response);
+        responses.put(index, response);
+    }
+
+    /**
+     * Submits the batch to be written to the backend at once. If the proxy
+     * is not ready, the responses are failed.
+     */
+    private void sendBatch(final List<String> batch, final List<RubyDebugFuture<?>> batchResponses) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (!isReady()) {
+            for (RubyDebugFuture<?> response : batchResponses) {
+                response.fail(new RubyDebuggerException("Trying to send a command to non-started " +
+                        "or finished proxy (debuggee: " + getDebugTarget() + ')'));
+            }
+            return;
         }
+        getCommandQueue().submit(batch.toArray(new String[batch.size()]),
+                batchResponses.toArray(new RubyDebugFuture<?>[batchResponses.size()]));
+    }
+
+    /** Number of commands sent to the backend so far. */
+    public long getCommandsSent() {
+        return commandWriter == null ? 0 : commandWriter.getCommandsWritten();
+    }
+
+    /** Number of bytes sent to the backend so far. */
+    public long getBytesSent() {
+        return commandWriter == null ? 0 : commandWriter.getBytesWritten();
     }
     
-    public synchronized void addBreakpoint(final IRubyBreakpoint breakpoint) {
+    public void addBreakpoint(final IRubyBreakpoint breakpoint) {
         LOGGER.fine("Adding breakpoint: " + breakpoint);
         if (!isReady()) {
             LOGGER.fine("Session and/or debuggee is not ready, skipping addition of breakpoint: " + breakpoint);
@@ -204,14 +506,12 @@ public final class RubyDebuggerProxy {
                 IRubyLineBreakpoint lineBreakpoint = (IRubyLineBreakpoint) breakpoint;
                 String command = commandFactory.createAddBreakpoint(
                         lineBreakpoint.getFilePath(), lineBreakpoint.getLineNumber());
-                sendCommand(command);
-                Integer id = getReadersSupport().readAddedBreakpointNo();
+                Integer id = readResponse(command, getReadersSupport().addedBreakpointResponse());
                 String condition = lineBreakpoint.getCondition();
                 if (condition != null && supportsCondition) {
                     command = commandFactory.createSetCondition(id, condition);
                     if (command != null) {
-                        sendCommand(command);
-                        getReadersSupport().readConditionSet(); // read response
+                        readResponse(command, getReadersSupport().conditionSetResponse());
                     } else {
                         LOGGER.info("conditional breakpoints are not supported by backend");
                     }
@@ -225,8 +525,7 @@ public final class RubyDebuggerProxy {
                 // just 're-enable' if contained in removedCatchpoints
                 if (!removedCatchpoints.remove(excBreakpoint.getException())) {
                     String command = commandFactory.createCatchOn(excBreakpoint);
-                    sendCommand(command);
-                    getReadersSupport().readCatchpointSet(); // read response
+                    readResponse(command, getReadersSupport().catchpointSetResponse());
                 }
             } else {
                 throw new IllegalArgumentException("Unknown breakpoint type: " + breakpoint);
@@ -250,8 +549,8 @@ public final class RubyDebuggerProxy {
                 Integer id = findBreakpointId(lineBreakpoint);
                 String command = commandFactory.createDisableBreakpoint(id);
                 if (command != null) {
-                    sendCommand(command);
-                    getReadersSupport().readDisabledBreakpointNo(id);
+                    ReadersSupport.checkBreakpointNo(readResponse(command,
+                            getReadersSupport().disabledBreakpointResponse(id)), id, "disabled");
                 } else {
                     LOGGER.info("disabling breakpoints is nor supported by backend");
                 }
@@ -275,8 +574,8 @@ public final class RubyDebuggerProxy {
                 Integer id = findBreakpointId(lineBreakpoint);
                 String command = commandFactory.createEnableBreakpoint(id);
                 if (command != null) {
-                    sendCommand(command);
-                    getReadersSupport().readEnabledBreakpointNo(id);
+                    ReadersSupport.checkBreakpointNo(readResponse(command,
+                            getReadersSupport().enabledBreakpointResponse(id)), id, "enabled");
                 } else {
                     LOGGER.info("disabling breakpoints is nor supported by backend");
                 }
@@ -288,7 +587,7 @@ public final class RubyDebuggerProxy {
         }
     }
 
-    public synchronized void removeBreakpoint(final IRubyBreakpoint breakpoint) {
+    public void removeBreakpoint(final IRubyBreakpoint breakpoint) {
         removeBreakpoint(breakpoint, false);
     }
     
@@ -299,7 +598,7 @@ public final class RubyDebuggerProxy {
      * @param silent whether info message should be omitted if the breakpoint
      *        has not been set in this session
      */
-    public synchronized void removeBreakpoint(final IRubyBreakpoint breakpoint, boolean silent) {
+    public void removeBreakpoint(final IRubyBreakpoint breakpoint, boolean silent) {
         LOGGER.fine("Removing breakpoint: " + breakpoint);
         if (!isReady()) {
             LOGGER.fine("Session and/or debuggee is not ready, skipping removing of breakpoint: " + breakpoint);
@@ -311,8 +610,8 @@ public final class RubyDebuggerProxy {
             if (id != null) {
                 String command = commandFactory.createRemoveBreakpoint(id);
                 try {
-                    sendCommand(command);
-                    getReadersSupport().waitForRemovedBreakpoint(id);
+                    ReadersSupport.checkBreakpointNo(readResponse(command,
+                            getReadersSupport().removedBreakpointResponse(id)), id, "removed");
                     breakpointsIDs.remove(id);
                     LOGGER.fine("Breakpoint " + breakpoint + " with id " + id + " successfully removed");
                 } catch (RubyDebuggerException e) {
@@ -353,7 +652,7 @@ public final class RubyDebuggerProxy {
      * @param wantedBP breakpoint to search for
      * @return found ID; might be <tt>null</tt> if none is found
      */
-    private synchronized Integer findBreakpointId(final IRubyLineBreakpoint wantedBP) {
+    private Integer findBreakpointId(final IRubyLineBreakpoint wantedBP) {
         for (Map.Entry<Integer, IRubyLineBreakpoint> breakpointID : breakpointsIDs.entrySet()) {
             IRubyLineBreakpoint bp = breakpointID.getValue();
             int id = breakpointID.getKey();
@@ -377,6 +676,8 @@ public final class RubyDebuggerProxy {
     }
     
     public void resume(final RubyThread thread) {
+        variableCache.nextGeneration();
+        prefetcher.discard(thread.getId());
         try {
             sendCommand(commandFactory.createResume(thread));
         } catch (RubyDebuggerException e) {
@@ -384,17 +685,36 @@ public final class RubyDebuggerProxy {
         }
     }
     
-    private synchronized void sendCommand(final String s) throws RubyDebuggerException {
-        LOGGER.fine("Sending command debugger: " + s);
+    private void sendCommand(final String s) throws RubyDebuggerException {
+        sendCommand(s, null);
+    }
+
+    /**
+     * Submits the given command to the {@link CommandQueue} without holding
+     * any lock. The given response, if any, is registered to be completed
+     * once the backend answers, so several commands might be in flight at
+     * once and the responses still reach their originating command.
+     */
+    private <T> RubyDebugFuture<T> sendCommand(final String command, final RubyDebugFuture<T> response) throws RubyDebuggerException {
         if (!isReady()) {
-            throw new RubyDebuggerException("Trying to send a command [" + s +
+            throw new RubyDebuggerException("Trying to send a command [" + command +
                     "] to non-started or finished proxy (debuggee: " + getDebugTarget() + ", output: \n\n" +
                     Util.dumpAndDestroyProcess(debugTarget));
         }
-        getCommandWriter().println(s);
+        return getCommandQueue().submit(command, response);
+    }
+
+    /**
+     * Sends the given command and waits for the response. Unlike sending, the
+     * waiting does not hold any lock.
+     */
+    private <T> T readResponse(final String command, final RubyDebugFuture<T> response) throws RubyDebuggerException {
+        return getReadersSupport().await(sendCommand(command, response));
     }
 
     public void sendStepOver(RubyFrame frame, boolean forceNewLine) {
+        variableCache.nextGeneration();
+        prefetcher.discard(frame.getThread().getId());
         try {
             if (forceNewLine) {
                 sendCommand(commandFactory.createForcedStepOver(frame));
@@ -407,6 +727,8 @@ public final class RubyDebuggerProxy {
     }
     
     public void sendStepReturnEnd(RubyFrame frame) {
+        variableCache.nextGeneration();
+        prefetcher.discard(frame.getThread().getId());
         try {
             sendCommand(commandFactory.createStepReturn(frame));
         } catch (RubyDebuggerException e) {
@@ -415,6 +737,8 @@ public final class RubyDebuggerProxy {
     }
     
     public void sendStepIntoEnd(RubyFrame frame, boolean forceNewLine) {
+        variableCache.nextGeneration();
+        prefetcher.discard(frame.getThread().getId());
         try {
             if (forceNewLine) {
                 sendCommand(commandFactory.createForcedStepInto(frame));
@@ -426,81 +750,362 @@ public final class RubyDebuggerProxy {
         }
     }
     
+    /**
+     * Sends the given command without waiting for the response. If the
+     * command cannot be sent, already failed future is returned.
+     */
+    private <T> RubyDebugFuture<T> sendCommandAsync(final String command, final RubyDebugFuture<T> response) {
+        try {
+            return sendCommand(command, response);
+        } catch (RubyDebuggerException e) {
+            return RubyDebugFuture.failed(response.getDescription(), e);
+        }
+    }
+    
     public RubyThreadInfo[] readThreadInfo() throws RubyDebuggerException {
-        sendCommand(commandFactory.createReadThreads());
-        return getReadersSupport().readThreads();
+        return getReadersSupport().await(readThreadInfoAsync());
+    }
+    
+    /** Asynchronous variant of {@link #readThreadInfo}. */
+    public RubyDebugFuture<RubyThreadInfo[]> readThreadInfoAsync() {
+        return sendCommandAsync(commandFactory.createReadThreads(), getReadersSupport().threadsResponse());
     }
     
     public RubyFrame[] readFrames(RubyThread thread) throws RubyDebuggerException {
-        RubyFrameInfo[] infos;
         try {
-            sendCommand(commandFactory.createReadFrames(thread));
-            infos = getReadersSupport().readFrames();
+            return getReadersSupport().await(readFramesAsync(thread));
         } catch (RubyDebuggerException e) {
             if (isReady()) {
                 throw e;
             }
             LOGGER.fine("Session and/or debuggee is not ready, returning empty thread list.");
-            infos = new RubyFrameInfo[0];
+            return new RubyFrame[0];
         }
-        RubyFrame[] frames = new RubyFrame[infos.length];
-        for (int i = 0; i < infos.length; i++) {
-            RubyFrameInfo info = infos[i];
-            frames[i] = new RubyFrame(thread, info);
+    }
+    
+    /** Asynchronous variant of {@link #readFrames}. */
+    public RubyDebugFuture<RubyFrame[]> readFramesAsync(final RubyThread thread) {
+        RubyDebugFuture<RubyFrameInfo[]> infos = prefetcher.takeFrames(thread.getId());
+        if (infos == null) {
+            infos = sendCommandAsync(commandFactory.createReadFrames(thread), getReadersSupport().framesResponse());
         }
-        return frames;
+        return infos.transform(
+                new RubyDebugFuture.Function<RubyFrameInfo[], RubyFrame[]>() {
+            public RubyFrame[] apply(RubyFrameInfo[] infos) {
+                RubyFrame[] frames = new RubyFrame[infos.length];
+                for (int i = 0; i < infos.length; i++) {
+                    RubyFrameInfo info = infos[i];
+                    frames[i] = new RubyFrame(thread, info, infos.length - 1 - i);
+                }
+                return frames;
+            }
+        });
     }
     
     public RubyVariable[] readVariables(RubyFrame frame) throws RubyDebuggerException {
-        RubyVariableInfo[] infos;
-        synchronized (variablesLock) {
-            sendCommand(commandFactory.createReadLocalVariables(frame));
-            infos = getReadersSupport().readVariables();
-        }
-        RubyVariable[] variables= new RubyVariable[infos.length];
-        for (int i = 0; i < infos.length; i++) {
-            RubyVariableInfo info = infos[i];
-            variables[i] = new RubyVariable(info, frame);
+        return getReadersSupport().await(readVariablesAsync(frame));
+    }
+    
+    /** Asynchronous variant of {@link #readVariables}. */
+    public RubyDebugFuture<RubyVariable[]> readVariablesAsync(final RubyFrame frame) {
+        RubyDebugFuture<RubyVariableInfo[]> infos = frame.getIndex() == 1
+                ? prefetcher.takeLocals(frame.getThread().getId()) : null;
+        if (infos == null) {
+            infos = sendCommandAsync(commandFactory.createReadLocalVariables(frame), getReadersSupport().variablesResponse());
         }
-        return variables;
+        return infos.transform(
+                new RubyDebugFuture.Function<RubyVariableInfo[], RubyVariable[]>() {
+            public RubyVariable[] apply(RubyVariableInfo[] infos) {
+                RubyVariable[] variables= new RubyVariable[infos.length];
+                for (int i = 0; i < infos.length; i++) {
+                    RubyVariableInfo info = infos[i];
+                    variables[i] = new RubyVariable(info, frame);
+                }
+                return variables;
+            }
+        });
     }
     
     public RubyVariable[] readInstanceVariables(final RubyVariable variable) throws RubyDebuggerException {
-        RubyVariableInfo[] infos;
-        synchronized (variablesLock) {
-            sendCommand(commandFactory.createReadInstanceVariable(variable));
-            infos = getReadersSupport().readVariables();
+        return getReadersSupport().await(readInstanceVariablesAsync(variable));
+    }
+    
+    /**
+     * Asynchronous variant of {@link #readInstanceVariables}. Answered from
+     * the {@link #getVariableCache variable cache} when its policy allows.
+     */
+    public RubyDebugFuture<RubyVariable[]> readInstanceVariablesAsync(final RubyVariable variable) {
+        final String objectId = variable.getObjectId();
+        final String type = variable.getValue().getReferenceTypeName();
+        RubyVariableInfo[] cached = variableCache.get(objectId, type);
+        if (cached != null) {
+            return RubyDebugFuture.completed("instance variables", toInstanceVariables(cached, variable));
         }
-        RubyVariable[] variables= new RubyVariable[infos.length];
+        final long generation = variableCache.getGeneration();
+        return sendCommandAsync(commandFactory.createReadInstanceVariable(variable), getReadersSupport().variablesResponse()).transform(
+                new RubyDebugFuture.Function<RubyVariableInfo[], RubyVariable[]>() {
+            public RubyVariable[] apply(RubyVariableInfo[] infos) {
+                variableCache.put(objectId, type, infos, generation);
+                return toInstanceVariables(infos, variable);
+            }
+        });
+    }
+
+    /**
+     * Reads at most <code>limit</code> instance variables of the given
+     * variable starting at <code>offset</code>, e.g. a page of elements of a
+     * huge Array or Hash.
+     */
+    public RubyVariable[] readInstanceVariables(final RubyVariable variable,
+            final int offset, final int limit) throws RubyDebuggerException {
+        return getReadersSupport().await(readInstanceVariablesAsync(variable, offset, limit));
+    }
+
+    /**
+     * Asynchronous variant of {@link #readInstanceVariables(RubyVariable,
+     * int, int)}. Neither backend can page children, so Arrays and Hashes
+     * are sliced by the debuggee: the slice is inspected and then its
+     * children are read, so only the page is transferred and created.
+     * Other objects are read whole and sliced here.
+     * <p>
+     * The slice is referenced by nothing in the debuggee between the two
+     * commands, so if it was garbage collected meanwhile, reading of the
+     * page fails and might be repeated.
+     */
+    public RubyDebugFuture<RubyVariable[]> readInstanceVariablesAsync(final RubyVariable variable,
+            final int offset, final int limit) {
+        if (!isSliceable(variable)) {
+            return readInstanceVariablesAsync(variable).transform(
+                    new RubyDebugFuture.Function<RubyVariable[], RubyVariable[]>() {
+                public RubyVariable[] apply(RubyVariable[] all) {
+                    return slice(all, offset, limit);
+                }
+            });
+        }
+        final boolean array = variable.getValue().getReferenceTypeName().equals("Array");
+        String slice = "ObjectSpace._id2ref(" + variable.getObjectId() + ')';
+        slice = array
+                ? slice + '[' + offset + ", " + limit + "] || []"
+                : slice + ".to_a[" + offset + ", " + limit + "].to_a.inject({}) { |h, e| h[e[0]] = e[1]; h }";
+        final RubyFrame frame = variable.getFrame();
+        return sendCommandAsync(commandFactory.createInspect(frame, slice),
+                getReadersSupport().inspectResponse()).chain(
+                new RubyDebugFuture.Function<RubyVariableInfo[], RubyDebugFuture<RubyVariable[]>>() {
+            public RubyDebugFuture<RubyVariable[]> apply(RubyVariableInfo[] pageInfo) {
+                if (pageInfo.length == 0 || !pageInfo[0].hasChildren()) {
+                    return RubyDebugFuture.completed("instance variables", new RubyVariable[0]);
+                }
+                RubyVariable page = new RubyVariable(pageInfo[0], frame);
+                return sendCommandAsync(commandFactory.createReadInstanceVariable(page),
+                        getReadersSupport().variablesResponse()).transform(
+                        new RubyDebugFuture.Function<RubyVariableInfo[], RubyVariable[]>() {
+                    public RubyVariable[] apply(RubyVariableInfo[] infos) {
+                        return toInstanceVariables(array ? shiftIndices(infos, offset) : infos, variable);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns at most <code>limit</code> variables starting at
+     * <code>offset</code>.
+     */
+    static RubyVariable[] slice(final RubyVariable[] all, final int offset, final int limit) {
+        int from = Math.min(Math.max(0, offset), all.length);
+        int length = Math.min(all.length - from, Math.max(0, limit));
+        RubyVariable[] page = new RubyVariable[length];
+        System.arraycopy(all, from, page, 0, length);
+        return page;
+    }
+
+    /** Renames elements <code>[i]</code> of a slice to <code>[offset + i]</code>. */
+    private static RubyVariableInfo[] shiftIndices(final RubyVariableInfo[] infos, final int offset) {
+        RubyVariableInfo[] shifted = new RubyVariableInfo[infos.length];
         for (int i = 0; i < infos.length; i++) {
             RubyVariableInfo info = infos[i];
-            variables[i] = new RubyVariable(info, variable);
+            String name = info.getName();
+            if (name.startsWith("[") && name.endsWith("]")) {
+                try {
+                    name = "[" + (offset + Integer.parseInt(name.substring(1, name.length() - 1))) + ']';
+                } catch (NumberFormatException e) {
+                    // not an index, keep the name
+                }
+            }
+            shifted[i] = new RubyVariableInfo(name, info.getKind(), info.getValue(), info.getType(),
+                    info.hasChildren(), info.getObjectId());
         }
-        return variables;
+        return shifted;
     }
-    
-    public RubyVariable[] readGlobalVariables() throws RubyDebuggerException {
-        RubyVariableInfo[] infos;
-        synchronized (variablesLock) {
-            sendCommand(commandFactory.createReadGlobalVariables());
-            infos = getReadersSupport().readVariables();
+
+    /** Reads the number of instance variables, e.g. elements of an Array. */
+    public int readInstanceVariablesCount(final RubyVariable variable) throws RubyDebuggerException {
+        return getReadersSupport().await(readInstanceVariablesCountAsync(variable));
+    }
+
+    /**
+     * Asynchronous variant of {@link #readInstanceVariablesCount}. The size
+     * of Arrays and Hashes is evaluated by the debuggee through
+     * <code>ObjectSpace._id2ref</code>, other objects are read whole.
+     */
+    public RubyDebugFuture<Integer> readInstanceVariablesCountAsync(final RubyVariable variable) {
+        if (!isSliceable(variable)) {
+            return readInstanceVariablesAsync(variable).transform(
+                    new RubyDebugFuture.Function<RubyVariable[], Integer>() {
+                public Integer apply(RubyVariable[] all) {
+                    return all.length;
+                }
+            });
         }
-        RubyVariable[] variables= new RubyVariable[infos.length];
+        String expression = "ObjectSpace._id2ref(" + variable.getObjectId() + ").size";
+        return sendCommandAsync(commandFactory.createInspect(variable.getFrame(), expression),
+                getReadersSupport().inspectResponse()).transform(
+                new RubyDebugFuture.Function<RubyVariableInfo[], Integer>() {
+            public Integer apply(RubyVariableInfo[] infos) throws RubyDebuggerException {
+                try {
+                    return Integer.valueOf(infos[0].getValue());
+                } catch (RuntimeException e) {
+                    throw new RubyDebuggerException("Cannot read size of " + variable.getName(), e);
+                }
+            }
+        });
+    }
+
+    /** Whether children of the variable might be counted and sliced by expressions. */
+    private static boolean isSliceable(final RubyVariable variable) {
+        String type = variable.getValue().getReferenceTypeName();
+        return (type.equals("Array") || type.equals("Hash"))
+                && variable.getObjectId() != null && variable.getFrame() != null;
+    }
+
+    private static RubyVariable[] toInstanceVariables(final RubyVariableInfo[] infos, final RubyVariable parent) {
+        RubyVariable[] variables = new RubyVariable[infos.length];
         for (int i = 0; i < infos.length; i++) {
-            RubyVariableInfo info = infos[i];
-            variables[i] = new RubyVariable(this, info);
+            variables[i] = new RubyVariable(infos[i], parent);
         }
         return variables;
     }
+
+    /** Returns prefetching of the state of suspended threads; disabled by default. */
+    public SuspensionPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Sends reads of the frames, the top frame's local variables and the
+     * prefetched expressions in one batch for the just read suspension.
+     */
+    private void prefetch(final SuspensionPoint sp) {
+        if (!isReady()) {
+            return;
+        }
+        RubyThread thread = debugTarget.getThreadById(sp.getThreadId());
+        if (thread == null) { // commands only need the id
+            thread = new RubyThread(debugTarget, sp.getThreadId());
+        }
+        RubyFrame top = new RubyFrame(thread, new RubyFrameInfo(sp.getFile(), sp.getLine(), 1));
+        List<String> batch = new ArrayList<String>();
+        List<RubyDebugFuture<?>> responses = new ArrayList<RubyDebugFuture<?>>();
+        RubyDebugFuture<RubyFrameInfo[]> frames = getReadersSupport().framesResponse();
+        batch.add(commandFactory.createReadFrames(thread));
+        responses.add(frames);
+        RubyDebugFuture<RubyVariableInfo[]> locals = getReadersSupport().variablesResponse();
+        batch.add(commandFactory.createReadLocalVariables(top));
+        responses.add(locals);
+        Map<String, RubyDebugFuture<RubyVariableInfo[]>> expressions =
+                new HashMap<String, RubyDebugFuture<RubyVariableInfo[]>>();
+        for (String expression : prefetcher.getExpressions()) {
+            RubyDebugFuture<RubyVariableInfo[]> inspected = getReadersSupport().inspectResponse();
+            batch.add(commandFactory.createInspect(top, expression.replaceAll("\n", "\\\\n")));
+            responses.add(inspected);
+            expressions.put(expression, inspected);
+        }
+        prefetcher.put(new SuspensionPrefetcher.Prefetch(thread.getId(), frames, locals, expressions));
+        sendBatch(batch, responses);
+    }
+
+    /** Returns session-level cache of instance variables. */
+    public VariableCache getVariableCache() {
+        return variableCache;
+    }
+
+    /**
+     * Returns engine evaluating watch expressions in batches.
+     */
+    public WatchEngine getWatchEngine() {
+        return watchEngine;
+    }
+    
+    public RubyVariable[] readGlobalVariables() throws RubyDebuggerException {
+        return getReadersSupport().await(readGlobalVariablesAsync());
+    }
+    
+    /** Asynchronous variant of {@link #readGlobalVariables}. */
+    public RubyDebugFuture<RubyVariable[]> readGlobalVariablesAsync() {
+        return sendCommandAsync(commandFactory.createReadGlobalVariables(), getReadersSupport().variablesResponse()).transform(
+                new RubyDebugFuture.Function<RubyVariableInfo[], RubyVariable[]>() {
+            public RubyVariable[] apply(RubyVariableInfo[] infos) {
+                RubyVariable[] variables= new RubyVariable[infos.length];
+                for (int i = 0; i < infos.length; i++) {
+                    RubyVariableInfo info = infos[i];
+                    variables[i] = new RubyVariable(RubyDebuggerProxy.this, info);
+                }
+                return variables;
+            }
+        });
+    }
     
     public RubyVariable inspectExpression(RubyFrame frame, String expression) throws RubyDebuggerException {
-        expression = expression.replaceAll("\n", "\\\\n");
-        RubyVariableInfo[] infos;
-        synchronized (variablesLock) {
-            sendCommand(commandFactory.createInspect(frame, expression));
-            infos = getReadersSupport().readVariables();
+        return getReadersSupport().await(inspectExpressionAsync(frame, expression));
+    }
+    
+    /**
+     * Asynchronous variant of {@link #inspectExpression}. The future is
+     * completed with <code>null</code> if the backend does not return any
+     * result.
+     */
+    public RubyDebugFuture<RubyVariable> inspectExpressionAsync(final RubyFrame frame, String expression) {
+        RubyDebugFuture<RubyVariableInfo[]> infos = frame.getIndex() == 1
+                ? prefetcher.takeExpression(frame.getThread().getId(), expression) : null;
+        if (infos == null) {
+            expression = expression.replaceAll("\n", "\\\\n");
+            infos = sendCommandAsync(commandFactory.createInspect(frame, expression), getReadersSupport().inspectResponse());
         }
-        return infos.length == 0 ? null : new RubyVariable(infos[0], frame);
+        return toInspected(infos, frame);
+    }
+
+    /**
+     * Inspects all the given expressions in the given frame. The commands
+     * are sent in one batch, the returned futures, in the order of the
+     * expressions, are completed one by one as the responses arrive.
+     */
+    public List<RubyDebugFuture<RubyVariable>> inspectExpressionsAsync(final RubyFrame frame,
+            final List<String> expressions) {
+        List<RubyDebugFuture<RubyVariable>> inspected = new ArrayList<RubyDebugFuture<RubyVariable>>(expressions.size());
+        List<String> batch = new ArrayList<String>();
+        List<RubyDebugFuture<?>> responses = new ArrayList<RubyDebugFuture<?>>();
+        for (String expression : expressions) {
+            RubyDebugFuture<RubyVariableInfo[]> infos = frame.getIndex() == 1
+                    ? prefetcher.takeExpression(frame.getThread().getId(), expression) : null;
+            if (infos == null) {
+                infos = getReadersSupport().inspectResponse();
+                batch.add(commandFactory.createInspect(frame, expression.replaceAll("\n", "\\\\n")));
+                responses.add(infos);
+            }
+            inspected.add(toInspected(infos, frame));
+        }
+        sendBatch(batch, responses);
+        return inspected;
+    }
+
+    private static RubyDebugFuture<RubyVariable> toInspected(final RubyDebugFuture<RubyVariableInfo[]> infos,
+            final RubyFrame frame) {
+        return infos.transform(
+                new RubyDebugFuture.Function<RubyVariableInfo[], RubyVariable>() {
+            public RubyVariable apply(RubyVariableInfo[] infos) {
+                return infos.length == 0 ? null : new RubyVariable(infos[0], frame);
+            }
+        });
     }
     
     public void finish(final boolean forced) {
@@ -515,15 +1120,10 @@ public final class RubyDebuggerProxy {
                 sendExit();
             }
             PROXIES.remove(RubyDebuggerProxy.this);
+            DebuggerMetrics.unregister(RubyDebuggerProxy.this);
             if (forced) {
                 sendExit();
-                try {
-                    // Needed to let the IO readers to read the last pieces of input and
-                    // output streams.
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    LOGGER.log(Level.INFO, "Interrupted during IO readers waiting", e);
-                }
+                awaitDrained();
                 RubyDebugTarget target = getDebugTarget();
                 if (!target.isRemote()) {
                     LOGGER.fine("Destroying process: " + target);
@@ -535,6 +1135,30 @@ public final class RubyDebuggerProxy {
         fireDebugEvent(RubyDebugEvent.createTerminateEvent());
     }
     
+    /**
+     * Lets the IO readers read the last pieces of input and output streams.
+     * Waits until the backend closes the connection and the debuggee process
+     * exits, at most {@link Util#getDrainTimeout}.
+     */
+    private void awaitDrained() {
+        long deadline = System.currentTimeMillis() + Util.getDrainTimeout();
+        try {
+            if (commandSocket != null && !readersSupport.awaitDrained(Util.getDrainTimeout())) {
+                LOGGER.fine("Connection was not closed by the backend in " + Util.getDrainTimeout() + "ms");
+            }
+            RubyDebugTarget target = getDebugTarget();
+            if (!target.isRemote()) {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                if (!target.waitForExit(remaining)) {
+                    LOGGER.fine("Debuggee has not exited in " + Util.getDrainTimeout() + "ms");
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.INFO, "Interrupted during IO readers waiting", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+    
     private synchronized void sendExit() {
         if (commandSocket != null && debugTarget.isAvailable()) {
             try {
@@ -548,7 +1172,9 @@ public final class RubyDebuggerProxy {
         }
     }
 
-    public synchronized void jump(final int line) {
+    public void jump(final int line) {
+        variableCache.nextGeneration();
+        prefetcher.discardAll();
         try {
             sendCommand("jump " + line);
         }
@@ -559,7 +1185,7 @@ public final class RubyDebuggerProxy {
         }
     }
 
-    public synchronized void threadPause(final int id) {
+    public void threadPause(final int id) {
         try {
             sendCommand("pause " + id);
         }
@@ -570,7 +1196,7 @@ public final class RubyDebuggerProxy {
         }
     }
 
-    public synchronized void setType(final RubyVariable var, final String new_type) {
+    public void setType(final RubyVariable var, final String new_type) {
         try {
             sendCommand("set_type " + var.getName() + " " + new_type);
         }
@@ -583,36 +1209,50 @@ public final class RubyDebuggerProxy {
     
     /**
      * Tries to attach to the <code>target</code>'s process and gives up in
-     * <code>timeout</code> seconds.
+     * <code>timeout</code> seconds. Attempts are repeated with exponentially
+     * growing delays, starting at {@link #FIRST_ATTACH_DELAY} ms. The waiting
+     * is cut short once the debuggee {@link #debuggeeOutput announces} that it
+     * listens.
      */
     private Socket attach() throws RubyDebuggerException {
         int port = debugTarget.getPort();
         String host = debugTarget.getHost();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(timeout);
+        long delay = FIRST_ATTACH_DELAY;
+        boolean announced = false;
         Socket socket = null;
-        for (int tryCount = (timeout*2), i = 0; i < tryCount && socket == null; i++) {
+        while (socket == null) {
             try {
-                socket = new Socket(host, port);
-                LOGGER.finest("Successfully attached to " + host + ':' + port);
+                socket = multiplexer == null
+                        ? new Socket(host, port)
+                        : SocketChannel.open(new InetSocketAddress(host, port)).socket();
+                attachTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                LOGGER.finest("Successfully attached to " + host + ':' + port + " in " + attachTime + "ms");
             } catch (ConnectException e) {
                 synchronized (this) {
                     if (finished) { // terminated by frontend before process started
                         throw new RubyDebuggerException("Process was terminated before debugger connection was established.");
                     }
-                    if (i == tryCount - 1) {
-                        failWithInfo(e);
-                    }
                 }
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0 || !debugTarget.isAvailable()) {
+                    failWithInfo(e);
+                }
+                long wait = Math.min(delay, remaining);
+                LOGGER.finest("Cannot connect to " + host + ':' + port + ". Trying again in " + wait + "ms");
                 try {
-                    if (debugTarget.isAvailable()) {
-                        LOGGER.finest("Cannot connect to " + host + ':' + port + ". Trying again...(" + (tryCount - i - 1) + ')');
-                        Thread.sleep(500);
-                    } else {
-                        failWithInfo(e);
+                    if (announced) {
+                        Thread.sleep(wait);
+                    } else if (debuggerListening.await(wait, TimeUnit.MILLISECONDS)) {
+                        announced = true;
+                        continue; // try immediately
                     }
                 } catch (InterruptedException e1) {
-                    LOGGER.log(Level.INFO, "Interrupted during attaching.", e1);
                     Thread.currentThread().interrupt();
+                    throw new RubyDebuggerException("Interrupted during attaching.", e1);
                 }
+                delay = Math.min(delay * 2, MAX_ATTACH_DELAY);
             } catch (IOException e) {
                 throw new RubyDebuggerException(e);
             }
@@ -620,6 +1260,54 @@ public final class RubyDebuggerProxy {
         return socket;
     }
 
+    /**
+     * Clients reading the debuggee's standard error output might pass the
+     * read lines here. Once the debugger backend announces that it listens,
+     * the pending {@link #attach attaching} connects immediately instead of
+     * waiting for the next attempt.
+     *
+     * @param line line of the debuggee's error output
+     * @return whether the line is the backend's announcement
+     */
+    public boolean debuggeeOutput(final CharSequence line) {
+        if (debuggerListening.getCount() > 0 && LISTENING_BANNER.matcher(line).find()) {
+            LOGGER.finest("Debugger backend announced listening: " + line);
+            debuggerListening.countDown();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns timeouts of the commands waiting for a response. Initially all
+     * command types share the timeout given in the constructor; clients might
+     * set timeouts per command type or turn on the adaptive mode.
+     */
+    public CommandTimeouts getCommandTimeouts() {
+        return getReadersSupport().getTimeouts();
+    }
+
+    /** Returns metrics of this session. See also {@link DebuggerMetrics}. */
+    public SessionMetrics getMetrics() {
+        return getReadersSupport().getMetrics();
+    }
+
+    /**
+     * Returns pool deduplicating file paths of the read frames and names,
+     * kinds, types and values of the read variables.
+     */
+    public StringPool getStringPool() {
+        return getReadersSupport().getStringPool();
+    }
+
+    /**
+     * Returns time in milliseconds spent by establishing the connection to
+     * the debuggee, or <code>-1</code> if the proxy is not attached.
+     */
+    public long getAttachTime() {
+        return attachTime;
+    }
+
     private void failWithInfo(ConnectException e) throws RubyDebuggerException {
         String info = debugTarget.isRemote()
                 ? "[Remote Process at " + debugTarget.getHost() + ':' + debugTarget.getPort() + "]"
@@ -636,20 +1324,46 @@ public final class RubyDebuggerProxy {
         this.supportsCondition = supportsCondition;
     }
 
+    /**
+     * Whether the suspension should be reported to the {@link #debugTarget}.
+     */
+    private boolean acceptSuspension(final SuspensionPoint sp) {
+        LOGGER.finest(sp.toString());
+
+        // see removedCatchpoints's JavaDoc
+        if (sp.isException()) {
+            ExceptionSuspensionPoint exceptionSP = (ExceptionSuspensionPoint) sp;
+            if (removedCatchpoints.contains(exceptionSP.getExceptionType())) {
+                RubyThread thread = getDebugTarget().getThreadById(sp.getThreadId());
+                if (thread != null) {
+                    resume(thread);
+                    return false;
+                }
+            }
+        }
+        if (!isReady()) { // flush events after proxy is finished
+            LOGGER.info("Session and/or debuggee is not ready, ignoring backend event - suspension point: " + sp);
+            return false;
+        }
+        return true;
+    }
+
+    /** Called once the backend connection is closed. */
+    private void readersFinished() {
+        boolean unexpectedFail = getReadersSupport().isUnexpectedFail();
+        if (unexpectedFail) {
+            LOGGER.warning("Unexpected fail. Debuggee: " + getDebugTarget() +
+                    ", output: \n\n" + Util.dumpAndDestroyProcess(debugTarget));
+        }
+        finish(unexpectedFail);
+    }
+
     private class SuspensionReaderLoop extends Thread {
         
         SuspensionReaderLoop() {
             this.setName("RubyDebuggerLoop [" + System.currentTimeMillis() + ']');
         }
         
-        public void suspensionOccurred(final SuspensionPoint hit) {
-            new Thread() {
-                public @Override void run() {
-                    debugTarget.suspensionOccurred(hit);
-                }
-            }.start();
-        }
-        
         public @Override void run() {
             LOGGER.finest("Waiting for breakpoints.");
             while (true) {
@@ -657,31 +1371,11 @@ public final class RubyDebuggerProxy {
                 if (sp == SuspensionPoint.END) {
                     break;
                 }
-                LOGGER.finest(sp.toString());
-
-                // see removedCatchpoints's JavaDoc
-                if (sp.isException()) {
-                    ExceptionSuspensionPoint exceptionSP = (ExceptionSuspensionPoint) sp;
-                    if (removedCatchpoints.contains(exceptionSP.getExceptionType())) {
-                        RubyThread thread = getDebugTarget().getThreadById(sp.getThreadId());
-                        if (thread != null) {
-                            RubyDebuggerProxy.this.resume(thread);
-                            continue;
-                        }
-                    }
-                }
-                if (!RubyDebuggerProxy.this.isReady()) { // flush events after proxy is finished
-                    LOGGER.info("Session and/or debuggee is not ready, ignoring backend event - suspension point: " + sp);
-                } else {
-                    SuspensionReaderLoop.this.suspensionOccurred(sp);
+                if (acceptSuspension(sp)) {
+                    getSuspensionDispatcher().dispatch(suspensionHandler, sp);
                 }
             }
-            boolean unexpectedFail = getReadersSupport().isUnexpectedFail();
-            if (unexpectedFail) {
-                LOGGER.warning("Unexpected fail. Debuggee: " + getDebugTarget() +
-                        ", output: \n\n" + Util.dumpAndDestroyProcess(debugTarget));
-            }
-            finish(unexpectedFail);
+            readersFinished();
             LOGGER.finest("Socket reader loop finished.");
         }
     }
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of one debugger session: commands and their latencies per {@link
+ * CommandType}, traffic, depths of the {@link ReadersSupport} queues,
+ * suspensions, parser errors and deduplication of the read strings.
+ * Recording is lock-free and cheap enough to be always on.
+ * <p>
+ * Available through {@link RubyDebuggerProxy#getMetrics}, JMX (see {@link
+ * DebuggerMetrics}) or any {@link MetricsRegistry}.
+ */
+public final class SessionMetrics implements SessionMetricsMBean {
+
+    private final ReadersSupport readersSupport;
+
+    private final Map<CommandType, AtomicLong> commands;
+    private final Map<CommandType, AtomicLong> failures;
+    private final Map<CommandType, LatencyHistogram> latencies;
+
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong suspensions = new AtomicLong();
+    private final AtomicLong deliveredSuspensions = new AtomicLong();
+    private final AtomicLong suspensionDeliveryNanos = new AtomicLong();
+    private final AtomicLong parserErrors = new AtomicLong();
+
+    private volatile CommandWriter commandWriter;
+
+    SessionMetrics(final ReadersSupport readersSupport) {
+        this.readersSupport = readersSupport;
+        this.commands = new EnumMap<CommandType, AtomicLong>(CommandType.class);
+        this.failures = new EnumMap<CommandType, AtomicLong>(CommandType.class);
+        this.latencies = new EnumMap<CommandType, LatencyHistogram>(CommandType.class);
+        for (CommandType type : CommandType.values()) {
+            commands.put(type, new AtomicLong());
+            failures.put(type, new AtomicLong());
+            latencies.put(type, new LatencyHistogram());
+        }
+    }
+
+    void setCommandWriter(final CommandWriter commandWriter) {
+        this.commandWriter = commandWriter;
+    }
+
+    void commandCompleted(final CommandType type, final long latencyMillis) {
+        commands.get(type).incrementAndGet();
+        latencies.get(type).record(latencyMillis);
+    }
+
+    void commandFailed(final CommandType type) {
+        commands.get(type).incrementAndGet();
+        failures.get(type).incrementAndGet();
+    }
+
+    void bytesRead(final long count) {
+        bytesRead.addAndGet(count);
+    }
+
+    void suspensionRead() {
+        suspensions.incrementAndGet();
+    }
+
+    /**
+     * @param readTime {@link System#nanoTime} of reading of the delivered
+     *        suspension
+     */
+    void suspensionDelivered(final long readTime) {
+        deliveredSuspensions.incrementAndGet();
+        suspensionDeliveryNanos.addAndGet(System.nanoTime() - readTime);
+    }
+
+    void parserError() {
+        parserErrors.incrementAndGet();
+    }
+
+    /** Returns stream counting the bytes read from the given one. */
+    InputStream countingStream(final InputStream is) {
+        return new FilterInputStream(is) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    bytesRead(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    bytesRead(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getBytesWritten() {
+        CommandWriter writer = commandWriter;
+        return writer == null ? 0 : writer.getBytesWritten();
+    }
+
+    public long getCommandsWritten() {
+        CommandWriter writer = commandWriter;
+        return writer == null ? 0 : writer.getCommandsWritten();
+    }
+
+    public long getPendingResponses() {
+        long pending = 0;
+        for (int count : readersSupport.getPendingCounts().values()) {
+            pending += count;
+        }
+        return pending;
+    }
+
+    public long getPendingResponses(final String element) {
+        Integer pending = readersSupport.getPendingCounts().get(element);
+        return pending == null ? 0 : pending;
+    }
+
+    public String[] getPendingElements() {
+        Set<String> elements = readersSupport.getPendingCounts().keySet();
+        return elements.toArray(new String[elements.size()]);
+    }
+
+    public long getQueuedSuspensions() {
+        return readersSupport.getQueuedSuspensions();
+    }
+
+    public long getSuspensions() {
+        return suspensions.get();
+    }
+
+    public long getParserErrors() {
+        return parserErrors.get();
+    }
+
+    public long getStringPoolHits() {
+        return readersSupport.getStringPool().getHits();
+    }
+
+    public long getStringPoolMisses() {
+        return readersSupport.getStringPool().getMisses();
+    }
+
+    public long getStringPoolBytesSaved() {
+        return readersSupport.getStringPool().getBytesSaved();
+    }
+
+    public long getMeanSuspensionDeliveryMicros() {
+        long delivered = deliveredSuspensions.get();
+        return delivered == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(suspensionDeliveryNanos.get() / delivered);
+    }
+
+    public long getCommandCount(final String commandType) {
+        return commands.get(CommandType.valueOf(commandType)).get();
+    }
+
+    public long getCommandFailures(final String commandType) {
+        return failures.get(CommandType.valueOf(commandType)).get();
+    }
+
+    public long getLatencyPercentile(final String commandType, final double percentile) {
+        return latencies.get(CommandType.valueOf(commandType)).getPercentile(percentile);
+    }
+
+    public long[] getLatencyHistogram(final String commandType) {
+        return latencies.get(CommandType.valueOf(commandType)).getCounts();
+    }
+
+    public long[] getLatencyHistogramBounds() {
+        return LatencyHistogram.UPPER_BOUNDS.clone();
+    }
+
+    /**
+     * Reports all the metrics to the given registry.
+     *
+     * @param session identification of the session passed to the registry
+     */
+    public void reportTo(final MetricsRegistry registry, final String session) {
+        for (CommandType type : CommandType.values()) {
+            String prefix = "commands." + type.name().toLowerCase() + '.';
+            registry.counter(session, prefix + "count", commands.get(type).get());
+            registry.counter(session, prefix + "failures", failures.get(type).get());
+            registry.histogram(session, prefix + "latency", LatencyHistogram.UPPER_BOUNDS.clone(),
+                    latencies.get(type).getCounts());
+        }
+        registry.counter(session, "bytes.read", getBytesRead());
+        registry.counter(session, "bytes.written", getBytesWritten());
+        registry.counter(session, "commands.written", getCommandsWritten());
+        for (Map.Entry<String, Integer> pending : readersSupport.getPendingCounts().entrySet()) {
+            registry.gauge(session, "queues.pending." + pending.getKey(), pending.getValue());
+        }
+        registry.gauge(session, "queues.suspensions", getQueuedSuspensions());
+        registry.counter(session, "suspensions.count", getSuspensions());
+        registry.counter(session, "suspensions.delivered", deliveredSuspensions.get());
+        registry.counter(session, "suspensions.deliveryMicros",
+                TimeUnit.NANOSECONDS.toMicros(suspensionDeliveryNanos.get()));
+        registry.counter(session, "parser.errors", getParserErrors());
+        registry.counter(session, "strings.hits", getStringPoolHits());
+        registry.counter(session, "strings.misses", getStringPoolMisses());
+        registry.counter(session, "strings.bytesSaved", getStringPoolBytesSaved());
+    }
+
+}
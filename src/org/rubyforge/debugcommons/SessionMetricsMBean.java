@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+/**
+ * JMX view of {@link SessionMetrics}. Latencies are in milliseconds, command
+ * types are names of {@link CommandType} constants.
+ */
+public interface SessionMetricsMBean {
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getCommandsWritten();
+
+    /** Number of commands waiting for their responses, of all elements. */
+    long getPendingResponses();
+
+    /**
+     * Number of commands waiting for responses of the given element, e.g.
+     * <code>variables</code>; 0 for unknown elements.
+     */
+    long getPendingResponses(String element);
+
+    /** Names of the response elements accepted by {@link #getPendingResponses(String)}. */
+    String[] getPendingElements();
+
+    long getQueuedSuspensions();
+
+    /**
+     * Number of suspensions read so far. Cumulative; scrapers compute the
+     * suspension rate from differences between samples.
+     */
+    long getSuspensions();
+
+    long getParserErrors();
+
+    long getStringPoolHits();
+
+    long getStringPoolMisses();
+
+    /** Estimated heap saved by deduplicating the read strings [B]. */
+    long getStringPoolBytesSaved();
+
+    /** Mean time from reading a suspension to its delivery to the debug target [&micro;s]. */
+    long getMeanSuspensionDeliveryMicros();
+
+    long getCommandCount(String commandType);
+
+    long getCommandFailures(String commandType);
+
+    long getLatencyPercentile(String commandType, double percentile);
+
+    long[] getLatencyHistogram(String commandType);
+
+    long[] getLatencyHistogramBounds();
+
+}
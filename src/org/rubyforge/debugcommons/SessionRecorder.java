@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the bytes exchanged on the command connection of one session,
+ * i.e. the commands written to the backend and the XML read from it, into an
+ * append-only file which might be replayed later by the {@link
+ * SessionReplayer}.
+ * <p>
+ * The file starts with the {@link #MAGIC magic number}, the format version
+ * and the wall-clock start time in milliseconds. Each record follows as a
+ * direction byte ({@link #COMMAND} or {@link #INPUT}), the time elapsed since
+ * the previous record in microseconds and the length of the data, both as
+ * variable-length integers, and the data itself.
+ * <p>
+ * Set to the proxy by {@link RubyDebuggerProxy#setRecorder} before attaching.
+ * Failure to record is logged and disables the recording, it never breaks the
+ * session.
+ */
+public final class SessionRecorder {
+
+    private static final Logger LOGGER = Logger.getLogger(SessionRecorder.class.getName());
+
+    static final int MAGIC = 0x44435243; // "DCRC"
+    static final int VERSION = 1;
+
+    /** Direction of data written to the backend. */
+    static final int COMMAND = 1;
+
+    /** Direction of data read from the backend. */
+    static final int INPUT = 2;
+
+    private final File file;
+
+    /** Guarded by this; <code>null</code> once closed or failed. */
+    private DataOutputStream out;
+
+    private long lastRecord;
+    private long records;
+
+    public SessionRecorder(final File file) throws IOException {
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 8192));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        this.lastRecord = System.nanoTime();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** Returns number of records written so far. */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    void recordCommand(final byte[] data, final int offset, final int length) {
+        record(COMMAND, data, offset, length);
+    }
+
+    void recordInput(final byte[] data, final int offset, final int length) {
+        record(INPUT, data, offset, length);
+    }
+
+    private synchronized void record(final int direction, final byte[] data, final int offset, final int length) {
+        if (out == null || length <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        try {
+            out.writeByte(direction);
+            writeVarLong(out, (now - lastRecord) / 1000);
+            writeVarLong(out, length);
+            out.write(data, offset, length);
+            records++;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot record to " + file + ", recording disabled", e);
+            closeQuietly();
+        }
+        lastRecord = now;
+    }
+
+    /** Writes buffered records to the file. */
+    public synchronized void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot record to " + file + ", recording disabled", e);
+                closeQuietly();
+            }
+        }
+    }
+
+    /** Flushes and closes the file. Further data are not recorded. */
+    public synchronized void close() {
+        flush();
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot close " + file, e);
+            }
+            out = null;
+        }
+    }
+
+    /** Returns stream recording the bytes read from the given one. */
+    InputStream recordingStream(final InputStream is) {
+        return new FilterInputStream(is) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    recordInput(new byte[] { (byte) b }, 0, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                recordInput(b, off, read);
+                return read;
+            }
+        };
+    }
+
+    /**
+     * Returns stream recording the bytes written to the given one. Bytes are
+     * recorded before they are written, otherwise the response might be
+     * recorded before its command.
+     */
+    OutputStream recordingStream(final OutputStream os) {
+        return new FilterOutputStream(os) {
+            @Override
+            public void write(int b) throws IOException {
+                recordCommand(new byte[] { (byte) b }, 0, 1);
+                os.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                recordCommand(b, off, len);
+                os.write(b, off, len);
+            }
+        };
+    }
+
+    static void writeVarLong(final DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+}
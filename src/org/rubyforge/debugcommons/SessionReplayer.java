@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a session recorded by the {@link SessionRecorder}. The recorded
+ * backend output is fed to a fresh {@link ReadersSupport}, either as fast as
+ * possible or at the original pacing, so parsing of real sessions might be
+ * measured and profiled without the original debuggee.
+ */
+public final class SessionReplayer {
+
+    /** Notified about recorded commands in the order they were sent. */
+    public interface CommandHandler {
+
+        /**
+         * Called in the reading thread before the backend output which
+         * followed the command is read.
+         */
+        void commandSent(String command);
+
+    }
+
+    private static final class Record {
+
+        final boolean command;
+        final long micros;
+        final byte[] data;
+
+        Record(final boolean command, final long micros, final byte[] data) {
+            this.command = command;
+            this.micros = micros;
+            this.data = data;
+        }
+
+    }
+
+    private final List<Record> records;
+    private final long startTime;
+
+    public SessionReplayer(final File recording) throws IOException {
+        this.records = new ArrayList<Record>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(recording), 8192));
+        try {
+            if (in.readInt() != SessionRecorder.MAGIC) {
+                throw new IOException(recording + " is not a session recording");
+            }
+            int version = in.readUnsignedByte();
+            if (version != SessionRecorder.VERSION) {
+                throw new IOException("Unsupported version of " + recording + ": " + version);
+            }
+            startTime = in.readLong();
+            readRecords(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void readRecords(final DataInputStream in) throws IOException {
+        try {
+            int direction;
+            while ((direction = in.read()) != -1) {
+                long micros = readVarLong(in);
+                byte[] data = new byte[(int) readVarLong(in)];
+                in.readFully(data);
+                records.add(new Record(direction == SessionRecorder.COMMAND, micros, data));
+            }
+        } catch (EOFException e) {
+            // truncated, e.g. the recording application was killed; keep what was read
+        }
+    }
+
+    /** Returns wall-clock time when the recording was started [ms]. */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /** Returns the recorded commands, each possibly holding several lines. */
+    public List<String> getCommands() {
+        List<String> commands = new ArrayList<String>();
+        for (Record record : records) {
+            if (record.command) {
+                commands.add(decode(record.data));
+            }
+        }
+        return commands;
+    }
+
+    /** Returns number of bytes read from the backend in the recorded session. */
+    public long getInputLength() {
+        long length = 0;
+        for (Record record : records) {
+            if (!record.command) {
+                length += record.data.length;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Returns stream of the recorded backend output.
+     *
+     * @param paced whether to wait between the records as long as in the
+     *        recorded session
+     * @param handler notified about the recorded commands; might be
+     *        <code>null</code>
+     */
+    public InputStream openInput(final boolean paced, final CommandHandler handler) {
+        return new ReplayStream(paced, handler);
+    }
+
+    /**
+     * Replays the recorded backend output and waits until it is read.
+     *
+     * @param paced whether to keep the original pacing
+     * @param timeout time to wait for the replay to finish [ms]
+     * @return metrics of the replayed session
+     */
+    public SessionMetrics replay(final boolean paced, final long timeout) throws RubyDebuggerException {
+        ReadersSupport readersSupport = new ReadersSupport(new CommandTimeouts(timeout), ProtocolParserFactory.KXML);
+        startReplay(readersSupport, paced, null);
+        try {
+            if (!readersSupport.awaitDrained(timeout)) {
+                throw new RubyDebuggerException("Replay has not finished in " + timeout + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RubyDebuggerException("Interrupted during replay", e);
+        }
+        return readersSupport.getMetrics();
+    }
+
+    /** Feeds the recorded backend output to the given readers. */
+    void startReplay(final ReadersSupport readersSupport, final boolean paced,
+            final CommandHandler handler) throws RubyDebuggerException {
+        readersSupport.startCommandLoop(openInput(paced, handler));
+    }
+
+    private static String decode(final byte[] data) {
+        try {
+            return new String(data, "UTF-8").trim();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static long readVarLong(final DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length number");
+    }
+
+    private final class ReplayStream extends InputStream {
+
+        private final boolean paced;
+        private final CommandHandler handler;
+        private final long start;
+
+        private int index = -1;
+        private int position;
+        private long elapsed;
+
+        ReplayStream(final boolean paced, final CommandHandler handler) {
+            this.paced = paced;
+            this.handler = handler;
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            Record current = index < 0 || index >= records.size() ? null : records.get(index);
+            while (current == null || current.command || position == current.data.length) {
+                if (++index >= records.size()) {
+                    return -1;
+                }
+                current = records.get(index);
+                position = 0;
+                elapsed += current.micros;
+                if (current.command) {
+                    if (handler != null) {
+                        handler.commandSent(decode(current.data));
+                    }
+                } else if (paced) {
+                    pace();
+                }
+            }
+            int read = Math.min(len, current.data.length - position);
+            System.arraycopy(current.data, position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        private void pace() throws InterruptedIOException {
+            long wait = TimeUnit.MICROSECONDS.toMillis(elapsed)
+                    - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted during paced replay");
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.rubyforge.debugcommons.model.SuspensionPoint;
+
+/**
+ * Dispatches suspensions read from the backends to their handlers (typically
+ * {@link org.rubyforge.debugcommons.model.RubyDebugTarget#suspensionOccurred})
+ * using a fixed number of worker threads. Suspensions of the same Ruby thread
+ * in the same session are handled one by one in the order they were read,
+ * suspensions of different threads are handled concurrently.
+ * <p>
+ * The number of suspensions of one session waiting for dispatch is bounded,
+ * so a session flooding the dispatcher does not delay the others. What
+ * happens when a session reaches the bound is decided by the {@link
+ * OverflowPolicy}.
+ */
+public final class SuspensionDispatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(SuspensionDispatcher.class.getName());
+
+    /** What to do with a suspension when the dispatcher is full. */
+    public static enum OverflowPolicy {
+
+        /**
+         * Wait until there is a space. Blocks the thread reading from the
+         * session's backend until the handlers catch up.
+         */
+        BLOCK,
+
+        /**
+         * Replace the latest waiting suspension of the same Ruby thread with
+         * the new one. If there is no such suspension, the new one is
+         * accepted over the bound, so the latest suspension of every thread
+         * is always delivered and the session exceeds the bound by at most
+         * one suspension per thread. Never blocks.
+         */
+        COALESCE,
+
+        /** Drop the new suspension. */
+        DROP
+    }
+
+    /** Handles suspensions of one session. */
+    public interface Handler {
+
+        void suspensionOccurred(SuspensionPoint sp);
+
+    }
+
+    /** Lazily created {@link #getShared shared} dispatcher. */
+    private static SuspensionDispatcher shared;
+
+    private final ExecutorService workers;
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    /** Lanes of Ruby threads with waiting or running suspensions; guarded by this. */
+    private final Map<LaneKey, Lane> lanes;
+
+    /** Number of suspensions waiting for dispatch; guarded by this. */
+    private int pending;
+
+    /** Number of waiting suspensions per session; guarded by this. */
+    private final Map<Handler, Integer> pendingBySession;
+
+    private long dropped;
+    private long coalesced;
+
+    /**
+     * @param workerThreads number of threads calling the handlers
+     * @param capacity maximal number of suspensions of one session waiting
+     *        for dispatch
+     * @param policy what to do when the <code>capacity</code> is reached
+     */
+    public SuspensionDispatcher(final int workerThreads, final int capacity, final OverflowPolicy policy) {
+        if (workerThreads < 1 || capacity < 1) {
+            throw new IllegalArgumentException("At least one worker thread and capacity of one is needed");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.lanes = new HashMap<LaneKey, Lane>();
+        this.pendingBySession = new HashMap<Handler, Integer>();
+        this.workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SuspensionDispatcher worker [" + count.incrementAndGet() + ']');
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the dispatcher used by proxies without their own one. It has
+     * four workers shared by all the sessions, capacity of 1024 suspensions
+     * per session and {@link OverflowPolicy#COALESCE coalesces} when full,
+     * so it neither blocks the readers nor loses the latest suspension of a
+     * thread. Must not be {@link #shutdown shut down}.
+     */
+    public static synchronized SuspensionDispatcher getShared() {
+        if (shared == null) {
+            shared = new SuspensionDispatcher(4, 1024, OverflowPolicy.COALESCE);
+        }
+        return shared;
+    }
+
+    /**
+     * Schedules the given suspension to be handled by the given handler. The
+     * handler's identity together with the suspension's thread ID determines
+     * the ordering.
+     */
+    public void dispatch(final Handler handler, final SuspensionPoint sp) {
+        LaneKey key = new LaneKey(handler, sp.getThreadId());
+        synchronized (this) {
+            while (getPending(handler) >= capacity) {
+                Lane lane = lanes.get(key);
+                if (policy == OverflowPolicy.BLOCK) {
+                    try {
+                        wait();
+                        continue;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        LOGGER.log(Level.INFO, "Interrupted during waiting for dispatch of " + sp, e);
+                    }
+                } else if (policy == OverflowPolicy.COALESCE) {
+                    if (lane == null || lane.waiting.isEmpty()) {
+                        // the only suspension of the thread, never lost
+                        break;
+                    }
+                    SuspensionPoint replaced = lane.waiting.removeLast();
+                    lane.waiting.addLast(sp);
+                    coalesced++;
+                    LOGGER.fine("Dispatcher is full, " + replaced + " replaced by " + sp);
+                    return;
+                }
+                dropped++;
+                LOGGER.fine("Dispatcher is full, dropping " + sp);
+                return;
+            }
+            Lane lane = lanes.get(key);
+            if (lane == null) {
+                lane = new Lane(key);
+                lanes.put(key, lane);
+            }
+            lane.waiting.addLast(sp);
+            addPending(handler, 1);
+            if (!lane.scheduled) {
+                lane.scheduled = true;
+                schedule(lane);
+            }
+        }
+    }
+
+    private void schedule(final Lane lane) {
+        assert Thread.holdsLock(this);
+        try {
+            workers.execute(lane);
+        } catch (RejectedExecutionException e) {
+            LOGGER.fine("Dispatcher was shut down, dropping " + lane.waiting.size() + " suspension(s)");
+            addPending(lane.key.handler, -lane.waiting.size());
+            dropped += lane.waiting.size();
+            lanes.remove(lane.key);
+            notifyAll();
+        }
+    }
+
+    private int getPending(final Handler handler) {
+        assert Thread.holdsLock(this);
+        Integer sessionPending = pendingBySession.get(handler);
+        return sessionPending == null ? 0 : sessionPending;
+    }
+
+    private void addPending(final Handler handler, final int delta) {
+        assert Thread.holdsLock(this);
+        pending += delta;
+        int sessionPending = getPending(handler) + delta;
+        if (sessionPending == 0) {
+            pendingBySession.remove(handler);
+        } else {
+            pendingBySession.put(handler, sessionPending);
+        }
+    }
+
+    /** Returns number of suspensions dropped because of overflow. */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /** Returns number of suspensions replaced by a newer one because of overflow. */
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /** Returns number of suspensions of all sessions waiting for dispatch. */
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /** Stops the workers. Waiting suspensions are dropped. */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /** Suspensions of one Ruby thread; each run handles the oldest one. */
+    private final class Lane implements Runnable {
+
+        private final LaneKey key;
+        private final LinkedList<SuspensionPoint> waiting;
+
+        /** Whether the lane is submitted to the workers; guarded by dispatcher. */
+        private boolean scheduled;
+
+        Lane(final LaneKey key) {
+            this.key = key;
+            this.waiting = new LinkedList<SuspensionPoint>();
+        }
+
+        public void run() {
+            SuspensionPoint sp;
+            synchronized (SuspensionDispatcher.this) {
+                sp = waiting.removeFirst();
+                addPending(key.handler, -1);
+                SuspensionDispatcher.this.notifyAll();
+            }
+            try {
+                key.handler.suspensionOccurred(sp);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Handling of " + sp + " failed", e);
+            } finally {
+                synchronized (SuspensionDispatcher.this) {
+                    if (waiting.isEmpty()) {
+                        scheduled = false;
+                        lanes.remove(key);
+                    } else {
+                        // resubmit to let other lanes in
+                        schedule(this);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class LaneKey {
+
+        private final Handler handler;
+        private final int threadId;
+
+        LaneKey(final Handler handler, final int threadId) {
+            this.handler = handler;
+            this.threadId = threadId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof LaneKey)) {
+                return false;
+            }
+            LaneKey other = (LaneKey) obj;
+            return handler == other.handler && threadId == other.threadId;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(handler) * 31 + threadId;
+        }
+    }
+
+}
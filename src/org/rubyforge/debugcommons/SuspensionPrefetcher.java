@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.rubyforge.debugcommons.model.RubyFrameInfo;
+import org.rubyforge.debugcommons.model.RubyVariableInfo;
+
+/**
+ * Opt-in prefetching of the state every client reads once a thread is
+ * suspended: frames of the thread, local variables of its top frame and the
+ * configured watch expressions. The reads are sent in one batch as soon as
+ * the suspension is read, before the {@link RubyDebugEvent} is fired, and
+ * the responses are then handed to the first matching {@link
+ * RubyDebuggerProxy#readFrames}, {@link RubyDebuggerProxy#readVariables} or
+ * {@link RubyDebuggerProxy#inspectExpression} call instead of sending the
+ * command again.
+ * <p>
+ * Prefetched data are used at most once and are dropped when the thread is
+ * resumed or stepped. Available through {@link
+ * RubyDebuggerProxy#getPrefetcher}. Thread-safe.
+ */
+public final class SuspensionPrefetcher {
+
+    /** Responses prefetched for one suspension of a thread. */
+    static final class Prefetch {
+
+        private final int threadId;
+        private RubyDebugFuture<RubyFrameInfo[]> frames;
+        private RubyDebugFuture<RubyVariableInfo[]> locals;
+        private final Map<String, RubyDebugFuture<RubyVariableInfo[]>> expressions;
+
+        Prefetch(final int threadId, final RubyDebugFuture<RubyFrameInfo[]> frames,
+                final RubyDebugFuture<RubyVariableInfo[]> locals,
+                final Map<String, RubyDebugFuture<RubyVariableInfo[]>> expressions) {
+            this.threadId = threadId;
+            this.frames = frames;
+            this.locals = locals;
+            this.expressions = expressions;
+        }
+
+    }
+
+    private volatile boolean enabled;
+
+    private final List<String> expressions = new CopyOnWriteArrayList<String>();
+
+    /** Pending prefetches by thread id. */
+    private final Map<Integer, Prefetch> prefetches = new ConcurrentHashMap<Integer, Prefetch>();
+
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong used = new AtomicLong();
+
+    SuspensionPrefetcher() {
+    }
+
+    /** Disabled by default. */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            discardAll();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Adds expression to be inspected in the top frame on every suspension. */
+    public void addExpression(final String expression) {
+        expressions.add(expression);
+    }
+
+    public void removeExpression(final String expression) {
+        expressions.remove(expression);
+    }
+
+    public List<String> getExpressions() {
+        return Collections.unmodifiableList(expressions);
+    }
+
+    /** Returns number of reads sent ahead of the clients. */
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+
+    /** Returns number of prefetched reads which were used by the clients. */
+    public long getUsed() {
+        return used.get();
+    }
+
+    void put(final Prefetch prefetch) {
+        prefetched.addAndGet(2 + prefetch.expressions.size());
+        prefetches.put(prefetch.threadId, prefetch);
+    }
+
+    RubyDebugFuture<RubyFrameInfo[]> takeFrames(final int threadId) {
+        Prefetch prefetch = prefetches.get(threadId);
+        if (prefetch == null) {
+            return null;
+        }
+        synchronized (prefetch) {
+            RubyDebugFuture<RubyFrameInfo[]> frames = prefetch.frames;
+            prefetch.frames = null;
+            return counted(frames);
+        }
+    }
+
+    RubyDebugFuture<RubyVariableInfo[]> takeLocals(final int threadId) {
+        Prefetch prefetch = prefetches.get(threadId);
+        if (prefetch == null) {
+            return null;
+        }
+        synchronized (prefetch) {
+            RubyDebugFuture<RubyVariableInfo[]> locals = prefetch.locals;
+            prefetch.locals = null;
+            return counted(locals);
+        }
+    }
+
+    RubyDebugFuture<RubyVariableInfo[]> takeExpression(final int threadId, final String expression) {
+        Prefetch prefetch = prefetches.get(threadId);
+        if (prefetch == null) {
+            return null;
+        }
+        synchronized (prefetch) {
+            return counted(prefetch.expressions.remove(expression));
+        }
+    }
+
+    private <T> RubyDebugFuture<T> counted(final RubyDebugFuture<T> future) {
+        if (future != null) {
+            used.incrementAndGet();
+        }
+        return future;
+    }
+
+    /** Called when the thread is resumed or stepped. */
+    void discard(final int threadId) {
+        prefetches.remove(threadId);
+    }
+
+    void discardAll() {
+        prefetches.clear();
+    }
+
+}
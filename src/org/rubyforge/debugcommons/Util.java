@@ -41,6 +41,27 @@ public final class Util {
     private static final Pattern VERSION_PATTERN = Pattern.compile("(\\d+)\\.(\\d+)\\.(\\d+)(-\\S+)?"); // NOI18N
 
     private static final Logger LOGGER = Logger.getLogger(Util.class.getName());
+
+    /**
+     * Upper bound for waiting until streams are drained and processes exit
+     * during shutdown [ms].
+     */
+    private static volatile long drainTimeout = Long.getLong("org.rubyforge.debugcommons.drainTimeout", 1000);
+    
+    /**
+     * Returns maximal time in milliseconds to wait during session shutdown
+     * for the debuggee's streams to be drained and for the debuggee to exit.
+     * Defaults to 1000, might be set by the
+     * <code>org.rubyforge.debugcommons.drainTimeout</code> system property.
+     */
+    public static long getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    /** @see #getDrainTimeout */
+    public static void setDrainTimeout(final long drainTimeout) {
+        Util.drainTimeout = drainTimeout;
+    }
     
     /**
      * Returns a free port number on localhost, or -1 if unable to find a free
@@ -145,16 +166,39 @@ public final class Util {
                         " You might try to increase the timeout. Killing...\n\n");
             }
             Process process = target.getProcess();
-            info.append(dumpStream(process.getInputStream(), Level.INFO, "Standard Output: ", running));
-            info.append(dumpStream(process.getErrorStream(), Level.SEVERE, "Error Output: ", running));
             if (running) {
+                // streams are closed once the process dies, so the dumping
+                // below finishes as soon as the pipes are drained
                 process.destroy();
             }
+            long deadline = System.currentTimeMillis() + getDrainTimeout();
+            if (target.getOutputPump() != null) {
+                info.append(dumpPump(target.getOutputPump(), Level.INFO, "Standard Output: ", deadline));
+                info.append(dumpPump(target.getErrorPump(), Level.SEVERE, "Error Output: ", deadline));
+            } else {
+                info.append(dumpStream(process.getInputStream(), Level.INFO, "Standard Output: ", running, deadline));
+                info.append(dumpStream(process.getErrorStream(), Level.SEVERE, "Error Output: ", running, deadline));
+            }
         }
         return info.toString();
     }
 
-    private static String dumpStream(final InputStream stream, final Level level, final String msgPrefix, final boolean asynch) {
+    /** Dumps the last output kept by the given pump once it is drained. */
+    private static String dumpPump(final OutputPump pump, final Level level, final String msgPrefix,
+            final long deadline) {
+        try {
+            if (!pump.awaitFinished(Math.max(1, deadline - System.currentTimeMillis()))) {
+                LOGGER.fine("Stream was not drained in " + getDrainTimeout() + "ms: " + msgPrefix);
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.INFO, ex.getLocalizedMessage(), ex);
+            Thread.currentThread().interrupt();
+        }
+        return logOutput(pump.getTail(), level, msgPrefix);
+    }
+
+    private static String dumpStream(final InputStream stream, final Level level, final String msgPrefix,
+            final boolean asynch, final long deadline) {
         final StringBuilder output = new StringBuilder();
         if (asynch) {
             Thread collector = new Thread(new Runnable() {
@@ -162,20 +206,32 @@ public final class Util {
                 public void run() {
                     collect(stream, output);
                 }
-            });
+            }, "Stream collector: " + msgPrefix);
+            collector.setDaemon(true);
             collector.start();
             try {
-                Thread.sleep(1000);
+                collector.join(Math.max(1, deadline - System.currentTimeMillis()));
             } catch (InterruptedException ex) {
                 LOGGER.log(Level.INFO, ex.getLocalizedMessage(), ex);
+                Thread.currentThread().interrupt();
+            }
+            if (collector.isAlive()) {
+                LOGGER.fine("Stream was not drained in " + getDrainTimeout() + "ms: " + msgPrefix);
+                collector.interrupt();
             }
-            collector.interrupt();
         } else {
             collect(stream, output);
         }
-        if (output.length() > 0) {
+        String outputS;
+        synchronized (output) {
+            outputS = output.toString();
+        }
+        return logOutput(outputS, level, msgPrefix);
+    }
+
+    private static String logOutput(final String outputS, final Level level, final String msgPrefix) {
+        if (outputS.length() > 0) {
             LOGGER.log(level, msgPrefix);
-            String outputS = output.toString();
             LOGGER.log(level, outputS);
             return msgPrefix + '\n' + outputS;
         } else {
@@ -185,9 +241,14 @@ public final class Util {
 
     private static void collect(final InputStream stream, final StringBuilder output) {
         try {
-            int c;
-            while ((c = stream.read()) != -1) {
-                output.append((char) c);
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                synchronized (output) {
+                    for (int i = 0; i < read; i++) {
+                        output.append((char) (buffer[i] & 0xFF));
+                    }
+                }
             }
         } catch (IOException e) {
             LOGGER.log(Level.INFO, e.getLocalizedMessage(), e);
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import org.rubyforge.debugcommons.model.RubyVariableInfo;
+
+/**
+ * Session-level cache of instance variables read by <code>v i
+ * &lt;objectId&gt;</code>, keyed by the object id. Unlike the caches in
+ * {@link org.rubyforge.debugcommons.model.RubyValue}, which die with the
+ * frames re-created after every suspension, the entries survive suspensions
+ * as far as the policy allows, so stepping through a loop does not re-read
+ * the same object trees.
+ * <p>
+ * Each entry is stamped with the <em>generation</em> in which it was read.
+ * The generation is advanced whenever the debuggee might have run, i.e. when
+ * it is resumed or stepped and when a suspension is read. Policies:
+ * <ul>
+ * <li><em>invalidate on resume</em> (default): entries of the previous
+ *     generations are stale, only expansions repeated during the same
+ *     suspension are served from the cache;</li>
+ * <li><em>{@link #addImmutableType immutable types}</em>: entries of objects
+ *     of the given types are kept across generations;</li>
+ * <li>with invalidation disabled all entries are kept until evicted, trading
+ *     freshness for round trips;</li>
+ * <li>the cache is bounded by the {@link #setMaxVariables total number of
+ *     cached variables}, least recently used entries are evicted first.</li>
+ * </ul>
+ * Thread-safe.
+ */
+public final class VariableCache {
+
+    private static final class Entry {
+
+        final String type;
+        final RubyVariableInfo[] variables;
+        final long generation;
+
+        Entry(final String type, final RubyVariableInfo[] variables, final long generation) {
+            this.type = type;
+            this.variables = variables;
+            this.generation = generation;
+        }
+
+    }
+
+    /** Entries in access order; guarded by this. */
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final Set<String> immutableTypes;
+
+    private long generation;
+    private int cachedVariables;
+    private int maxVariables = 10000;
+    private boolean invalidateOnResume = true;
+    private boolean enabled = true;
+
+    private long hits;
+    private long misses;
+
+    VariableCache() {
+        this.entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+        this.immutableTypes = new HashSet<String>();
+    }
+
+    /**
+     * Returns cached instance variables of the object with the given id and
+     * type, <code>null</code> if they must be read from the backend.
+     */
+    synchronized RubyVariableInfo[] get(final String objectId, final String type) {
+        Entry entry = enabled && objectId != null ? entries.get(objectId) : null;
+        if (entry != null && !entry.type.equals(type)) {
+            remove(objectId); // object id reused by another object
+            entry = null;
+        }
+        if (entry != null && entry.generation != generation && invalidateOnResume
+                && !immutableTypes.contains(type)) {
+            remove(objectId);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.variables;
+    }
+
+    /**
+     * Caches instance variables of the given object.
+     *
+     * @param readGeneration generation in which the read was requested
+     */
+    synchronized void put(final String objectId, final String type,
+            final RubyVariableInfo[] variables, final long readGeneration) {
+        if (!enabled || objectId == null || variables.length > maxVariables) {
+            return;
+        }
+        remove(objectId);
+        entries.put(objectId, new Entry(type, variables, readGeneration));
+        cachedVariables += variables.length;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (cachedVariables > maxVariables && eldest.hasNext()) {
+            cachedVariables -= eldest.next().variables.length;
+            eldest.remove();
+        }
+    }
+
+    private void remove(final String objectId) {
+        Entry removed = entries.remove(objectId);
+        if (removed != null) {
+            cachedVariables -= removed.variables.length;
+        }
+    }
+
+    /** Starts a new generation; called when the debuggee might have run. */
+    synchronized void nextGeneration() {
+        generation++;
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /** Drops all entries. */
+    public synchronized void clear() {
+        entries.clear();
+        cachedVariables = 0;
+    }
+
+    /**
+     * Whether the cache is used at all. Disabling also drops the current
+     * entries.
+     */
+    public synchronized void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether entries read before the debuggee was resumed are stale. True
+     * by default.
+     */
+    public synchronized void setInvalidateOnResume(final boolean invalidateOnResume) {
+        this.invalidateOnResume = invalidateOnResume;
+    }
+
+    public synchronized boolean isInvalidateOnResume() {
+        return invalidateOnResume;
+    }
+
+    /**
+     * Objects of the given type, e.g. frozen value objects of the debugged
+     * application, are kept across suspensions even if {@link
+     * #setInvalidateOnResume invalidation} is on.
+     */
+    public synchronized void addImmutableType(final String type) {
+        immutableTypes.add(type);
+    }
+
+    public synchronized void removeImmutableType(final String type) {
+        immutableTypes.remove(type);
+    }
+
+    /**
+     * Bounds the total number of cached variables. Least recently used
+     * entries are evicted when the bound is exceeded.
+     */
+    public synchronized void setMaxVariables(final int maxVariables) {
+        this.maxVariables = maxVariables;
+        evict();
+    }
+
+    public synchronized int getMaxVariables() {
+        return maxVariables;
+    }
+
+    /** Returns number of objects with cached instance variables. */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized int getCachedVariables() {
+        return cachedVariables;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+}
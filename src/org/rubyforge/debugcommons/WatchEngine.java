@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.rubyforge.debugcommons.model.RubyFrame;
+import org.rubyforge.debugcommons.model.RubyVariable;
+
+/**
+ * Evaluates registered watch expressions in {@link RubyFrame frames}. All the
+ * expressions not evaluated yet in the frame are sent in one batch, so
+ * evaluation of any number of watches costs a single round trip, and the
+ * results are delivered one by one as the responses arrive.
+ * <p>
+ * Expressions registered more than once, e.g. by several views, are
+ * evaluated only once. Results are reused until the debuggee runs again,
+ * i.e. until the next {@link VariableCache generation}, so re-evaluating the
+ * watches of a frame during the same suspension costs nothing. Results of
+ * top frames are taken from the {@link SuspensionPrefetcher} when available.
+ * <p>
+ * Available through {@link RubyDebuggerProxy#getWatchEngine}. Thread-safe.
+ */
+public final class WatchEngine {
+
+    /**
+     * Notified about results of {@link #evaluate(RubyFrame, Listener)}.
+     * Called in the thread reading the debugger's command socket, so
+     * implementations must not block.
+     */
+    public interface Listener {
+
+        void evaluated(RubyFrame frame, String expression, RubyVariable result);
+
+        void failed(RubyFrame frame, String expression, RubyDebuggerException e);
+
+    }
+
+    private final RubyDebuggerProxy proxy;
+
+    /** Expressions and numbers of their registrations; guarded by this. */
+    private final Map<String, Integer> expressions = new LinkedHashMap<String, Integer>();
+
+    /** Results of the current generation by frame and expression; guarded by this. */
+    private final Map<String, Map<String, RubyDebugFuture<RubyVariable>>> results =
+            new HashMap<String, Map<String, RubyDebugFuture<RubyVariable>>>();
+
+    /** Generation of the {@link #results}; guarded by this. */
+    private long generation = -1;
+
+    private long evaluated;
+    private long reused;
+
+    WatchEngine(final RubyDebuggerProxy proxy) {
+        this.proxy = proxy;
+    }
+
+    /**
+     * Registers expression to be evaluated. Registering the same expression
+     * again only counts the registrations.
+     */
+    public synchronized void addExpression(final String expression) {
+        Integer count = expressions.get(expression);
+        expressions.put(expression, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Unregisters expression. It is not evaluated anymore once all its
+     * registrations are removed.
+     */
+    public synchronized void removeExpression(final String expression) {
+        Integer count = expressions.get(expression);
+        if (count == null) {
+            return;
+        }
+        if (count == 1) {
+            expressions.remove(expression);
+        } else {
+            expressions.put(expression, count - 1);
+        }
+    }
+
+    /** Returns distinct registered expressions in the registration order. */
+    public synchronized List<String> getExpressions() {
+        return Collections.unmodifiableList(new ArrayList<String>(expressions.keySet()));
+    }
+
+    /**
+     * Evaluates all the registered expressions in the given frame.
+     *
+     * @return results by expression, in the registration order; completed
+     *         one by one as the responses arrive
+     */
+    public Map<String, RubyDebugFuture<RubyVariable>> evaluate(final RubyFrame frame) {
+        final Map<String, RubyDebugFuture<RubyVariable>> frameResults;
+        List<String> missing = new ArrayList<String>();
+        Map<String, RubyDebugFuture<RubyVariable>> evaluation = new LinkedHashMap<String, RubyDebugFuture<RubyVariable>>();
+        synchronized (this) {
+            long current = proxy.getVariableCache().getGeneration();
+            if (current != generation) {
+                results.clear();
+                generation = current;
+            }
+            String key = frame.getThread().getId() + ":" + frame.getIndex();
+            Map<String, RubyDebugFuture<RubyVariable>> cached = results.get(key);
+            if (cached == null) {
+                cached = new HashMap<String, RubyDebugFuture<RubyVariable>>();
+                results.put(key, cached);
+            }
+            frameResults = cached;
+            for (String expression : expressions.keySet()) {
+                if (!frameResults.containsKey(expression)) {
+                    missing.add(expression);
+                }
+            }
+            reused += expressions.size() - missing.size();
+            evaluated += missing.size();
+            if (!missing.isEmpty()) {
+                List<RubyDebugFuture<RubyVariable>> inspected = proxy.inspectExpressionsAsync(frame, missing);
+                for (int i = 0; i < missing.size(); i++) {
+                    frameResults.put(missing.get(i), inspected.get(i));
+                }
+            }
+            for (String expression : expressions.keySet()) {
+                evaluation.put(expression, frameResults.get(expression));
+            }
+        }
+        for (final String expression : missing) {
+            final RubyDebugFuture<RubyVariable> result = evaluation.get(expression);
+            result.addListener(new RubyDebugFuture.Listener<RubyVariable>() {
+                public void completed(RubyVariable variable) {
+                }
+
+                public void failed(RubyDebuggerException e) {
+                    forget(frameResults, expression, result);
+                }
+            });
+        }
+        return evaluation;
+    }
+
+    /** Failed evaluations are repeated on the next request. */
+    private synchronized void forget(final Map<String, RubyDebugFuture<RubyVariable>> frameResults,
+            final String expression, final RubyDebugFuture<RubyVariable> result) {
+        if (frameResults.get(expression) == result) {
+            frameResults.remove(expression);
+        }
+    }
+
+    /**
+     * Like {@link #evaluate(RubyFrame)} but passes the results to the given
+     * listener as they arrive.
+     */
+    public void evaluate(final RubyFrame frame, final Listener listener) {
+        for (Map.Entry<String, RubyDebugFuture<RubyVariable>> entry : evaluate(frame).entrySet()) {
+            final String expression = entry.getKey();
+            entry.getValue().addListener(new RubyDebugFuture.Listener<RubyVariable>() {
+                public void completed(RubyVariable result) {
+                    listener.evaluated(frame, expression, result);
+                }
+
+                public void failed(RubyDebuggerException e) {
+                    listener.failed(frame, expression, e);
+                }
+            });
+        }
+    }
+
+    /** Returns number of expressions sent to the backend for evaluation. */
+    public synchronized long getEvaluated() {
+        return evaluated;
+    }
+
+    /** Returns number of results reused within the same generation. */
+    public synchronized long getReused() {
+        return reused;
+    }
+
+}
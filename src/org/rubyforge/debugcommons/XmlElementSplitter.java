@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+/**
+ * Splits incrementally fed characters of the debugger protocol into complete
+ * top-level chunks, i.e. top-level elements with their content or top-level
+ * non-whitespace text (like ruby-debug's <em>PROMPT</em>). Each chunk can then
+ * be parsed by a pull parser as a standalone document without blocking on an
+ * incomplete input.
+ * <p>
+ * Not thread-safe, each connection has its own instance.
+ */
+final class XmlElementSplitter {
+
+    /** Receives complete chunks. */
+    interface ChunkHandler {
+
+        void chunk(String chunk);
+
+    }
+
+    private static final int TEXT = 0;
+    private static final int TAG_START = 1;
+    private static final int IN_TAG = 2;
+    private static final int IN_END_TAG = 3;
+    private static final int IN_SPECIAL = 4;
+
+    private final StringBuilder chunk;
+
+    private int state = TEXT;
+    private int depth;
+    private char quote;
+    private char previous;
+
+    /** Terminator of the special construct (comment, PI, CDATA, DOCTYPE). */
+    private String specialEnd;
+
+    XmlElementSplitter() {
+        this.chunk = new StringBuilder(256);
+    }
+
+    void feed(final char[] buffer, final int offset, final int length, final ChunkHandler handler) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            char c = buffer[i];
+            switch (state) {
+            case TEXT:
+                if (c == '<') {
+                    if (depth == 0) {
+                        flushText(handler);
+                    }
+                    state = TAG_START;
+                }
+                break;
+            case TAG_START:
+                if (c == '/') {
+                    state = IN_END_TAG;
+                } else if (c == '?') {
+                    state = IN_SPECIAL;
+                    specialEnd = "?>";
+                } else if (c == '!') {
+                    state = IN_SPECIAL;
+                    specialEnd = null; // decided by the following characters
+                } else {
+                    state = IN_TAG;
+                }
+                break;
+            case IN_TAG:
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    state = TEXT;
+                    if (previous != '/') {
+                        depth++;
+                    } else if (depth == 0) {
+                        chunk.append(c);
+                        emit(handler);
+                        previous = c;
+                        continue;
+                    }
+                }
+                break;
+            case IN_END_TAG:
+                if (c == '>') {
+                    state = TEXT;
+                    depth--;
+                    if (depth <= 0) {
+                        depth = 0;
+                        chunk.append(c);
+                        emit(handler);
+                        previous = c;
+                        continue;
+                    }
+                }
+                break;
+            case IN_SPECIAL:
+                chunk.append(c);
+                previous = c;
+                if (specialEnd == null) {
+                    specialEnd = guessSpecialEnd();
+                } else if (endsWith(specialEnd)) {
+                    state = TEXT;
+                    specialEnd = null;
+                    if (depth == 0) {
+                        // prolog, comments, etc. outside of elements are not interesting
+                        chunk.setLength(0);
+                    }
+                }
+                continue;
+            default:
+                throw new IllegalStateException("Unknown state: " + state);
+            }
+            chunk.append(c);
+            previous = c;
+        }
+    }
+
+    private String guessSpecialEnd() {
+        // chunk ends with "<!" followed by the characters read so far
+        int start = chunk.lastIndexOf("<!");
+        String construct = chunk.substring(start + 2);
+        if (construct.startsWith("--")) {
+            return "-->";
+        } else if (construct.startsWith("[CDATA[")) {
+            return "]]>";
+        } else if (construct.length() >= 7 || (!"--".startsWith(construct) && !"[CDATA[".startsWith(construct))) {
+            return ">"; // <!DOCTYPE ...>
+        }
+        return null;
+    }
+
+    private boolean endsWith(final String suffix) {
+        int length = chunk.length();
+        if (length < suffix.length()) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (chunk.charAt(length - suffix.length() + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void flushText(final ChunkHandler handler) {
+        for (int i = 0; i < chunk.length(); i++) {
+            if (!Character.isWhitespace(chunk.charAt(i))) {
+                emit(handler);
+                return;
+            }
+        }
+        chunk.setLength(0);
+    }
+
+    private void emit(final ChunkHandler handler) {
+        String complete = chunk.toString();
+        chunk.setLength(0);
+        handler.chunk(complete);
+    }
+
+}
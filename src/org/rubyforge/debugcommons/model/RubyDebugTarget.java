@@ -23,15 +23,28 @@
 package org.rubyforge.debugcommons.model;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.rubyforge.debugcommons.OutputPump;
+import org.rubyforge.debugcommons.RubyDebugFuture;
 import org.rubyforge.debugcommons.RubyDebuggerException;
 import org.rubyforge.debugcommons.RubyDebuggerProxy;
-import org.rubyforge.debugcommons.Util;
 
 public final class RubyDebugTarget extends RubyEntity {
     
     private static final Logger LOGGER = Logger.getLogger(RubyDebugTarget.class.getName());
 
+    /**
+     * Threads are not re-listed more than once in this window [ms]. Unknown
+     * threads suspended within the window are created without re-listing.
+     */
+    private static final long THREADS_REFRESH_WINDOW = 50;
+
     private final Process process;
     private final String host;
     private final int port;
@@ -39,7 +52,28 @@ public final class RubyDebugTarget extends RubyEntity {
     private final File baseDir;
     private final boolean remote;
     
+    /** Known threads sorted by their IDs; guarded by this. */
     private RubyThread[] threads;
+
+    /** Re-listing of threads in progress; guarded by this. */
+    private RubyDebugFuture<RubyThreadInfo[]> threadsRefresh;
+
+    /** When the threads were re-listed the last time; guarded by this. */
+    private long lastThreadsRefresh;
+
+    /**
+     * Whether some threads were learnt from suspensions without being
+     * re-listed, so dead threads might not have been pruned; guarded by this.
+     */
+    private boolean threadsStale;
+
+    private volatile OutputPump outputPump;
+    private volatile OutputPump errorPump;
+
+    /** Set by the exit watcher once the process has exited. */
+    private volatile boolean exited;
+
+    private final List<Runnable> exitListeners;
     
     public RubyDebugTarget(RubyDebuggerProxy proxy, String host, int port) {
         this(proxy, host, port, null, null, null, true);
@@ -60,11 +94,130 @@ public final class RubyDebugTarget extends RubyEntity {
         this.baseDir = baseDir;
         this.threads = new RubyThread[0];
         this.remote = remote;
+        this.exitListeners = new CopyOnWriteArrayList<Runnable>();
+        if (process != null) {
+            startExitWatcher();
+        }
+    }
+
+    /**
+     * Starts thread waiting for the process to exit, so that {@link
+     * #isRunning} is a plain field read instead of asking the process.
+     */
+    private void startExitWatcher() {
+        Thread watcher = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        process.waitFor();
+                        break;
+                    } catch (InterruptedException e) {
+                        LOGGER.log(Level.FINE, "Exit watcher interrupted, waiting again", e);
+                    }
+                }
+                LOGGER.fine("Debuggee process has exited: " + RubyDebugTarget.this);
+                exited = true;
+                for (Runnable listener : exitListeners) {
+                    if (exitListeners.remove(listener)) { // not run by addExitListener meanwhile
+                        listener.run();
+                    }
+                }
+            }
+        }, "Exit watcher: " + debuggedFile);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Adds listener to be run once the process exits. Run immediately in the
+     * calling thread if the process has already exited, otherwise in the
+     * thread watching the process, so the listener must not block.
+     */
+    public void addExitListener(final Runnable listener) {
+        assert !isRemote() : "cannot watch remote process";
+        exitListeners.add(listener);
+        if (exited && exitListeners.remove(listener)) {
+            listener.run();
+        }
+    }
+
+    public void removeExitListener(final Runnable listener) {
+        exitListeners.remove(listener);
+    }
+
+    /**
+     * Waits until the process exits, at most the given time. Notified by the
+     * exit watcher, no polling.
+     *
+     * @return whether the process has exited
+     */
+    public boolean waitForExit(final long timeout) throws InterruptedException {
+        assert !isRemote() : "cannot wait for remote process";
+        final CountDownLatch exit = new CountDownLatch(1);
+        Runnable listener = new Runnable() {
+            public void run() {
+                exit.countDown();
+            }
+        };
+        addExitListener(listener);
+        try {
+            return exit.await(timeout, TimeUnit.MILLISECONDS);
+        } finally {
+            removeExitListener(listener);
+        }
     }
     public Process getProcess() {
         return process;
     }
 
+    /**
+     * Starts draining the process' standard and error output. Given listeners
+     * are registered before the reading starts so they do not miss any
+     * output. Must not be called more than once and clients must not read the
+     * process' output streams themselves then.
+     *
+     * @param tailCapacity number of the last bytes kept for each stream
+     * @param outputListener listener of the standard output; might be
+     *        <code>null</code>
+     * @param errorListener listener of the error output; might be
+     *        <code>null</code>
+     */
+    public synchronized void startOutputPumps(final int tailCapacity,
+            final OutputPump.Listener outputListener, final OutputPump.Listener errorListener) {
+        assert !isRemote() : "cannot pump output of remote process";
+        if (outputPump != null) {
+            throw new IllegalStateException("Output of " + this + " is already pumped");
+        }
+        OutputPump output = new OutputPump(process.getInputStream(), "stdout of " + debuggedFile, tailCapacity);
+        OutputPump error = new OutputPump(process.getErrorStream(), "stderr of " + debuggedFile, tailCapacity);
+        if (outputListener != null) {
+            output.addListener(outputListener);
+        }
+        if (errorListener != null) {
+            error.addListener(errorListener);
+        }
+        output.start();
+        error.start();
+        this.outputPump = output;
+        this.errorPump = error;
+    }
+
+    /**
+     * Returns pump of the process' standard output or <code>null</code> if
+     * the output is not {@link #startOutputPumps pumped}.
+     */
+    public OutputPump getOutputPump() {
+        return outputPump;
+    }
+
+    /**
+     * Returns pump of the process' error output or <code>null</code> if the
+     * output is not {@link #startOutputPumps pumped}.
+     */
+    public OutputPump getErrorPump() {
+        return errorPump;
+    }
+
     public String getHost() {
         return host;
     }
@@ -81,46 +234,153 @@ public final class RubyDebugTarget extends RubyEntity {
         return baseDir;
     }
 
-    private void updateThreads() throws RubyDebuggerException {
-        // preconditions:
-        // 1) both threadInfos and updatedThreads are sorted by their id attribute
-        // 2) once a thread has died its id is never reused for new threads again.
-        //    Instead each new thread gets an id which is the currently highest id + 1.
-        LOGGER.fine("udpating threads");
-        RubyThreadInfo[] threadInfos = getProxy().readThreadInfo();
-        RubyThread[] updatedThreads = new RubyThread[threadInfos.length];
-        int threadIndex = 0;
+    /**
+     * Re-lists threads from the backend. Concurrent callers share one
+     * request. Unless <code>force</code> is set, nothing is done when the
+     * threads were re-listed within the {@link #THREADS_REFRESH_WINDOW}.
+     */
+    private void updateThreads(final boolean force) throws RubyDebuggerException {
+        RubyDebugFuture<RubyThreadInfo[]> refresh;
+        boolean owner = false;
+        RubyThread[] listed = null;
         synchronized (this) {
-            for (int i = 0; i < threadInfos.length; i++) {
-                while (threadIndex < threads.length && threadInfos[i].getId() != threads[threadIndex].getId()) {
-                    // step over dead threads, which do not occur in threadInfos anymore
-                    threadIndex += 1;
+            if (threadsRefresh == null) {
+                if (!force && System.currentTimeMillis() - lastThreadsRefresh < THREADS_REFRESH_WINDOW) {
+                    return;
                 }
-                if (threadIndex == threads.length) {
-                    updatedThreads[i] = new RubyThread(this, threadInfos[i].getId());
-                } else {
-                    updatedThreads[i] = threads[threadIndex];
+                LOGGER.fine("udpating threads");
+                listed = threads;
+                threadsRefresh = getProxy().readThreadInfoAsync();
+                owner = true;
+            }
+            refresh = threadsRefresh;
+        }
+        RubyThreadInfo[] threadInfos = null;
+        try {
+            threadInfos = refresh.await();
+        } finally {
+            if (owner) {
+                synchronized (this) {
+                    threadsRefresh = null;
+                    lastThreadsRefresh = System.currentTimeMillis();
+                    if (threadInfos != null) {
+                        // before the next refresh might start
+                        mergeThreads(threadInfos, listed);
+                    }
                 }
             }
-            threads = updatedThreads;
         }
     }
-    
-    public void suspensionOccurred(SuspensionPoint suspensionPoint) {
-        try {
-            updateThreads();
-        } catch (RubyDebuggerException e) {
-            if (!getProxy().isReady()) {
-                throw new RuntimeException("Cannot update threads. Proxy is not ready.", e);
-            } else {
-                LOGGER.fine("Session has finished. Ignoring unsuccessful thread update.");
-                return;
+
+    /**
+     * Merges the re-listed threads into the known ones. Package-private for
+     * benchmarks.
+     *
+     * @param threadInfos threads listed by the backend, sorted by their IDs
+     * @param listed threads known when the listing was requested, sorted by
+     *        their IDs; only those might be dropped, threads learnt from
+     *        suspensions while the listing was in flight are kept
+     */
+    synchronized void mergeThreads(final RubyThreadInfo[] threadInfos, final RubyThread[] listed) {
+        // preconditions:
+        // 1) threadInfos, threads and listed are sorted by their id attribute
+        // 2) once a thread has died its id is never reused for new threads again.
+        //    Instead each new thread gets an id which is the currently highest id + 1.
+        List<RubyThread> updatedThreads = new ArrayList<RubyThread>(threadInfos.length);
+        boolean stale = false;
+        int infoIndex = 0;
+        int listedIndex = 0;
+        for (RubyThread thread : threads) {
+            int id = thread.getId();
+            while (infoIndex < threadInfos.length && threadInfos[infoIndex].getId() < id) {
+                // listed, but not known yet
+                updatedThreads.add(new RubyThread(this, threadInfos[infoIndex++].getId()));
+            }
+            while (listedIndex < listed.length && listed[listedIndex].getId() < id) {
+                listedIndex++;
+            }
+            if (infoIndex < threadInfos.length && threadInfos[infoIndex].getId() == id) {
+                infoIndex++;
+                updatedThreads.add(thread);
+            } else if (listedIndex == listed.length || listed[listedIndex] != thread) {
+                // learnt while the listing was in flight, keep until the next one
+                updatedThreads.add(thread);
+                stale = true;
             }
+            // else dead thread, which does not occur in threadInfos anymore
         }
-        RubyThread thread = getThreadById(suspensionPoint.getThreadId());
-        if (thread == null) {
-            LOGGER.warning("Thread with id " + suspensionPoint.getThreadId() + " was not found");
-            return;
+        while (infoIndex < threadInfos.length) {
+            updatedThreads.add(new RubyThread(this, threadInfos[infoIndex++].getId()));
+        }
+        threads = updatedThreads.toArray(new RubyThread[updatedThreads.size()]);
+        threadsStale = stale;
+    }
+
+    /**
+     * Returns thread with the given ID, creating it if it is not known yet.
+     */
+    private synchronized RubyThread getOrCreateThread(final int id) {
+        int index = 0;
+        while (index < threads.length && threads[index].getId() < id) {
+            index++;
+        }
+        if (index < threads.length && threads[index].getId() == id) {
+            return threads[index];
+        }
+        RubyThread thread = new RubyThread(this, id);
+        RubyThread[] updatedThreads = new RubyThread[threads.length + 1];
+        System.arraycopy(threads, 0, updatedThreads, 0, index);
+        updatedThreads[index] = thread;
+        System.arraycopy(threads, index, updatedThreads, index + 1, threads.length - index);
+        threads = updatedThreads;
+        threadsStale = true;
+        return thread;
+    }
+
+    /**
+     * Re-lists threads from the backend, dropping the dead ones.
+     *
+     * @return currently known threads
+     */
+    public RubyThread[] refreshThreads() throws RubyDebuggerException {
+        updateThreads(true);
+        return getThreads();
+    }
+
+    /**
+     * Returns threads known so far without asking the backend. Threads are
+     * learnt from suspensions and from {@link #refreshThreads re-listing}.
+     */
+    public synchronized RubyThread[] getThreads() {
+        return threads.clone();
+    }
+
+    /**
+     * Called when a thread was suspended. The threads are re-listed when the
+     * suspended thread is not known yet, or when threads learnt from earlier
+     * suspensions were not re-listed yet, so that dead threads are pruned.
+     * Re-listing is coalesced, see {@link #THREADS_REFRESH_WINDOW}.
+     */
+    public void suspensionOccurred(SuspensionPoint suspensionPoint) {
+        int id = suspensionPoint.getThreadId();
+        RubyThread thread = getThreadById(id);
+        boolean stale;
+        synchronized (this) {
+            stale = threadsStale;
+        }
+        if (thread == null || stale) {
+            try {
+                updateThreads(false);
+            } catch (RubyDebuggerException e) {
+                if (!getProxy().isReady()) {
+                    throw new RuntimeException("Cannot update threads. Proxy is not ready.", e);
+                } else {
+                    LOGGER.fine("Ignoring unsuccessful thread update: " + e.getMessage());
+                }
+            }
+            if (thread == null) {
+                thread = getOrCreateThread(id);
+            }
         }
         thread.suspend(suspensionPoint);
     }
@@ -155,11 +415,12 @@ public final class RubyDebugTarget extends RubyEntity {
 
     /**
      * Return the underlying process is running. Usable only for non-remote
-     * processes.
+     * processes. Cheap, the state is tracked by a thread waiting for the
+     * process to exit.
      */
     public boolean isRunning() {
         assert !isRemote() : "cannot ask remote process whether it is running";
-        return Util.isRunning(process);
+        return !exited;
     }
 
     @Override
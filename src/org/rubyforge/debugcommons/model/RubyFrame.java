@@ -22,19 +22,29 @@
 
 package org.rubyforge.debugcommons.model;
 
+import java.util.Set;
 import org.rubyforge.debugcommons.RubyDebuggerException;
 
 public final class RubyFrame extends RubyEntity {
     
     private final RubyFrameInfo info;
     private final RubyThread thread;
+    private final int depth;
     
     private RubyVariable[] variables;
     
     public RubyFrame(RubyThread thread, RubyFrameInfo info) {
+        this(thread, info, -1);
+    }
+    
+    /**
+     * @param depth number of frames below this one, see {@link #getDepth}
+     */
+    public RubyFrame(RubyThread thread, RubyFrameInfo info, int depth) {
         super(thread.getProxy());
         this.info = info;
         this.thread = thread;
+        this.depth = depth;
     }
     
     public String getFile() {
@@ -49,23 +59,61 @@ public final class RubyFrame extends RubyEntity {
         return info.getIndex();
     }
     
+    /**
+     * Returns number of frames below this one. Unlike the {@link #getIndex
+     * index} it does not change while the frame is on the stack. -1 if
+     * unknown, then changes of its variables are not tracked.
+     */
+    public int getDepth() {
+        return depth;
+    }
+    
     public RubyThread getThread() {
         return thread;
     }
     
     public RubyVariable[] getVariables() throws RubyDebuggerException {
         if (variables == null) {
-            variables = getProxy().readVariables(this);
+            variables = recordValues(getProxy().readVariables(this));
         }
         return variables;
     }
 
+    /**
+     * Records values of the given variables read in this frame, so that
+     * their changes are tracked. Only the first read in a suspension counts.
+     */
+    RubyVariable[] recordValues(final RubyVariable[] read) {
+        if (depth >= 0) {
+            ValueFingerprints fingerprints = thread.getValueFingerprints();
+            for (RubyVariable variable : read) {
+                fingerprints.record(depth, variable.getQualifiedName(), variable.getRawValue());
+            }
+        }
+        return read;
+    }
+
     public void clearCachedVariables() {
         variables = null;
     }
     
+    /**
+     * Returns qualified names of the variables of this frame, including
+     * expanded instance variables and inspected expressions, read during the
+     * current suspension whose values differ from the previous suspension.
+     *
+     * @see RubyVariable#hasValueChanged
+     */
+    public Set<String> getChangedVariables() {
+        return thread.getValueFingerprints().getChanged(depth);
+    }
+    
     public RubyVariable inspectExpression(final String expression) throws RubyDebuggerException {
-        return getProxy().inspectExpression(this, expression);
+        RubyVariable result = getProxy().inspectExpression(this, expression);
+        if (result != null) {
+            recordValues(new RubyVariable[] { result });
+        }
+        return result;
     }
     
     public boolean hasVariables() throws RubyDebuggerException {
@@ -36,6 +36,8 @@ public final class RubyThread extends RubyEntity {
     
     private boolean isSuspended;
     
+    private final ValueFingerprints valueFingerprints = new ValueFingerprints();
+    
     /** Used by {@link #runTo} method. */
     private IRubyLineBreakpoint temporaryBreakpoint;
     
@@ -49,6 +51,7 @@ public final class RubyThread extends RubyEntity {
         if (frames == null) {
             if (isSuspended()) {
                 frames = getProxy().readFrames(this);
+                valueFingerprints.retainDepths(frames.length);
             } else {
                 frames = new RubyFrame[] {};
             }
@@ -97,6 +100,7 @@ public final class RubyThread extends RubyEntity {
         }
         frames = null;
         isSuspended = true;
+        valueFingerprints.nextGeneration();
         this.updateName(suspensionPoint);
         RubyDebugEvent ev = new RubyDebugEvent(this, suspensionPoint);
         getProxy().fireDebugEvent(ev);
@@ -176,4 +180,8 @@ public final class RubyThread extends RubyEntity {
         return id;
     }
     
+    ValueFingerprints getValueFingerprints() {
+        return valueFingerprints;
+    }
+    
 }
@@ -31,6 +31,7 @@ public class RubyValue extends RubyEntity {
     private boolean hasChildren;
     private RubyVariable owner;
     private RubyVariable[] variables;
+    private int variablesCount = -1;
     
     public RubyValue(RubyVariable owner, String value, String type, boolean hasChildren) {
         super(owner.getProxy());
@@ -64,11 +65,53 @@ public class RubyValue extends RubyEntity {
             return new RubyVariable[0];
         }
         if (variables == null) {
-            variables = getProxy().readInstanceVariables(owner);
+            variables = recordValues(getProxy().readInstanceVariables(owner));
         }
         return variables;
     }
     
+    /**
+     * Returns at most <code>limit</code> {@link #getVariables variables}
+     * starting at <code>offset</code>. Meant for huge collections: pages of
+     * Arrays and Hashes are sliced by the debuggee, so only the shown
+     * children are read and created. Children already read by
+     * {@link #getVariables()} are sliced locally.
+     */
+    public RubyVariable[] getVariables(final int offset, final int limit) throws RubyDebuggerException {
+        if (!hasChildren) {
+            return new RubyVariable[0];
+        }
+        if (variables != null) {
+            int from = Math.min(Math.max(0, offset), variables.length);
+            RubyVariable[] page = new RubyVariable[Math.min(variables.length - from, Math.max(0, limit))];
+            System.arraycopy(variables, from, page, 0, page.length);
+            return page;
+        }
+        return recordValues(getProxy().readInstanceVariables(owner, offset, limit));
+    }
+    
+    private RubyVariable[] recordValues(final RubyVariable[] read) {
+        RubyFrame frame = owner.getFrame();
+        return frame == null ? read : frame.recordValues(read);
+    }
+    
+    /**
+     * Returns the number of {@link #getVariables variables}, e.g. the size
+     * of an Array, without reading them.
+     */
+    public int getVariablesCount() throws RubyDebuggerException {
+        if (!hasChildren) {
+            return 0;
+        }
+        if (variables != null) {
+            return variables.length;
+        }
+        if (variablesCount == -1) {
+            variablesCount = getProxy().readInstanceVariablesCount(owner);
+        }
+        return variablesCount;
+    }
+    
     public boolean hasVariables() {
         return hasChildren;
     }
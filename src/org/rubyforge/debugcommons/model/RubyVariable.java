@@ -26,28 +26,66 @@ import org.rubyforge.debugcommons.RubyDebuggerProxy;
 
 public final class RubyVariable extends RubyEntity {
     
+    /** Kind of the variable as reported by the backend. */
+    public enum Kind {
+        
+        LOCAL("local"), INSTANCE("instance"), CLASS("class"),
+        CONSTANT("constant"), GLOBAL("global"), OTHER(null);
+        
+        private static final Kind[] VALUES = values();
+        
+        private final String name;
+        
+        private Kind(final String name) {
+            this.name = name;
+        }
+        
+        static Kind of(final String name) {
+            for (Kind kind : VALUES) {
+                // kinds are usually pooled by the readers
+                if (kind.name == name) {
+                    return kind;
+                }
+            }
+            for (Kind kind : VALUES) {
+                if (kind.name != null && kind.name.equals(name)) {
+                    return kind;
+                }
+            }
+            return OTHER;
+        }
+        
+    }
+    
+    /** Bits of {@link #flags} holding ordinal of the {@link Kind}. */
+    private static final int KIND_MASK = 0x7;
+    
+    /** Set when the parent is a Hash. */
+    private static final int HASH_VALUE = 0x8;
+    
     private final RubyVariableInfo info;
     private final RubyFrame frame;
-    
-    private final boolean isClass;
-    private final boolean isLocal;
-    private final boolean isInstance;
-    private final boolean isConstant;
-    private final boolean isGlobal;
-    private final RubyValue value;
     private final RubyVariable parent;
     
+    /** Kind and {@link #HASH_VALUE}. */
+    private final byte flags;
+    
+    /** Created on the first {@link #getValue}. */
+    private volatile RubyValue value;
+    
+    /** Memoized {@link #getQualifiedName}. */
+    private String qualifiedName;
+    
     private RubyVariable(RubyDebuggerProxy proxy, RubyVariableInfo info, RubyFrame frame, RubyVariable parent) {
         super(proxy);
         this.info = info;
-        this.isClass = info.getKind().equals("class");
-        this.isLocal = info.getKind().equals("local");
-        this.isInstance = info.getKind().equals("instance");
-        this.isConstant = info.getKind().equals("constant");
-        this.isGlobal = info.getKind().equals("global");
-        this.value = new RubyValue(this, info.getValue(), info.getType(), info.hasChildren());
+        int _flags = Kind.of(info.getKind()).ordinal();
+        if (parent != null && parent.info.getType().equals("Hash")) {
+            _flags |= HASH_VALUE;
+        }
         this.frame = frame;
         this.parent = parent;
+        this.flags = (byte) _flags;
     }
     
     /**
@@ -79,15 +117,39 @@ public final class RubyVariable extends RubyEntity {
     }
     
     public RubyValue getValue() {
-        return value;
+        RubyValue _value = value;
+        if (_value == null) {
+            synchronized (this) {
+                _value = value;
+                if (_value == null) {
+                    _value = new RubyValue(this, info.getValue(), info.getType(), info.hasChildren());
+                    value = _value;
+                }
+            }
+        }
+        return _value;
+    }
+    
+    /** Value as read, without creating the {@link #getValue RubyValue}. */
+    String getRawValue() {
+        return info.getValue();
     }
     
     public String getReferenceTypeName() {
         return "RefTypeName";
     }
     
+    /**
+     * Whether the value read in the current suspension of the thread differs
+     * from the one read in the previous suspension. Values are recorded when
+     * the frame's variables, children or expressions are read. Always
+     * <code>false</code> for variables without a frame.
+     *
+     * @see RubyFrame#getChangedVariables
+     */
     public boolean hasValueChanged() {
-        return false;
+        return frame != null && frame.getDepth() >= 0
+                && frame.getThread().getValueFingerprints().isChanged(frame.getDepth(), getQualifiedName());
     }
     
     public RubyFrame getFrame() {
@@ -99,11 +161,20 @@ public final class RubyVariable extends RubyEntity {
     }
     
     public String getQualifiedName() {
+        String name = qualifiedName;
+        if (name == null) {
+            name = computeQualifiedName(isHashValue());
+            qualifiedName = name;
+        }
+        return name;
+    }
+    
+    private String computeQualifiedName(final boolean hashValue) {
         if (parent == null) {
             return this.getName();
         }
-        if (this.isHashValue()) {
-            if (this.getValue().getReferenceTypeName().equals("String")) {
+        if (hashValue) {
+            if (info.getType().equals("String")) {
                 return parent.getQualifiedName() + "[" + this.getName() + "]";
             }
             return "[ObjectSpace._id2ref(" + this.getObjectId() + ")]";
@@ -114,28 +185,32 @@ public final class RubyVariable extends RubyEntity {
         return parent.getQualifiedName() + "." + this.getName();
     }
     
+    public Kind getKind() {
+        return Kind.VALUES[flags & KIND_MASK];
+    }
+    
     public boolean isInstance() {
-        return isInstance;
+        return getKind() == Kind.INSTANCE;
     }
     
     public boolean isLocal() {
-        return isLocal;
+        return getKind() == Kind.LOCAL;
     }
     
     public boolean isClass() {
-        return isClass;
+        return getKind() == Kind.CLASS;
     }
     
     public boolean isConstant() {
-        return isConstant;
+        return getKind() == Kind.CONSTANT;
     }
     
     public boolean isGlobal() {
-        return isGlobal;
+        return getKind() == Kind.GLOBAL;
     }
     
     public boolean isHashValue() {
-        return parent != null && parent.getValue().getReferenceTypeName().equals("Hash");
+        return (flags & HASH_VALUE) != 0;
     }
     
     private boolean isNil() {
@@ -29,6 +29,9 @@ public abstract class SuspensionPoint {
     private String file;
     private int line;
     private int threadId = -1;
+
+    /** {@link System#nanoTime} of creation, i.e. of reading from the backend. */
+    private final long readTime = System.nanoTime();
     
     public SuspensionPoint() {}
     
@@ -70,6 +73,14 @@ public abstract class SuspensionPoint {
     public int getThreadId() {
         return threadId;
     }
+
+    /**
+     * Returns {@link System#nanoTime} of when this suspension point was read
+     * from the backend.
+     */
+    public long getReadTime() {
+        return readTime;
+    }
     
     private static final class EndSuspensionPoint extends SuspensionPoint {
         
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fingerprints of values of the variables read in one {@link RubyThread},
+ * telling whether a value changed since the previous suspension of the
+ * thread without keeping the values themselves. A fingerprint is the hash
+ * code and the length of the value.
+ * <p>
+ * Variables are keyed by their {@link RubyVariable#getQualifiedName
+ * qualified names} per {@link RubyFrame#getDepth depth} of their frame. Each
+ * depth keeps at most {@link #MAX_PER_DEPTH} least recently read variables.
+ * Thread-safe.
+ */
+final class ValueFingerprints {
+
+    static final int MAX_PER_DEPTH = 1000;
+
+    private static final class Fingerprint {
+
+        long fingerprint;
+        boolean changed;
+        int generation;
+
+        Fingerprint(final long fingerprint, final int generation) {
+            this.fingerprint = fingerprint;
+            this.generation = generation;
+        }
+
+    }
+
+    /** Entries by frame depth; guarded by this. */
+    private final Map<Integer, Map<String, Fingerprint>> depths = new HashMap<Integer, Map<String, Fingerprint>>();
+
+    /** Incremented on every suspension of the thread; guarded by this. */
+    private int generation;
+
+    static long fingerprint(final String value) {
+        return value == null ? 0 : ((long) value.hashCode() << 32) | value.length();
+    }
+
+    /** Called when the thread is suspended. */
+    synchronized void nextGeneration() {
+        generation++;
+    }
+
+    /**
+     * Records value of the given variable read in the current suspension.
+     * Only the first value read in a suspension is recorded.
+     *
+     * @return whether the value differs from the one read in the last
+     *         suspension in which the variable was read
+     */
+    synchronized boolean record(final int depth, final String qualifiedName, final String value) {
+        Map<String, Fingerprint> entries = depths.get(depth);
+        if (entries == null) {
+            entries = new LinkedHashMap<String, Fingerprint>(16, 0.75f, true) {
+                protected @Override boolean removeEldestEntry(final Map.Entry<String, Fingerprint> eldest) {
+                    return size() > MAX_PER_DEPTH;
+                }
+            };
+            depths.put(depth, entries);
+        }
+        long fingerprint = fingerprint(value);
+        Fingerprint entry = entries.get(qualifiedName);
+        if (entry == null) {
+            entries.put(qualifiedName, new Fingerprint(fingerprint, generation));
+            return false;
+        }
+        if (entry.generation == generation) {
+            return entry.changed;
+        }
+        entry.changed = entry.fingerprint != fingerprint;
+        entry.fingerprint = fingerprint;
+        entry.generation = generation;
+        return entry.changed;
+    }
+
+    /**
+     * Whether the value of the given variable recorded in the current
+     * suspension differs from the previous one.
+     */
+    synchronized boolean isChanged(final int depth, final String qualifiedName) {
+        Map<String, Fingerprint> entries = depths.get(depth);
+        Fingerprint entry = entries == null ? null : entries.get(qualifiedName);
+        return entry != null && entry.generation == generation && entry.changed;
+    }
+
+    /**
+     * Returns qualified names of the variables of the frame at the given
+     * depth read in the current suspension whose values changed.
+     */
+    synchronized Set<String> getChanged(final int depth) {
+        Map<String, Fingerprint> entries = depths.get(depth);
+        if (entries == null) {
+            return Collections.emptySet();
+        }
+        Set<String> changed = new HashSet<String>();
+        for (Map.Entry<String, Fingerprint> entry : entries.entrySet()) {
+            Fingerprint e = entry.getValue();
+            if (e.generation == generation && e.changed) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /** Forgets frames which were returned from. */
+    synchronized void retainDepths(final int frameCount) {
+        for (Iterator<Integer> it = depths.keySet().iterator(); it.hasNext();) {
+            if (it.next() >= frameCount) {
+                it.remove();
+            }
+        }
+    }
+
+}
@@ -38,6 +38,10 @@ public final class FramesReader extends XmlStreamReader {
         super(xpp);
     }
 
+    public FramesReader(XmlPullParser xpp, StringPool stringPool) {
+        super(xpp, stringPool);
+    }
+
     private void parse() throws XmlPullParserException, IOException {
         List<RubyFrameInfo> _frames = new ArrayList<RubyFrameInfo>();
         assert xpp.getName().equals("frames");
@@ -53,7 +57,7 @@ public final class FramesReader extends XmlStreamReader {
                 break;
             }
             assert xpp.getName().equals("frame") : xpp.getName() + " encountered";
-            String file = getAttributeValue("file");
+            String file = getPooledAttributeValue("file");
             int line = getAttributeIntValue("line");
             int index = getAttributeIntValue("no");
             _frames.add(new RubyFrameInfo(file, line, index));
@@ -64,7 +68,16 @@ public final class FramesReader extends XmlStreamReader {
 
     public static RubyFrameInfo[] readFrames(final XmlPullParser xpp)
             throws IOException, XmlPullParserException {
-        FramesReader reader = new FramesReader(xpp);
+        return readFrames(xpp, null);
+    }
+
+    /**
+     * @param stringPool deduplicates file paths of the frames; might be
+     *        <code>null</code>
+     */
+    public static RubyFrameInfo[] readFrames(final XmlPullParser xpp, final StringPool stringPool)
+            throws IOException, XmlPullParserException {
+        FramesReader reader = new FramesReader(xpp, stringPool);
         reader.parse();
         return reader.frames;
     }
@@ -0,0 +1,787 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons.reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * {@link XmlPullParser} specialised for the debugger protocol. The protocol
+ * is a stream of small, flat elements without namespaces, DTDs or mixed
+ * content, so the parser supports just that. Compared to generic parsers it
+ * avoids most of allocations: known element and attribute names are shared
+ * constants, attribute values are kept in a reused buffer and converted to
+ * strings only when asked for and numeric attributes might be {@link
+ * #getAttributeIntValue parsed} directly from the buffer.
+ * <p>
+ * Reported events are the same as the ones reported by kXML for the
+ * protocol, e.g. whitespace outside of elements is skipped, an empty element
+ * is reported as a start and end tag.
+ */
+public final class ProtocolParser implements XmlPullParser {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Element and attribute names used by the protocol, indexed by length. */
+    private static final String[][] KNOWN_NAMES;
+
+    static {
+        String[] names = {
+            "breakpoint", "breakpointAdded", "breakpointDeleted", "breakpointEnabled",
+            "breakpointDisabled", "catchpointSet", "conditionSet", "suspended",
+            "exception", "threads", "thread", "frames", "frame", "variables",
+            "variable", "processingException", "message", "error",
+            "no", "id", "status", "file", "line", "threadId", "name", "kind",
+            "value", "type", "hasChildren", "objectId", "debug", "location"
+        };
+        int maxLength = 0;
+        for (String name : names) {
+            maxLength = Math.max(maxLength, name.length());
+        }
+        int[] counts = new int[maxLength + 1];
+        for (String name : names) {
+            counts[name.length()]++;
+        }
+        KNOWN_NAMES = new String[maxLength + 1][];
+        for (int i = 0; i <= maxLength; i++) {
+            KNOWN_NAMES[i] = new String[counts[i]];
+        }
+        for (String name : names) {
+            KNOWN_NAMES[name.length()][--counts[name.length()]] = name;
+        }
+    }
+
+    private Reader reader;
+    private String inputEncoding;
+
+    private final char[] buffer;
+    private int position;
+    private int limit;
+
+    private int eventType;
+    private String name;
+    private int depth;
+    private String[] elementStack;
+    private boolean emptyElement;
+    private boolean pendingEndTag;
+
+    private char[] nameBuffer;
+
+    private int attributeCount;
+    private String[] attributeNames;
+    private int[] attributeStarts;
+    private int[] attributeLengths;
+    private String[] attributeValues;
+    private char[] valueBuffer;
+    private int valueLength;
+
+    private final StringBuilder textBuilder;
+    private String text;
+    private boolean whitespaceText;
+
+    public ProtocolParser() {
+        this.buffer = new char[BUFFER_SIZE];
+        this.elementStack = new String[8];
+        this.nameBuffer = new char[32];
+        this.attributeNames = new String[8];
+        this.attributeStarts = new int[8];
+        this.attributeLengths = new int[8];
+        this.attributeValues = new String[8];
+        this.valueBuffer = new char[256];
+        this.textBuilder = new StringBuilder(64);
+    }
+
+    public void setInput(final Reader reader) throws XmlPullParserException {
+        this.reader = reader;
+        this.inputEncoding = null;
+        this.position = 0;
+        this.limit = 0;
+        this.eventType = START_DOCUMENT;
+        this.name = null;
+        this.depth = 0;
+        this.emptyElement = false;
+        this.pendingEndTag = false;
+        this.attributeCount = 0;
+        this.text = null;
+    }
+
+    public void setInput(final InputStream is, final String encoding) throws XmlPullParserException {
+        String charset = encoding == null ? "UTF-8" : encoding;
+        try {
+            setInput(new InputStreamReader(is, charset));
+        } catch (IOException e) {
+            throw new XmlPullParserException("Unsupported encoding: " + charset, this, e);
+        }
+        this.inputEncoding = charset;
+    }
+
+    public String getInputEncoding() {
+        return inputEncoding;
+    }
+
+    public int next() throws XmlPullParserException, IOException {
+        if (pendingEndTag) {
+            pendingEndTag = false;
+            return eventType = END_TAG;
+        }
+        if (eventType == END_TAG) {
+            depth--;
+        }
+        name = null;
+        text = null;
+        attributeCount = 0;
+        emptyElement = false;
+        while (true) {
+            if (!ensure(1)) {
+                if (depth > 0) {
+                    throw new XmlPullParserException("Unexpected end of document, " +
+                            "<" + elementStack[depth - 1] + "> is not closed", this, null);
+                }
+                return eventType = END_DOCUMENT;
+            }
+            if (buffer[position] == '<') {
+                if (!ensure(2)) {
+                    throw new XmlPullParserException("Unexpected end of document after '<'", this, null);
+                }
+                char c = buffer[position + 1];
+                if (c == '/') {
+                    position += 2;
+                    parseEndTag();
+                    return eventType = END_TAG;
+                } else if (c == '?') {
+                    skipPast("?>");
+                    continue;
+                } else if (c == '!') {
+                    if (startsWith("<!--")) {
+                        skipPast("-->");
+                        continue;
+                    } else if (!startsWith("<![CDATA[")) {
+                        skipPast(">"); // <!DOCTYPE ...>
+                        continue;
+                    }
+                    // CDATA section is handled as a text
+                } else {
+                    position++;
+                    parseStartTag();
+                    return eventType = START_TAG;
+                }
+            }
+            if (parseText()) {
+                return eventType = TEXT;
+            }
+        }
+    }
+
+    public int nextToken() throws XmlPullParserException, IOException {
+        // comments, processing instructions, etc. are never reported
+        return next();
+    }
+
+    private void parseStartTag() throws XmlPullParserException, IOException {
+        name = readName();
+        if (depth == elementStack.length) {
+            String[] newStack = new String[depth * 2];
+            System.arraycopy(elementStack, 0, newStack, 0, depth);
+            elementStack = newStack;
+        }
+        elementStack[depth++] = name;
+        valueLength = 0;
+        while (true) {
+            skipWhitespace();
+            char c = read();
+            if (c == '>') {
+                return;
+            } else if (c == '/') {
+                if (read() != '>') {
+                    throw new XmlPullParserException("'>' expected after '/' in <" + name + '>', this, null);
+                }
+                emptyElement = true;
+                pendingEndTag = true;
+                return;
+            }
+            position--;
+            parseAttribute();
+        }
+    }
+
+    private void parseAttribute() throws XmlPullParserException, IOException {
+        String attributeName = readName();
+        skipWhitespace();
+        if (read() != '=') {
+            throw new XmlPullParserException("'=' expected after attribute " + attributeName, this, null);
+        }
+        skipWhitespace();
+        char quote = read();
+        if (quote != '"' && quote != '\'') {
+            throw new XmlPullParserException("Quote expected for value of " + attributeName, this, null);
+        }
+        if (attributeCount == attributeNames.length) {
+            growAttributes();
+        }
+        int start = valueLength;
+        while (true) {
+            char c = read();
+            if (c == quote) {
+                break;
+            } else if (c == '&') {
+                appendEntity(null);
+            } else if (c == '<') {
+                throw new XmlPullParserException("'<' in value of attribute " + attributeName, this, null);
+            } else {
+                appendValue(c);
+            }
+        }
+        attributeNames[attributeCount] = attributeName;
+        attributeStarts[attributeCount] = start;
+        attributeLengths[attributeCount] = valueLength - start;
+        attributeValues[attributeCount] = null;
+        attributeCount++;
+    }
+
+    private void parseEndTag() throws XmlPullParserException, IOException {
+        name = readName();
+        skipWhitespace();
+        if (read() != '>') {
+            throw new XmlPullParserException("'>' expected in </" + name + '>', this, null);
+        }
+        if (depth == 0 || !elementStack[depth - 1].equals(name)) {
+            throw new XmlPullParserException("Unexpected end tag </" + name + '>', this, null);
+        }
+    }
+
+    /**
+     * Reads text up to the next tag.
+     *
+     * @return <code>false</code> if the text should not be reported
+     */
+    private boolean parseText() throws XmlPullParserException, IOException {
+        textBuilder.setLength(0);
+        whitespaceText = true;
+        while (ensure(1)) {
+            char c = buffer[position];
+            if (c == '<') {
+                if (!startsWith("<![CDATA[")) {
+                    break;
+                }
+                position += 9;
+                while (!startsWith("]]>")) {
+                    textBuilder.append(read());
+                }
+                position += 3;
+                whitespaceText = false;
+                continue;
+            }
+            position++;
+            if (c == '&') {
+                appendEntity(textBuilder);
+                whitespaceText = false;
+            } else {
+                textBuilder.append(c);
+                if (whitespaceText && !isWhitespace(c)) {
+                    whitespaceText = false;
+                }
+            }
+        }
+        return depth > 0 || !whitespaceText;
+    }
+
+    /** Reads entity reference after the '&amp;' character. */
+    private void appendEntity(final StringBuilder target) throws XmlPullParserException, IOException {
+        int length = 0;
+        while (true) {
+            if (!ensure(length + 1)) {
+                throw new XmlPullParserException("Unexpected end of document in an entity reference", this, null);
+            }
+            if (buffer[position + length] == ';') {
+                break;
+            }
+            if (++length > 10) {
+                throw new XmlPullParserException("Unterminated entity reference", this, null);
+            }
+        }
+        int start = position;
+        position += length + 1;
+        int code;
+        if (length > 1 && buffer[start] == '#') {
+            try {
+                code = buffer[start + 1] == 'x'
+                        ? Integer.parseInt(new String(buffer, start + 2, length - 2), 16)
+                        : Integer.parseInt(new String(buffer, start + 1, length - 1));
+            } catch (NumberFormatException e) {
+                throw new XmlPullParserException("Invalid character reference: &" +
+                        new String(buffer, start, length) + ';', this, e);
+            }
+        } else if (regionEquals(start, length, "lt")) {
+            code = '<';
+        } else if (regionEquals(start, length, "gt")) {
+            code = '>';
+        } else if (regionEquals(start, length, "amp")) {
+            code = '&';
+        } else if (regionEquals(start, length, "quot")) {
+            code = '"';
+        } else if (regionEquals(start, length, "apos")) {
+            code = '\'';
+        } else {
+            throw new XmlPullParserException("Unknown entity: &" + new String(buffer, start, length) + ';', this, null);
+        }
+        char[] chars = Character.toChars(code);
+        for (char c : chars) {
+            if (target == null) {
+                appendValue(c);
+            } else {
+                target.append(c);
+            }
+        }
+    }
+
+    private boolean regionEquals(final int start, final int length, final String s) {
+        if (length != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[start + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readName() throws XmlPullParserException, IOException {
+        int length = 0;
+        while (true) {
+            if (!ensure(1)) {
+                throw new XmlPullParserException("Unexpected end of document in a name", this, null);
+            }
+            char c = buffer[position];
+            if (isWhitespace(c) || c == '>' || c == '/' || c == '=') {
+                break;
+            }
+            position++;
+            if (length == nameBuffer.length) {
+                char[] newBuffer = new char[length * 2];
+                System.arraycopy(nameBuffer, 0, newBuffer, 0, length);
+                nameBuffer = newBuffer;
+            }
+            nameBuffer[length++] = c;
+        }
+        if (length == 0) {
+            throw new XmlPullParserException("Name expected", this, null);
+        }
+        if (length < KNOWN_NAMES.length) {
+            for (String known : KNOWN_NAMES[length]) {
+                if (matches(known, length)) {
+                    return known;
+                }
+            }
+        }
+        return new String(nameBuffer, 0, length);
+    }
+
+    private boolean matches(final String known, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (nameBuffer[i] != known.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void appendValue(final char c) {
+        if (valueLength == valueBuffer.length) {
+            char[] newBuffer = new char[valueLength * 2];
+            System.arraycopy(valueBuffer, 0, newBuffer, 0, valueLength);
+            valueBuffer = newBuffer;
+        }
+        valueBuffer[valueLength++] = c;
+    }
+
+    private void growAttributes() {
+        int size = attributeNames.length * 2;
+        String[] names = new String[size];
+        System.arraycopy(attributeNames, 0, names, 0, attributeCount);
+        attributeNames = names;
+        int[] starts = new int[size];
+        System.arraycopy(attributeStarts, 0, starts, 0, attributeCount);
+        attributeStarts = starts;
+        int[] lengths = new int[size];
+        System.arraycopy(attributeLengths, 0, lengths, 0, attributeCount);
+        attributeLengths = lengths;
+        attributeValues = new String[size];
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (ensure(1) && isWhitespace(buffer[position])) {
+            position++;
+        }
+    }
+
+    private void skipPast(final String end) throws XmlPullParserException, IOException {
+        while (!startsWith(end)) {
+            read();
+        }
+        position += end.length();
+    }
+
+    private boolean startsWith(final String s) throws IOException {
+        if (!ensure(s.length())) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer[position + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private char read() throws XmlPullParserException, IOException {
+        if (!ensure(1)) {
+            throw new XmlPullParserException("Unexpected end of document", this, null);
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Makes sure that at least <code>count</code> characters are available
+     * in the buffer.
+     *
+     * @return <code>false</code> if the input ended before
+     */
+    private boolean ensure(final int count) throws IOException {
+        if (limit - position >= count) {
+            return true;
+        }
+        if (reader == null) {
+            return false;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        while (limit < count) {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                return false;
+            }
+            limit += read;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    /**
+     * Parses value of the given attribute of the current start tag without
+     * creating a string.
+     *
+     * @throws NumberFormatException if the attribute is missing or is not a
+     *         number
+     */
+    public int getAttributeIntValue(final String attributeName) {
+        int index = indexOf(attributeName);
+        if (index == -1) {
+            throw new NumberFormatException("Missing attribute: " + attributeName);
+        }
+        int start = attributeStarts[index];
+        int end = start + attributeLengths[index];
+        if (start == end) {
+            throw new NumberFormatException("Empty attribute: " + attributeName);
+        }
+        boolean negative = valueBuffer[start] == '-';
+        if (negative || valueBuffer[start] == '+') {
+            start++;
+        }
+        if (start == end || end - start > 10) {
+            throw new NumberFormatException("For input string: \"" + getAttributeValue(index) + '"');
+        }
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = valueBuffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + getAttributeValue(index) + '"');
+            }
+            result = result * 10 + digit;
+        }
+        if (negative) {
+            result = -result;
+        }
+        if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + getAttributeValue(index) + '"');
+        }
+        return (int) result;
+    }
+
+    /**
+     * Whether the given attribute of the current start tag is
+     * <code>true</code>, without creating a string.
+     */
+    public boolean getAttributeBooleanValue(final String attributeName) {
+        int index = indexOf(attributeName);
+        if (index == -1 || attributeLengths[index] != 4) {
+            return false;
+        }
+        int start = attributeStarts[index];
+        return valueBuffer[start] == 't' && valueBuffer[start + 1] == 'r'
+                && valueBuffer[start + 2] == 'u' && valueBuffer[start + 3] == 'e';
+    }
+
+    private int indexOf(final String attributeName) {
+        for (int i = 0; i < attributeCount; i++) {
+            String candidate = attributeNames[i];
+            if (candidate == attributeName || candidate.equals(attributeName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getEventType() throws XmlPullParserException {
+        return eventType;
+    }
+
+    public String getName() {
+        return eventType == START_TAG || eventType == END_TAG ? name : null;
+    }
+
+    public String getText() {
+        if (eventType != TEXT) {
+            return null;
+        }
+        if (text == null) {
+            text = textBuilder.toString();
+        }
+        return text;
+    }
+
+    public char[] getTextCharacters(final int[] holderForStartAndLength) {
+        String current = getText();
+        if (current == null) {
+            holderForStartAndLength[0] = -1;
+            holderForStartAndLength[1] = -1;
+            return null;
+        }
+        holderForStartAndLength[0] = 0;
+        holderForStartAndLength[1] = current.length();
+        return current.toCharArray();
+    }
+
+    public boolean isWhitespace() throws XmlPullParserException {
+        if (eventType != TEXT) {
+            throw new XmlPullParserException("Text expected", this, null);
+        }
+        return whitespaceText;
+    }
+
+    public boolean isEmptyElementTag() throws XmlPullParserException {
+        if (eventType != START_TAG) {
+            throw new XmlPullParserException("Start tag expected", this, null);
+        }
+        return emptyElement;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getAttributeCount() {
+        return eventType == START_TAG ? attributeCount : -1;
+    }
+
+    public String getAttributeName(final int index) {
+        checkAttributeIndex(index);
+        return attributeNames[index];
+    }
+
+    public String getAttributeValue(final int index) {
+        checkAttributeIndex(index);
+        String value = attributeValues[index];
+        if (value == null) {
+            value = new String(valueBuffer, attributeStarts[index], attributeLengths[index]);
+            attributeValues[index] = value;
+        }
+        return value;
+    }
+
+    public String getAttributeValue(final String namespace, final String attributeName) {
+        if (eventType != START_TAG) {
+            throw new IndexOutOfBoundsException("Attributes are available only for start tags");
+        }
+        int index = indexOf(attributeName);
+        return index == -1 ? null : getAttributeValue(index);
+    }
+
+    /**
+     * Returns value of the given attribute of the current start tag interned
+     * in the given pool straight from the parser's buffer, so that no string
+     * is created when the value is already pooled.
+     */
+    public String getAttributeValue(final String attributeName, final StringPool pool) {
+        if (eventType != START_TAG) {
+            throw new IndexOutOfBoundsException("Attributes are available only for start tags");
+        }
+        int index = indexOf(attributeName);
+        if (index == -1) {
+            return null;
+        }
+        String value = attributeValues[index];
+        if (value == null) {
+            value = pool.intern(valueBuffer, attributeStarts[index], attributeLengths[index]);
+        } else {
+            value = pool.intern(value);
+        }
+        attributeValues[index] = value;
+        return value;
+    }
+
+    private void checkAttributeIndex(final int index) {
+        if (eventType != START_TAG || index < 0 || index >= attributeCount) {
+            throw new IndexOutOfBoundsException("No attribute at index " + index);
+        }
+    }
+
+    public String getAttributeNamespace(final int index) {
+        checkAttributeIndex(index);
+        return NO_NAMESPACE;
+    }
+
+    public String getAttributePrefix(final int index) {
+        checkAttributeIndex(index);
+        return null;
+    }
+
+    public String getAttributeType(final int index) {
+        checkAttributeIndex(index);
+        return "CDATA";
+    }
+
+    public boolean isAttributeDefault(final int index) {
+        return false;
+    }
+
+    public String getNamespace() {
+        return eventType == START_TAG || eventType == END_TAG ? NO_NAMESPACE : null;
+    }
+
+    public String getNamespace(final String prefix) {
+        return null;
+    }
+
+    public String getPrefix() {
+        return null;
+    }
+
+    public int getNamespaceCount(final int depth) throws XmlPullParserException {
+        return 0;
+    }
+
+    public String getNamespacePrefix(final int pos) throws XmlPullParserException {
+        throw new XmlPullParserException("Namespaces are not supported", this, null);
+    }
+
+    public String getNamespaceUri(final int pos) throws XmlPullParserException {
+        throw new XmlPullParserException("Namespaces are not supported", this, null);
+    }
+
+    public void setFeature(final String featureName, final boolean state) throws XmlPullParserException {
+        if (state) {
+            throw new XmlPullParserException("Unsupported feature: " + featureName, this, null);
+        }
+    }
+
+    public boolean getFeature(final String featureName) {
+        return false;
+    }
+
+    public void setProperty(final String propertyName, final Object value) throws XmlPullParserException {
+        throw new XmlPullParserException("Unsupported property: " + propertyName, this, null);
+    }
+
+    public Object getProperty(final String propertyName) {
+        return null;
+    }
+
+    public void defineEntityReplacementText(final String entityName, final String replacementText)
+            throws XmlPullParserException {
+        throw new XmlPullParserException("Entity definitions are not supported", this, null);
+    }
+
+    public int getLineNumber() {
+        return -1;
+    }
+
+    public int getColumnNumber() {
+        return -1;
+    }
+
+    public String getPositionDescription() {
+        String description = eventType < TYPES.length ? TYPES[eventType] : String.valueOf(eventType);
+        if (name != null) {
+            description += " <" + (eventType == END_TAG ? "/" : "") + name + '>';
+        }
+        return description + " (depth " + depth + ')';
+    }
+
+    public void require(final int type, final String namespace, final String name)
+            throws XmlPullParserException, IOException {
+        if (type != eventType
+                || (namespace != null && !namespace.equals(getNamespace()))
+                || (name != null && !name.equals(getName()))) {
+            throw new XmlPullParserException("Expected " + TYPES[type] + " " + name +
+                    ", got " + getPositionDescription(), this, null);
+        }
+    }
+
+    public String nextText() throws XmlPullParserException, IOException {
+        if (eventType != START_TAG) {
+            throw new XmlPullParserException("Start tag expected", this, null);
+        }
+        String result = "";
+        if (next() == TEXT) {
+            result = getText();
+            next();
+        }
+        if (eventType != END_TAG) {
+            throw new XmlPullParserException("End tag expected", this, null);
+        }
+        return result;
+    }
+
+    public int nextTag() throws XmlPullParserException, IOException {
+        next();
+        if (eventType == TEXT && whitespaceText) {
+            next();
+        }
+        if (eventType != START_TAG && eventType != END_TAG) {
+            throw new XmlPullParserException("Start or end tag expected", this, null);
+        }
+        return eventType;
+    }
+
+}
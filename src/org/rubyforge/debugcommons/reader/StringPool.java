@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons.reader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded pool deduplicating strings read from the protocol, like file paths
+ * of frames or kinds, types and values of variables, which repeat in almost
+ * every response.
+ * <p>
+ * The pool is a fixed-size table with one string per slot. Lookups and
+ * insertions are lock-free; a string colliding with another one simply
+ * replaces it, so the pool never grows and keeps the recently seen strings.
+ * Strings longer than the {@link #getMaxLength maximal length} are not
+ * pooled. Thread-safe.
+ */
+public final class StringPool {
+
+    /** Default number of slots. */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /** Default maximal length of pooled strings. */
+    public static final int DEFAULT_MAX_LENGTH = 256;
+
+    /** Estimated size of a string without its characters [B]. */
+    private static final int STRING_OVERHEAD = 40;
+
+    private final AtomicReferenceArray<String> table;
+    private final int mask;
+    private final int maxLength;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    public StringPool() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     * @param maxLength strings longer than this are not pooled
+     */
+    public StringPool(final int capacity, final int maxLength) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.table = new AtomicReferenceArray<String>(size);
+        this.mask = size - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Returns pooled string with the given characters, creating it only if
+     * it is not pooled yet.
+     */
+    public String intern(final char[] chars, final int offset, final int length) {
+        if (length > maxLength) {
+            return new String(chars, offset, length);
+        }
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = slot(hash);
+        String pooled = table.get(slot);
+        if (pooled != null && matches(pooled, chars, offset, length)) {
+            hit(length);
+            return pooled;
+        }
+        String created = new String(chars, offset, length);
+        table.set(slot, created);
+        misses.incrementAndGet();
+        return created;
+    }
+
+    /**
+     * Returns pooled string equal to the given one, pooling the given one if
+     * there is no such string yet.
+     */
+    public String intern(final String s) {
+        if (s == null || s.length() > maxLength) {
+            return s;
+        }
+        int slot = slot(s.hashCode());
+        String pooled = table.get(slot);
+        if (s.equals(pooled)) {
+            if (pooled != s) {
+                hit(s.length());
+            }
+            return pooled;
+        }
+        table.set(slot, s);
+        misses.incrementAndGet();
+        return s;
+    }
+
+    private int slot(final int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static boolean matches(final String pooled, final char[] chars, final int offset, final int length) {
+        if (pooled.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (pooled.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void hit(final int length) {
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(STRING_OVERHEAD + 2 * length);
+    }
+
+    /** Drops all pooled strings. Statistics are kept. */
+    public void clear() {
+        for (int i = 0; i < table.length(); i++) {
+            table.set(i, null);
+        }
+    }
+
+    public int getCapacity() {
+        return table.length();
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /** Returns number of lookups served by an already pooled string. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Returns number of lookups which had to pool a new string. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Returns ratio of hits to all lookups of poolable strings. */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /** Returns estimated heap saved by the hits [B]. */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+}
@@ -41,6 +41,10 @@ public final class VariablesReader extends XmlStreamReader {
         super(xpp);
     }
 
+    public VariablesReader(XmlPullParser xpp, StringPool stringPool) {
+        super(xpp, stringPool);
+    }
+
     private void parse() throws XmlPullParserException, IOException {
         String element = xpp.getName();
         assert element.equals("variables") || element.equals("processingException");
@@ -74,14 +78,14 @@ public final class VariablesReader extends XmlStreamReader {
                 break;
             }
             assert xpp.getName().equals("variable") : xpp.getName() + "(type: " + Util.getType(xpp) + ") encountered";
-            String name = getAttributeValue("name");
-            String value = getAttributeValue("value");
-            String kind = getAttributeValue("kind");
+            String name = getPooledAttributeValue("name");
+            String value = getPooledAttributeValue("value");
+            String kind = getPooledAttributeValue("kind");
             RubyVariableInfo newVariable;
             if (value == null) {
                 newVariable = new RubyVariableInfo(name, kind);
             } else {
-                String type = getAttributeValue("type");
+                String type = getPooledAttributeValue("type");
                 boolean hasChildren = getAttributeBoolValue("hasChildren");
                 String objectId = getAttributeValue("objectId");
                 newVariable = new RubyVariableInfo(name, kind, value, type, hasChildren, objectId);
@@ -101,7 +105,16 @@ public final class VariablesReader extends XmlStreamReader {
 
     public static RubyVariableInfo[] readVariables(final XmlPullParser xpp)
             throws IOException, XmlPullParserException {
-        VariablesReader reader = new VariablesReader(xpp);
+        return readVariables(xpp, null);
+    }
+
+    /**
+     * @param stringPool deduplicates names, kinds, types and values of the
+     *        variables; might be <code>null</code>
+     */
+    public static RubyVariableInfo[] readVariables(final XmlPullParser xpp, final StringPool stringPool)
+            throws IOException, XmlPullParserException {
+        VariablesReader reader = new VariablesReader(xpp, stringPool);
         reader.parse();
         return reader.variables;
     }
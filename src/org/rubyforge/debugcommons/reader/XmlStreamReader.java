@@ -30,9 +30,21 @@ import org.xmlpull.v1.XmlPullParserException;
 public abstract class XmlStreamReader {
     
     protected final XmlPullParser xpp;
+
+    /** Non-<code>null</code> when reading with the specialised parser. */
+    private final ProtocolParser protocolParser;
+
+    /** Deduplicates repeating attribute values; might be <code>null</code>. */
+    private final StringPool stringPool;
     
     public XmlStreamReader(XmlPullParser xpp) {
+        this(xpp, null);
+    }
+    
+    public XmlStreamReader(XmlPullParser xpp, StringPool stringPool) {
         this.xpp = xpp;
+        this.protocolParser = xpp instanceof ProtocolParser ? (ProtocolParser) xpp : null;
+        this.stringPool = stringPool;
     }
     
     protected void ensureEndTag(final String name) throws XmlPullParserException, IOException {
@@ -49,6 +61,12 @@ public abstract class XmlStreamReader {
      */
     protected int nextEvent() throws XmlPullParserException, IOException {
         int eventType = -1;
+        if (protocolParser != null) {
+            while ((eventType = xpp.next()) == XmlPullParser.TEXT) {
+                // skip
+            }
+            return eventType;
+        }
         while ((eventType = xpp.next()) == XmlPullParser.TEXT) {
             // skip, just log
             Util.logEvent(xpp);
@@ -61,11 +79,31 @@ public abstract class XmlStreamReader {
         return xpp.getAttributeValue("", attrName);
     }
     
+    /**
+     * Like {@link #getAttributeValue} but for values which are likely to
+     * repeat, deduplicated by the reader's {@link StringPool}, if any.
+     */
+    protected String getPooledAttributeValue(final String attrName) {
+        if (stringPool == null) {
+            return getAttributeValue(attrName);
+        }
+        if (protocolParser != null) {
+            return protocolParser.getAttributeValue(attrName, stringPool);
+        }
+        return stringPool.intern(getAttributeValue(attrName));
+    }
+    
     protected int getAttributeIntValue(final String attrName) {
+        if (protocolParser != null) {
+            return protocolParser.getAttributeIntValue(attrName);
+        }
         return Integer.parseInt(getAttributeValue(attrName));
     }
     
     protected boolean getAttributeBoolValue(final String attrName) {
+        if (protocolParser != null) {
+            return protocolParser.getAttributeBooleanValue(attrName);
+        }
         return "true".equals(getAttributeValue(attrName));
     }
     
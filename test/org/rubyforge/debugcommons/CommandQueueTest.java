@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import junit.framework.TestCase;
+
+public class CommandQueueTest extends TestCase {
+
+    private ByteArrayOutputStream out;
+    private CommandQueue queue;
+
+    public CommandQueueTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        out = new ByteArrayOutputStream();
+        queue = new CommandQueue(new CommandWriter(out), new ReadersSupport(5));
+    }
+
+    private String[] writtenCommands() throws Exception {
+        return out.toString("UTF-8").split(System.getProperty("line.separator"));
+    }
+
+    public void testConcurrentSubmittersKeepTheirOrder() throws Exception {
+        final int threads = 8;
+        final int commands = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> submitters = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            Thread submitter = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < commands; i++) {
+                        queue.submit("eval " + thread + ' ' + i, null);
+                    }
+                }
+            };
+            submitter.start();
+            submitters.add(submitter);
+        }
+        start.countDown();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+        String[] written = writtenCommands();
+        assertEquals("all commands written", threads * commands, written.length);
+        int[] next = new int[threads];
+        for (String command : written) {
+            String[] parts = command.split(" ");
+            int thread = Integer.parseInt(parts[1]);
+            assertEquals("order of thread " + thread, next[thread]++, Integer.parseInt(parts[2]));
+        }
+        assertTrue("writes were combined", queue.getBatches() <= threads * commands);
+    }
+
+    public void testBatchIsWrittenContiguously() throws Exception {
+        queue.submit(new String[] { "break a.rb:1", "break a.rb:2" }, new RubyDebugFuture<?>[2]);
+        queue.submit("cont", null);
+        String[] written = writtenCommands();
+        assertEquals(3, written.length);
+        assertEquals("break a.rb:1", written[0]);
+        assertEquals("break a.rb:2", written[1]);
+        assertEquals("cont", written[2]);
+    }
+
+}
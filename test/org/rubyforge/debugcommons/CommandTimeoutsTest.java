@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.model.RubyVariableInfo;
+
+public class CommandTimeoutsTest extends TestCase {
+
+    public CommandTimeoutsTest(String testName) {
+        super(testName);
+    }
+
+    public void testConfiguredTimeouts() {
+        CommandTimeouts timeouts = new CommandTimeouts(10000);
+        timeouts.setTimeout(CommandType.INSPECT, 30000);
+        assertEquals(10000, timeouts.getTimeout(CommandType.FRAMES));
+        assertEquals(30000, timeouts.getTimeout(CommandType.INSPECT));
+    }
+
+    public void testAdaptiveTimeouts() {
+        CommandTimeouts timeouts = new CommandTimeouts(10000);
+        timeouts.setAdaptive(true);
+        for (int i = 0; i < 19; i++) {
+            timeouts.record(CommandType.FRAMES, 10);
+        }
+        assertEquals("not enough samples yet", 10000, timeouts.getTimeout(CommandType.FRAMES));
+        timeouts.record(CommandType.FRAMES, 1000);
+        assertEquals(10, timeouts.getLatency(CommandType.FRAMES, 0.5));
+        assertEquals(1000, timeouts.getLatency(CommandType.FRAMES, 0.99));
+        assertEquals("4 x p99", 4000, timeouts.getTimeout(CommandType.FRAMES));
+        for (int i = 0; i < 128; i++) {
+            timeouts.record(CommandType.FRAMES, 1);
+        }
+        assertEquals("minimum", 2000, timeouts.getTimeout(CommandType.FRAMES));
+        for (int i = 0; i < 128; i++) {
+            timeouts.record(CommandType.INSPECT, 20000);
+        }
+        assertEquals("maximum", 60000, timeouts.getTimeout(CommandType.INSPECT));
+        assertEquals("other types not affected", 10000, timeouts.getTimeout(CommandType.THREADS));
+    }
+
+    public void testCommandTimesOutInMilliseconds() throws Exception {
+        CommandTimeouts timeouts = new CommandTimeouts(10000);
+        timeouts.setTimeout(CommandType.VARIABLES, 50);
+        PipedOutputStream backend = new PipedOutputStream();
+        ReadersSupport readersSupport = new ReadersSupport(timeouts, ProtocolParserFactory.KXML);
+        readersSupport.startCommandLoop(new PipedInputStream(backend));
+        RubyDebugFuture<RubyVariableInfo[]> variables = readersSupport.register(readersSupport.variablesResponse());
+        long start = System.currentTimeMillis();
+        try {
+            readersSupport.await(variables);
+            fail("RubyDebuggerException expected");
+        } catch (RubyDebuggerException e) {
+            // OK - expected
+        }
+        assertTrue("timed out early", System.currentTimeMillis() - start < 5000);
+        backend.close();
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import junit.framework.TestCase;
+
+public class CommandWriterTest extends TestCase {
+
+    private static final String LS = System.getProperty("line.separator");
+
+    /** Counts writes to the stream. */
+    private static final class RecordingStream extends ByteArrayOutputStream {
+
+        int writes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes++;
+            super.write(b, off, len);
+        }
+
+    }
+
+    private RecordingStream out;
+    private CommandWriter writer;
+
+    public CommandWriterTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        out = new RecordingStream();
+        writer = new CommandWriter(out);
+    }
+
+    public void testCommandIsFlushedImmediately() throws IOException {
+        writer.write("where");
+        assertEquals("where" + LS, out.toString("UTF-8"));
+        writer.write("th l");
+        assertEquals(2, out.writes);
+        assertEquals(2, writer.getCommandsWritten());
+        assertEquals(out.size(), writer.getBytesWritten());
+    }
+
+    public void testBatchIsWrittenAtOnce() throws IOException {
+        writer.beginBatch();
+        writer.write("break a.rb:1");
+        writer.beginBatch();
+        writer.write("break a.rb:2");
+        writer.endBatch();
+        assertEquals("nested batch does not flush", 0, out.size());
+        writer.write("break a.rb:3");
+        writer.endBatch();
+        assertEquals("break a.rb:1" + LS + "break a.rb:2" + LS + "break a.rb:3" + LS, out.toString("UTF-8"));
+        assertEquals(1, out.writes);
+        assertEquals(1, writer.getFlushes());
+        assertEquals(3, writer.getCommandsWritten());
+    }
+
+    public void testEncodedInUTF8() throws IOException {
+        StringBuilder longCommand = new StringBuilder("eval ");
+        for (int i = 0; i < 1000; i++) {
+            longCommand.append("žluťoučký kůň ");
+        }
+        writer.write(longCommand.toString());
+        assertEquals(longCommand + LS, out.toString("UTF-8"));
+        assertEquals(out.size(), writer.getBytesWritten());
+    }
+
+}
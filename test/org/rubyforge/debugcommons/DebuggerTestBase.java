@@ -89,9 +89,6 @@ public abstract class DebuggerTestBase extends TestBase {
     
     ReadersSupport readersSupport;
     
-    protected OutputRedirectorThread rubyStdoutRedirectorThread;
-    protected OutputRedirectorThread rubyStderrRedirectorThread;
-    
     public DebuggerTestBase(String name) {
         super(name);
         setDebuggerType(RubyDebuggerProxy.RUBY_DEBUG);
@@ -175,6 +172,7 @@ public abstract class DebuggerTestBase extends TestBase {
     }
     
     public RubyDebuggerProxy startDebugger(final Descriptor descriptor) throws IOException, RubyDebuggerException {
+        descriptor.setOutputPumped(true);
         RubyDebuggerProxy proxy;
         switch (debuggerType) {
             case CLASSIC_DEBUGGER:
@@ -191,13 +189,18 @@ public abstract class DebuggerTestBase extends TestBase {
                 throw new IllegalStateException("Unhandled debugger type: " + debuggerType);
         }
         debugTarget = proxy.getDebugTarget();
-        rubyStderrRedirectorThread = new OutputRedirectorThread(debugTarget.getProcess().getErrorStream());
-        rubyStderrRedirectorThread.start();
-        rubyStdoutRedirectorThread = new OutputRedirectorThread(debugTarget.getProcess().getInputStream());
-        rubyStdoutRedirectorThread.start();
+        debugTarget.getOutputPump().addListener(new OutputLogger());
+        debugTarget.getErrorPump().addListener(new OutputLogger());
         return proxy;
     }
 
+    private static final class OutputLogger extends OutputPump.LineListener {
+        @Override
+        protected void line(String line) {
+            LOGGER.info("RUBY: " + line);
+        }
+    }
+
     /** Start debuggee process without attaching to it. */
     protected Process startDebuggerProcess(
             final File toTest,
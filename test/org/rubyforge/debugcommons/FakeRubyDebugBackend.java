@@ -0,0 +1,647 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-process stand-in for the <em>rdebug-ide</em> backend. Listens on a
+ * local port and answers the commands created by {@link
+ * RubyDebugCommandFactory} from configurable synthetic state, so the {@link
+ * RubyDebuggerProxy} might be tested, also under load, without Ruby
+ * installed.
+ * <p>
+ * Like the real backend, commands reading frames and variables apply to the
+ * <em>current</em> thread, i.e. the one suspended last. Responses might be
+ * delayed by a configurable latency and suspensions might be sent at any
+ * time, e.g. as a {@link #suspensionStorm storm}.
+ */
+public final class FakeRubyDebugBackend {
+
+    private static final Logger LOGGER = Logger.getLogger(FakeRubyDebugBackend.class.getName());
+
+    /** Synthetic variable as reported in the <code>&lt;variables&gt;</code> element. */
+    public static final class Variable {
+
+        final String name;
+        final String kind;
+        final String value;
+        final String type;
+        final String objectId;
+        final boolean hasChildren;
+
+        public Variable(final String name, final String kind, final String value,
+                final String type, final String objectId, final boolean hasChildren) {
+            this.name = name;
+            this.kind = kind;
+            this.value = value;
+            this.type = type;
+            this.objectId = objectId;
+            this.hasChildren = hasChildren;
+        }
+
+    }
+
+    private static final class Frame {
+
+        final String file;
+        int line;
+        final List<Variable> locals = new ArrayList<Variable>();
+
+        Frame(final String file, final int line) {
+            this.file = file;
+            this.line = line;
+        }
+
+    }
+
+    private static final class FakeThread {
+
+        final int id;
+        String status = "run";
+        final List<Frame> frames = new ArrayList<Frame>();
+
+        FakeThread(final int id) {
+            this.id = id;
+        }
+
+    }
+
+    /** Threads by their ids; guarded by this. */
+    private final Map<Integer, FakeThread> threads = new TreeMap<Integer, FakeThread>();
+
+    /** Instance variables by the owner's object id; guarded by this. */
+    private final Map<String, List<Variable>> children = new HashMap<String, List<Variable>>();
+
+    private final List<Variable> globals = new ArrayList<Variable>();
+
+    /** Results of <code>v inspect</code> by the expression. */
+    private final Map<String, Variable> expressions = new HashMap<String, Variable>();
+
+    /** Errors answering the given commands. */
+    private final Map<String, String> errors = new HashMap<String, String>();
+
+    /** Latencies by the command's name, the key <code>null</code> is the default. */
+    private final Map<String, Long> latencies = new HashMap<String, Long>();
+
+    private final List<String> commands = new ArrayList<String>();
+
+    private ServerSocket serverSocket;
+    private Socket socket;
+    private Writer writer;
+
+    private int currentThread = -1;
+
+    /** Frame selected by the last <code>frame</code> command. */
+    private int currentFrame = 1;
+
+    private int lastBreakpointNo;
+    private int syntheticChildren;
+    private int stormCursor;
+
+    /** Binds a free local port and starts accepting connections. */
+    public synchronized void start() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread("FakeRubyDebugBackend [" + serverSocket.getLocalPort() + ']') {
+            public @Override void run() {
+                acceptLoop();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public synchronized int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Closes the connection and stops listening. */
+    public void stop() {
+        ServerSocket server;
+        synchronized (this) {
+            server = serverSocket;
+        }
+        closeQuietly(server);
+        closeConnection();
+    }
+
+    // ---- synthetic state ------------------------------------------------
+
+    public synchronized void addThread(final int id, final String status) {
+        getThread(id).status = status;
+    }
+
+    /** Pushes a new bottom-most frame to the given thread. */
+    public synchronized void addFrame(final int threadId, final String file, final int line) {
+        getThread(threadId).frames.add(new Frame(file, line));
+    }
+
+    /** Adds local variable to the given frame, numbered from 1 like the backend does. */
+    public synchronized void addLocal(final int threadId, final int frameNo, final Variable variable) {
+        getThread(threadId).frames.get(frameNo - 1).locals.add(variable);
+    }
+
+    public synchronized void addGlobal(final Variable variable) {
+        globals.add(variable);
+    }
+
+    public synchronized void addChild(final String objectId, final Variable variable) {
+        List<Variable> vars = children.get(objectId);
+        if (vars == null) {
+            vars = new ArrayList<Variable>();
+            children.put(objectId, vars);
+        }
+        vars.add(variable);
+    }
+
+    /**
+     * Sets result of inspecting the given expression. Other expressions
+     * evaluate to a string holding the expression.
+     */
+    public synchronized void addExpression(final String expression, final Variable result) {
+        expressions.put(expression, result);
+    }
+
+    /**
+     * Objects without explicitly added children report <code>count</code>
+     * synthetic instance variables, each of them having children again. Zero
+     * disables the synthesis.
+     */
+    public synchronized void setSyntheticChildren(final int count) {
+        this.syntheticChildren = count;
+    }
+
+    /**
+     * Creates <code>threadCount</code> threads, numbered from 1, each with
+     * <code>frameCount</code> frames having <code>localCount</code> local
+     * variables. The variables have children if {@link #setSyntheticChildren
+     * synthetic children} are enabled.
+     */
+    public synchronized void populate(final int threadCount, final int frameCount, final int localCount) {
+        for (int t = 1; t <= threadCount; t++) {
+            FakeThread thread = getThread(t);
+            for (int f = 1; f <= frameCount; f++) {
+                Frame frame = new Frame("/fake/thread" + t + ".rb", f * 10);
+                for (int v = 0; v < localCount; v++) {
+                    frame.locals.add(new Variable("var" + v, "local", "value" + v, "Object",
+                            objectId(t, f, v), syntheticChildren > 0));
+                }
+                thread.frames.add(frame);
+            }
+        }
+    }
+
+    /**
+     * Answers the given command, e.g. <code>v i +0x10</code>, with an
+     * <code>&lt;error&gt;</code> holding the given message.
+     */
+    public synchronized void failCommand(final String command, final String message) {
+        errors.put(command, message);
+    }
+
+    /** Delays every response by the given time [ms]. */
+    public synchronized void setLatency(final long millis) {
+        latencies.put(null, millis);
+    }
+
+    /**
+     * Delays responses to the given command, e.g. <code>v</code> or
+     * <code>th</code>, by the given time [ms].
+     */
+    public synchronized void setLatency(final String command, final long millis) {
+        latencies.put(command, millis);
+    }
+
+    // ---- scripted events --------------------------------------------------
+
+    /** Suspends the given thread at its top-most frame and makes it current. */
+    public void suspend(final int threadId) throws IOException {
+        String element;
+        synchronized (this) {
+            FakeThread thread = getThread(threadId);
+            Frame top = thread.frames.isEmpty() ? null : thread.frames.get(0);
+            element = suspendedElement(thread, top == null ? "" : top.file, top == null ? 0 : top.line);
+        }
+        send(element);
+    }
+
+    /** Reports hit of a breakpoint at the given location in the given thread. */
+    public void hitBreakpoint(final int threadId, final String file, final int line) throws IOException {
+        synchronized (this) {
+            FakeThread thread = getThread(threadId);
+            thread.status = "sleep";
+            currentThread = threadId;
+        }
+        send("<breakpoint file=\"" + escape(file) + "\" line=\"" + line + "\" threadId=\"" + threadId + "\"/>");
+    }
+
+    /** Reports the given exception raised in the given thread. */
+    public void raise(final int threadId, final String type, final String message) throws IOException {
+        String file;
+        int line;
+        synchronized (this) {
+            FakeThread thread = getThread(threadId);
+            thread.status = "sleep";
+            currentThread = threadId;
+            file = thread.frames.isEmpty() ? "" : thread.frames.get(0).file;
+            line = thread.frames.isEmpty() ? 0 : thread.frames.get(0).line;
+        }
+        send("<exception file=\"" + escape(file) + "\" line=\"" + line + "\" type=\"" + escape(type) +
+                "\" message=\"" + escape(message) + "\" threadId=\"" + threadId + "\"/>");
+    }
+
+    /**
+     * Sends <code>count</code> suspensions at once, round-robin through the
+     * known threads, as fast as the connection allows.
+     */
+    public void suspensionStorm(final int count) throws IOException {
+        StringBuilder storm = new StringBuilder(count * 80);
+        synchronized (this) {
+            if (threads.isEmpty()) {
+                throw new IllegalStateException("No threads to suspend");
+            }
+            FakeThread[] all = threads.values().toArray(new FakeThread[threads.size()]);
+            for (int i = 0; i < count; i++) {
+                FakeThread thread = all[stormCursor++ % all.length];
+                Frame top = thread.frames.isEmpty() ? null : thread.frames.get(0);
+                storm.append(suspendedElement(thread, top == null ? "" : top.file, top == null ? 0 : top.line));
+            }
+        }
+        send(storm.toString());
+    }
+
+    /** Lets the debuggee finish, i.e. closes the connection like the backend does. */
+    public void finish() {
+        closeConnection();
+    }
+
+    /** Returns all commands received so far. */
+    public synchronized List<String> getCommands() {
+        return new ArrayList<String>(commands);
+    }
+
+    /**
+     * Waits until the given command is received.
+     *
+     * @return whether the command was received in the given time [ms]
+     */
+    public synchronized boolean awaitCommand(final String command, final long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (!commands.contains(command)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    // ---- protocol -----------------------------------------------------------
+
+    private void acceptLoop() {
+        while (true) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                LOGGER.finest("Fake backend stopped listening: " + e.getMessage());
+                return;
+            }
+            try {
+                synchronized (this) {
+                    socket = client;
+                    writer = new OutputStreamWriter(client.getOutputStream(), "UTF-8");
+                }
+                serve(new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8")));
+            } catch (SocketException e) {
+                LOGGER.finest("Connection closed: " + e.getMessage());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Fake backend failed", e);
+            } finally {
+                closeConnection();
+            }
+        }
+    }
+
+    private void serve(final BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            synchronized (this) {
+                commands.add(line);
+                notifyAll();
+            }
+            for (String command : splitCommands(line)) {
+                if (command.equals("exit")) {
+                    return;
+                }
+                String response = process(command);
+                if (response != null) {
+                    delay(command);
+                    send(response);
+                }
+            }
+        }
+    }
+
+    /** Splits the line by semicolons not escaped by backslash. */
+    private static List<String> splitCommands(final String line) {
+        List<String> result = new ArrayList<String>(2);
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length() && line.charAt(i + 1) == ';') {
+                current.append(';');
+                i++;
+            } else if (c == ';') {
+                result.add(current.toString().trim());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        result.add(current.toString().trim());
+        return result;
+    }
+
+    /** Returns response to the given command or <code>null</code> if none is sent. */
+    private synchronized String process(final String command) {
+        String error = errors.get(command);
+        if (error != null) {
+            return "<error>" + escape(error) + "</error>";
+        }
+        String[] words = command.split(" ", 2);
+        String name = words[0];
+        String arg = words.length > 1 ? words[1] : "";
+        if (name.equals("start") || name.equals("cont")) {
+            if (currentThread != -1 && threads.containsKey(currentThread)) {
+                threads.get(currentThread).status = "run";
+            }
+            return null;
+        } else if (name.equals("load") || name.equals("set_type") || name.equals("thread")) {
+            return null;
+        } else if (name.equals("frame")) {
+            currentFrame = Integer.parseInt(arg.trim());
+            return null;
+        } else if (name.equals("th") && arg.equals("l")) {
+            return threadsElement();
+        } else if (name.equals("w")) {
+            return framesElement();
+        } else if (name.equals("v")) {
+            return variablesElement(arg);
+        } else if (name.equals("b")) {
+            return "<breakpointAdded no=\"" + (++lastBreakpointNo) + "\" location=\"" + escape(arg) + "\"/>";
+        } else if (name.equals("delete")) {
+            return "<breakpointDeleted no=\"" + arg + "\"/>";
+        } else if (name.equals("enable")) {
+            return "<breakpointEnabled bp_id=\"" + arg + "\"/>";
+        } else if (name.equals("disable")) {
+            return "<breakpointDisabled bp_id=\"" + arg + "\"/>";
+        } else if (name.equals("condition")) {
+            return "<conditionSet bp_id=\"" + arg.split(" ", 2)[0] + "\"/>";
+        } else if (name.equals("catch")) {
+            return arg.equals("off")
+                    ? "<message>Catch off</message>"
+                    : "<catchpointSet exception=\"" + escape(arg) + "\"/>";
+        } else if (name.equals("next") || name.equals("next+") || name.equals("step")
+                || name.equals("step+") || name.equals("finish")) {
+            return step(name.equals("finish"));
+        } else if (name.equals("jump")) {
+            Frame top = currentTopFrame();
+            if (top == null) {
+                return "<error>No frame</error>";
+            }
+            top.line = Integer.parseInt(arg.trim());
+            return suspendedElement(threads.get(currentThread), top.file, top.line);
+        } else if (name.equals("pause")) {
+            int id = Integer.parseInt(arg.trim());
+            FakeThread thread = getThread(id);
+            Frame top = thread.frames.isEmpty() ? null : thread.frames.get(0);
+            return suspendedElement(thread, top == null ? "" : top.file, top == null ? 0 : top.line);
+        }
+        return "<error>Unknown command: " + escape(command) + "</error>";
+    }
+
+    private String step(final boolean stepReturn) {
+        FakeThread thread = threads.get(currentThread);
+        Frame top = currentTopFrame();
+        if (top == null) {
+            return "<error>No thread is suspended</error>";
+        }
+        if (stepReturn && thread.frames.size() > 1) {
+            thread.frames.remove(0);
+            top = thread.frames.get(0);
+        } else {
+            top.line++;
+        }
+        return suspendedElement(thread, top.file, top.line);
+    }
+
+    private Frame currentTopFrame() {
+        FakeThread thread = threads.get(currentThread);
+        return thread == null || thread.frames.isEmpty() ? null : thread.frames.get(0);
+    }
+
+    private String suspendedElement(final FakeThread thread, final String file, final int line) {
+        thread.status = "sleep";
+        currentThread = thread.id;
+        return "<suspended file=\"" + escape(file) + "\" line=\"" + line + "\" threadId=\"" +
+                thread.id + "\" frames=\"" + thread.frames.size() + "\"/>";
+    }
+
+    private String threadsElement() {
+        StringBuilder xml = new StringBuilder(32 + threads.size() * 40).append("<threads>");
+        for (FakeThread thread : threads.values()) {
+            xml.append("<thread id=\"").append(thread.id).append("\" status=\"")
+                    .append(thread.status).append("\"/>");
+        }
+        return xml.append("</threads>").toString();
+    }
+
+    private String framesElement() {
+        FakeThread thread = threads.get(currentThread);
+        StringBuilder xml = new StringBuilder(256).append("<frames>");
+        if (thread != null) {
+            int no = 1;
+            for (Frame frame : thread.frames) {
+                xml.append("<frame no=\"").append(no++).append("\" file=\"").append(escape(frame.file))
+                        .append("\" line=\"").append(frame.line).append("\"/>");
+            }
+        }
+        return xml.append("</frames>").toString();
+    }
+
+    private String variablesElement(final String arg) {
+        List<Variable> vars;
+        if (arg.equals("l")) {
+            FakeThread thread = threads.get(currentThread);
+            vars = thread == null || currentFrame > thread.frames.size()
+                    ? new ArrayList<Variable>()
+                    : thread.frames.get(currentFrame - 1).locals;
+        } else if (arg.equals("g")) {
+            vars = globals;
+        } else if (arg.startsWith("i ")) {
+            vars = childrenOf(arg.substring(2).trim());
+        } else if (arg.startsWith("inspect ")) {
+            String expression = arg.substring(8);
+            vars = new ArrayList<Variable>(1);
+            Variable result = expressions.get(expression);
+            vars.add(result != null ? result : new Variable(expression, "watch", expression, "String", "+0x1", false));
+        } else {
+            return "<error>Unknown variables: " + escape(arg) + "</error>";
+        }
+        StringBuilder xml = new StringBuilder(32 + vars.size() * 120).append("<variables>");
+        for (Variable var : vars) {
+            xml.append("<variable name=\"").append(escape(var.name))
+                    .append("\" kind=\"").append(var.kind)
+                    .append("\" value=\"").append(escape(var.value))
+                    .append("\" type=\"").append(escape(var.type))
+                    .append("\" hasChildren=\"").append(var.hasChildren)
+                    .append("\" objectId=\"").append(var.objectId).append("\"/>");
+        }
+        return xml.append("</variables>").toString();
+    }
+
+    private List<Variable> childrenOf(final String objectId) {
+        List<Variable> vars = children.get(objectId);
+        if (vars != null) {
+            return vars;
+        }
+        vars = new ArrayList<Variable>(syntheticChildren);
+        for (int i = 0; i < syntheticChildren; i++) {
+            vars.add(new Variable("@ivar" + i, "instance", "value" + i, "Object",
+                    objectId + '.' + i, true));
+        }
+        return vars;
+    }
+
+    private void delay(final String command) {
+        long millis;
+        synchronized (this) {
+            Long specific = latencies.get(command.split(" ", 2)[0]);
+            Long fallback = latencies.get(null);
+            millis = specific != null ? specific : fallback != null ? fallback : 0;
+        }
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void send(final String xml) throws IOException {
+        Writer out;
+        synchronized (this) {
+            out = writer;
+        }
+        if (out == null) {
+            throw new IOException("Not connected");
+        }
+        synchronized (out) {
+            out.write(xml);
+            out.flush();
+        }
+    }
+
+    private void closeConnection() {
+        Socket client;
+        synchronized (this) {
+            client = socket;
+            socket = null;
+            writer = null;
+        }
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot close connection", e);
+            }
+        }
+    }
+
+    private static void closeQuietly(final ServerSocket server) {
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot close server socket", e);
+            }
+        }
+    }
+
+    private FakeThread getThread(final int id) {
+        FakeThread thread = threads.get(id);
+        if (thread == null) {
+            thread = new FakeThread(id);
+            threads.put(id, thread);
+        }
+        return thread;
+    }
+
+    private static String objectId(final int thread, final int frame, final int var) {
+        return "+0x" + Integer.toHexString((thread * 1000 + frame) * 1000 + var);
+    }
+
+    private static String escape(final String text) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < text.length(); i++) {
+            String entity;
+            switch (text.charAt(i)) {
+            case '&': entity = "&amp;"; break;
+            case '<': entity = "&lt;"; break;
+            case '>': entity = "&gt;"; break;
+            case '"': entity = "&quot;"; break;
+            default: entity = null;
+            }
+            if (entity != null && escaped == null) {
+                escaped = new StringBuilder(text.length() + 16).append(text, 0, i);
+            }
+            if (escaped != null) {
+                if (entity != null) {
+                    escaped.append(entity);
+                } else {
+                    escaped.append(text.charAt(i));
+                }
+            }
+        }
+        return escaped == null ? text : escaped.toString();
+    }
+
+}
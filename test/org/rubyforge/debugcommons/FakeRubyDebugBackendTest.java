@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.model.IRubyBreakpoint;
+import org.rubyforge.debugcommons.model.RubyDebugTarget;
+import org.rubyforge.debugcommons.model.RubyFrame;
+import org.rubyforge.debugcommons.model.RubyThread;
+import org.rubyforge.debugcommons.model.RubyVariable;
+
+public class FakeRubyDebugBackendTest extends TestCase {
+
+    private FakeRubyDebugBackend backend;
+    private RubyDebuggerProxy proxy;
+
+    public FakeRubyDebugBackendTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        backend = new FakeRubyDebugBackend();
+        backend.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (proxy != null) {
+            proxy.finish(true);
+        }
+        backend.stop();
+        super.tearDown();
+    }
+
+    private RubyDebuggerProxy attach(final IRubyBreakpoint... breakpoints) throws Exception {
+        proxy = new RubyDebuggerProxy(RubyDebuggerProxy.RUBY_DEBUG, 5);
+        proxy.setDebugTarget(new RubyDebugTarget(proxy, "127.0.0.1", backend.getPort()));
+        proxy.setConditionSupport(true);
+        proxy.attach(breakpoints);
+        assertTrue("debuggee started", backend.awaitCommand("start", 5000));
+        return proxy;
+    }
+
+    private static CountDownLatch awaitSuspensions(final RubyDebuggerProxy proxy, final int count,
+            final RubyThread[] lastSuspended) {
+        final CountDownLatch suspended = new CountDownLatch(count);
+        proxy.addRubyDebugEventListener(new RubyDebugEventListener() {
+            public void onDebugEvent(RubyDebugEvent e) {
+                if (e.isSuspensionType()) {
+                    lastSuspended[0] = e.getRubyThread();
+                    suspended.countDown();
+                }
+            }
+        });
+        return suspended;
+    }
+
+    public void testBreakpointsAreAnswered() throws Exception {
+        DebuggerTestBase.TestBreakpoint first = new DebuggerTestBase.TestBreakpoint("/fake/a.rb", 3);
+        attach(first, new DebuggerTestBase.TestBreakpoint("/fake/a.rb", 7, "x > 1"));
+        assertTrue(backend.getCommands().contains("b /fake/a.rb:3"));
+        assertTrue(backend.getCommands().contains("condition 2 x > 1"));
+        proxy.removeBreakpoint(first);
+        assertTrue(backend.getCommands().contains("delete 1"));
+    }
+
+    public void testBreakpointRepliesArePositional() throws Exception {
+        backend.failCommand("b /fake/bad.rb:1", "No such file");
+        attach();
+        DebuggerTestBase.TestBreakpoint duplicated = new DebuggerTestBase.TestBreakpoint("/fake/a.rb", 3);
+        DebuggerTestBase.TestBreakpoint bad = new DebuggerTestBase.TestBreakpoint("/fake/bad.rb", 1);
+        DebuggerTestBase.TestBreakpoint conditional = new DebuggerTestBase.TestBreakpoint("/fake/a.rb", 7, "x > 1");
+        Map<IRubyBreakpoint, RubyDebuggerException> failures = proxy.addBreakpoints(
+                new IRubyBreakpoint[] { duplicated, bad, duplicated, conditional });
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(bad).getMessage(), failures.get(bad).getMessage().contains("No such file"));
+        int added = 0;
+        for (String command : backend.getCommands()) {
+            if (command.equals("b /fake/a.rb:3")) {
+                added++;
+            }
+        }
+        assertEquals("duplicate added per occurrence", 2, added);
+        assertTrue("condition set on the breakpoint after the failed one",
+                backend.getCommands().contains("condition 3 x > 1"));
+    }
+
+    public void testFramesAndVariables() throws Exception {
+        backend.setSyntheticChildren(3);
+        backend.populate(2, 3, 4);
+        attach();
+        RubyThread[] suspendedThread = new RubyThread[1];
+        CountDownLatch suspended = awaitSuspensions(proxy, 1, suspendedThread);
+        backend.hitBreakpoint(2, "/fake/thread2.rb", 10);
+        assertTrue("suspended", suspended.await(5, TimeUnit.SECONDS));
+        assertEquals(2, suspendedThread[0].getId());
+        RubyFrame[] frames = suspendedThread[0].getFrames();
+        assertEquals(3, frames.length);
+        assertEquals("/fake/thread2.rb", frames[0].getFile());
+        RubyVariable[] locals = frames[0].getVariables();
+        assertEquals(4, locals.length);
+        assertEquals(3, proxy.readInstanceVariables(locals[0]).length);
+    }
+
+    public void testSuspensionStorm() throws Exception {
+        backend.populate(50, 1, 0);
+        attach();
+        final Set<RubyThread> suspendedThreads = Collections.synchronizedSet(new HashSet<RubyThread>());
+        CountDownLatch suspended = awaitSuspensions(proxy, 2000, new RubyThread[1]);
+        proxy.addRubyDebugEventListener(new RubyDebugEventListener() {
+            public void onDebugEvent(RubyDebugEvent e) {
+                if (e.isSuspensionType()) {
+                    suspendedThreads.add(e.getRubyThread());
+                }
+            }
+        });
+        // the shared dispatcher may replace a waiting suspension of a thread
+        // by its newer one, but never drops the latest one
+        SuspensionDispatcher dispatcher = proxy.getSuspensionDispatcher();
+        long coalescedBefore = dispatcher.getCoalescedCount();
+        long droppedBefore = dispatcher.getDroppedCount();
+        backend.suspensionStorm(2000);
+        long deadline = System.currentTimeMillis() + 30000;
+        long handled;
+        do {
+            Thread.sleep(50);
+            handled = 2000 - suspended.getCount() + dispatcher.getCoalescedCount() - coalescedBefore;
+        } while (handled < 2000 && System.currentTimeMillis() < deadline);
+        assertEquals("all suspensions delivered or replaced by newer ones", 2000, handled);
+        assertEquals("nothing dropped", droppedBefore, dispatcher.getDroppedCount());
+        assertEquals("every thread delivered", 50, suspendedThreads.size());
+        assertEquals(50, proxy.getDebugTarget().getThreads().length);
+    }
+
+    public void testLatencyIsInjected() throws Exception {
+        backend.populate(1, 1, 1);
+        backend.setLatency("w", 200);
+        attach();
+        RubyThread[] suspendedThread = new RubyThread[1];
+        CountDownLatch suspended = awaitSuspensions(proxy, 1, suspendedThread);
+        backend.suspend(1);
+        assertTrue("suspended", suspended.await(5, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        assertEquals(1, proxy.readFrames(suspendedThread[0]).length);
+        assertTrue("delayed", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 190);
+    }
+
+    public void testErrorsArePairedWithTheirCommands() throws Exception {
+        backend.addFrame(1, "/fake/error.rb", 3);
+        backend.addLocal(1, 1, new FakeRubyDebugBackend.Variable("gone", "local", "#<Object>", "Object", "+0x10", true));
+        backend.addLocal(1, 1, new FakeRubyDebugBackend.Variable("kept", "local", "#<Object>", "Object", "+0x20", true));
+        backend.addChild("+0x20", new FakeRubyDebugBackend.Variable("@a", "instance", "1", "Fixnum", "+0x3", false));
+        backend.failCommand("v i +0x10", "Unknown object id: +0x10");
+        attach();
+        RubyThread[] suspendedThread = new RubyThread[1];
+        CountDownLatch suspended = awaitSuspensions(proxy, 1, suspendedThread);
+        backend.suspend(1);
+        assertTrue("suspended", suspended.await(5, TimeUnit.SECONDS));
+        RubyVariable[] locals = suspendedThread[0].getTopFrame().getVariables();
+        RubyDebugFuture<RubyVariable[]> gone = proxy.readInstanceVariablesAsync(locals[0]);
+        RubyDebugFuture<RubyVariable[]> kept = proxy.readInstanceVariablesAsync(locals[1]);
+        try {
+            gone.await();
+            fail("error expected");
+        } catch (RubyDebuggerException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Unknown object id"));
+        }
+        assertEquals("@a", kept.await()[0].getName());
+
+        backend.failCommand("jump 9", "No frame");
+        proxy.jump(9);
+        suspendedThread[0].getTopFrame().clearCachedVariables();
+        assertEquals("answer after an error of a command without response",
+                2, suspendedThread[0].getTopFrame().getVariables().length);
+    }
+
+}
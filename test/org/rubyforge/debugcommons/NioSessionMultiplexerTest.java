@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.model.RubyVariableInfo;
+import org.rubyforge.debugcommons.model.SuspensionPoint;
+
+public class NioSessionMultiplexerTest extends TestCase {
+
+    private NioSessionMultiplexer multiplexer;
+    private ServerSocket server;
+    private Socket backend;
+    private ReadersSupport readersSupport;
+    private BlockingQueue<SuspensionPoint> suspensions;
+    private NioSession session;
+
+    public NioSessionMultiplexerTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        multiplexer = new NioSessionMultiplexer(1, 1);
+        server = new ServerSocket(0);
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+        backend = server.accept();
+        readersSupport = new ReadersSupport(5);
+        suspensions = new LinkedBlockingQueue<SuspensionPoint>();
+        readersSupport.setSuspensionListener(new ReadersSupport.SuspensionListener() {
+            public void suspended(SuspensionPoint sp) {
+                suspensions.add(sp);
+            }
+        });
+        session = multiplexer.register(channel, readersSupport);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        backend.close();
+        server.close();
+        multiplexer.shutdown();
+        super.tearDown();
+    }
+
+    private void send(final String data) throws Exception {
+        OutputStream out = backend.getOutputStream();
+        out.write(data.getBytes("UTF-8"));
+        out.flush();
+    }
+
+    public void testFragmentedResponses() throws Exception {
+        RubyDebugFuture<RubyVariableInfo[]> first = readersSupport.register(readersSupport.variablesResponse());
+        RubyDebugFuture<RubyVariableInfo[]> second = readersSupport.register(readersSupport.variablesResponse());
+        send("<?xml version='1.0'?><variables><variable name='a' kind='lo");
+        Thread.sleep(50);
+        send("cal' value='&lt;1&gt;'/></variables>PROMPT <variables><variable name='že' kind='local'/>");
+        Thread.sleep(50);
+        send("</variables>");
+        RubyVariableInfo a = readersSupport.await(first)[0];
+        assertEquals("a", a.getName());
+        assertEquals("<1>", a.getValue());
+        assertEquals("že", readersSupport.await(second)[0].getName());
+    }
+
+    public void testSuspensionsAndEnd() throws Exception {
+        send("<breakpoint file='/tmp/test.rb' line='4' threadId='1'/><suspended file='/tmp/test.rb' line='5' threadId='2' frames='1'/>");
+        SuspensionPoint sp = suspensions.poll(5, TimeUnit.SECONDS);
+        assertEquals(4, sp.getLine());
+        sp = suspensions.poll(5, TimeUnit.SECONDS);
+        assertEquals(2, sp.getThreadId());
+        backend.close();
+        assertSame(SuspensionPoint.END, suspensions.poll(5, TimeUnit.SECONDS));
+        assertFalse(readersSupport.isUnexpectedFail());
+    }
+
+    public void testCommandsAreWritten() throws Exception {
+        PrintWriter writer = new PrintWriter(session.getOutputStream(), true);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(backend.getInputStream(), "UTF-8"));
+        for (int i = 0; i < 100; i++) {
+            writer.println("v inspect " + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("v inspect " + i, reader.readLine());
+        }
+    }
+
+    public void testSerialExecutorKeepsOrder() throws Exception {
+        final BlockingQueue<Integer> order = new LinkedBlockingQueue<Integer>();
+        Executor executor = multiplexer.newSerialExecutor();
+        for (int i = 0; i < 50; i++) {
+            final int no = i;
+            executor.execute(new Runnable() {
+                public void run() {
+                    order.add(no);
+                }
+            });
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Integer.valueOf(i), order.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.ByteArrayInputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class OutputPumpTest extends TestCase {
+
+    public OutputPumpTest(String testName) {
+        super(testName);
+    }
+
+    public void testTailKeepsLastBytes() throws Exception {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            output.append(i).append('\n');
+        }
+        OutputPump pump = new OutputPump(new ByteArrayInputStream(output.toString().getBytes()), "test", 100);
+        pump.start();
+        assertTrue("drained", pump.awaitFinished(5000));
+        assertEquals(output.length(), pump.getBytesRead());
+        assertEquals(output.substring(output.length() - 100), pump.getTail());
+    }
+
+    public void testShortOutput() throws Exception {
+        OutputPump pump = new OutputPump(new ByteArrayInputStream("abc".getBytes()), "test", 100);
+        pump.start();
+        assertTrue("drained", pump.awaitFinished(5000));
+        assertEquals("abc", pump.getTail());
+    }
+
+    public void testLinesAcrossChunks() throws Exception {
+        PipedOutputStream debuggee = new PipedOutputStream();
+        OutputPump pump = new OutputPump(new PipedInputStream(debuggee), "test", 100);
+        final List<String> lines = new ArrayList<String>();
+        pump.addListener(new OutputPump.LineListener() {
+            @Override
+            protected void line(String line) {
+                lines.add(line);
+            }
+        });
+        pump.start();
+        debuggee.write("Fast Debugger (ruby-debug-ide 0.4.5) ".getBytes());
+        debuggee.flush();
+        debuggee.write("listens on :1234\r\nsecond".getBytes());
+        debuggee.close();
+        assertTrue("drained", pump.awaitFinished(5000));
+        assertEquals(2, lines.size());
+        assertEquals("Fast Debugger (ruby-debug-ide 0.4.5) listens on :1234", lines.get(0));
+        assertEquals("second", lines.get(1));
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.model.RubyFrameInfo;
+import org.rubyforge.debugcommons.model.RubyVariableInfo;
+
+public class PipelinedResponsesTest extends TestCase {
+
+    private PipedOutputStream backend;
+    private ReadersSupport readersSupport;
+
+    public PipelinedResponsesTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        backend = new PipedOutputStream();
+        readersSupport = new ReadersSupport(5);
+        readersSupport.startCommandLoop(new PipedInputStream(backend));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        backend.close();
+        super.tearDown();
+    }
+
+    private void send(final String xml) throws IOException {
+        backend.write(xml.getBytes("UTF-8"));
+        backend.flush();
+    }
+
+    public void testResponsesReachTheirCommands() throws Exception {
+        RubyDebugFuture<RubyVariableInfo[]> first = readersSupport.register(readersSupport.variablesResponse());
+        RubyDebugFuture<RubyFrameInfo[]> frames = readersSupport.register(readersSupport.framesResponse());
+        RubyDebugFuture<RubyVariableInfo[]> second = readersSupport.register(readersSupport.variablesResponse());
+        send("<variables><variable name='a' kind='local' value='1' type='Fixnum' hasChildren='false' objectId='+0x3'/></variables>");
+        send("<frames><frame no='1' file='/tmp/test.rb' line='3'/></frames>");
+        send("<variables><variable name='b' kind='local' value='2' type='Fixnum' hasChildren='false' objectId='+0x5'/></variables>");
+        assertEquals("a", readersSupport.await(first)[0].getName());
+        assertEquals("b", readersSupport.await(second)[0].getName());
+        assertEquals(3, readersSupport.await(frames)[0].getLine());
+    }
+
+    public void testLateResponseIsNotHandedToNextCommand() throws Exception {
+        RubyDebugFuture<RubyVariableInfo[]> slow = readersSupport.register(readersSupport.variablesResponse());
+        RubyDebugFuture<RubyVariableInfo[]> next = readersSupport.register(readersSupport.variablesResponse());
+        slow.cancel(false);
+        send("<variables><variable name='slow' kind='local'/></variables>");
+        send("<variables><variable name='next' kind='local'/></variables>");
+        assertEquals("next", readersSupport.await(next)[0].getName());
+        assertTrue(slow.isCancelled());
+    }
+
+    public void testLatencyIsMeasuredFromHeadOfQueue() throws Exception {
+        RubyDebugFuture<RubyFrameInfo[]> first = readersSupport.register(readersSupport.framesResponse());
+        RubyDebugFuture<RubyFrameInfo[]> second = readersSupport.register(readersSupport.framesResponse());
+        assertTrue("first is processed", first.getStarted() != 0);
+        assertEquals("second is queued", 0, second.getStarted());
+        Thread.sleep(200);
+        send("<frames><frame no='1' file='/tmp/test.rb' line='3'/></frames>");
+        readersSupport.await(first);
+        assertTrue("second is started once first is answered",
+                TimeUnit.NANOSECONDS.toMillis(second.getStarted() - first.getStarted()) >= 200);
+        send("<frames><frame no='1' file='/tmp/test.rb' line='4'/></frames>");
+        assertEquals(4, readersSupport.await(second)[0].getLine());
+    }
+
+    public void testLateResponseOfTimedOutCommandIsAbsorbed() throws Exception {
+        readersSupport.getTimeouts().setTimeout(CommandType.INSPECT, 50);
+        RubyDebugFuture<RubyVariableInfo[]> inspected = readersSupport.register(readersSupport.inspectResponse());
+        RubyDebugFuture<RubyVariableInfo[]> locals = readersSupport.register(readersSupport.variablesResponse());
+        try {
+            readersSupport.await(inspected);
+            fail("RubyDebuggerException expected");
+        } catch (RubyDebuggerException e) {
+            // OK - timed out
+        }
+        send("<variables><variable name='inspected' kind='watch'/></variables>");
+        send("<variables><variable name='local' kind='local'/></variables>");
+        assertEquals("local", readersSupport.await(locals)[0].getName());
+    }
+
+    public void testPendingCommandsFailWhenConnectionIsClosed() throws Exception {
+        RubyDebugFuture<RubyFrameInfo[]> frames = readersSupport.register(readersSupport.framesResponse());
+        backend.close();
+        try {
+            readersSupport.await(frames);
+            fail("RubyDebuggerException expected");
+        } catch (RubyDebuggerException e) {
+            // OK - expected
+        }
+    }
+
+    public void testDrainedOnEndOfStream() throws Exception {
+        assertFalse("not drained yet", readersSupport.awaitDrained(10));
+        backend.close();
+        assertTrue("drained", readersSupport.awaitDrained(5000));
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import junit.framework.TestCase;
+
+public class RubyDebugFutureTest extends TestCase {
+
+    public RubyDebugFutureTest(String testName) {
+        super(testName);
+    }
+
+    public void testListenersAreNotifiedOnCompletion() throws Exception {
+        RubyDebugFuture<String> future = new RubyDebugFuture<String>("variables", "test");
+        final List<String> results = new ArrayList<String>();
+        future.addListener(new RecordingListener(results));
+        assertTrue("nothing delivered before completion", results.isEmpty());
+        assertTrue(future.complete("a"));
+        assertFalse("completed only once", future.complete("b"));
+        future.addListener(new RecordingListener(results));
+        assertEquals("[a, a]", results.toString());
+    }
+
+    public void testTransformAndChain() throws Exception {
+        RubyDebugFuture<String> source = new RubyDebugFuture<String>("variables", "test");
+        final RubyDebugFuture<Integer> second = new RubyDebugFuture<Integer>("frames", "second");
+        RubyDebugFuture<Integer> length = source.transform(new RubyDebugFuture.Function<String, Integer>() {
+            public Integer apply(String source) {
+                return source.length();
+            }
+        });
+        RubyDebugFuture<Integer> chained = length.chain(new RubyDebugFuture.Function<Integer, RubyDebugFuture<Integer>>() {
+            public RubyDebugFuture<Integer> apply(Integer source) {
+                return second;
+            }
+        });
+        source.complete("abc");
+        assertEquals(Integer.valueOf(3), length.get());
+        assertFalse("waits for the second future", chained.isDone());
+        second.complete(42);
+        assertEquals(Integer.valueOf(42), chained.get());
+    }
+
+    public void testFailureIsPropagated() throws Exception {
+        RubyDebugFuture<String> source = new RubyDebugFuture<String>("variables", "test");
+        RubyDebugFuture<Integer> derived = source.transform(new RubyDebugFuture.Function<String, Integer>() {
+            public Integer apply(String source) {
+                throw new AssertionError("not to be called");
+            }
+        });
+        source.fail(new RubyDebuggerException("failure"));
+        try {
+            derived.get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertEquals("failure", e.getCause().getMessage());
+        }
+    }
+
+    public void testGetAfterCancelThrowsCancellationException() throws Exception {
+        RubyDebugFuture<String> future = new RubyDebugFuture<String>("variables", "test");
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        try {
+            future.get();
+            fail("CancellationException expected");
+        } catch (CancellationException e) {
+            // OK - expected
+        }
+        try {
+            future.await();
+            fail("RubyDebuggerException expected");
+        } catch (RubyDebuggerException e) {
+            // OK - expected
+        }
+    }
+
+    private static final class RecordingListener implements RubyDebugFuture.Listener<String> {
+
+        private final List<String> results;
+
+        RecordingListener(final List<String> results) {
+            this.results = results;
+        }
+
+        public void completed(String result) {
+            results.add(result);
+        }
+
+        public void failed(RubyDebuggerException e) {
+            results.add(e.getMessage());
+        }
+    }
+
+}
@@ -74,8 +74,10 @@ public final class RubyDebuggerProxyTest extends DebuggerTestBase {
     public void testIsFinished() throws Exception {
         final RubyDebuggerProxy proxy = prepareProxy("sleep 0.01");
         assertFalse("proxy not ready yet", proxy.isReady());
+        assertEquals("not attached yet", -1, proxy.getAttachTime());
         attach(proxy, new IRubyLineBreakpoint[]{}, 0);
         assertTrue("proxy not ready yet", proxy.isReady());
+        assertTrue("attach time measured", proxy.getAttachTime() >= 0);
     }
     
     public void testBreakpointsRemoving1() throws Exception {
@@ -273,6 +275,27 @@ public final class RubyDebuggerProxyTest extends DebuggerTestBase {
         resumeSuspendedThread(proxy); // i == 10
         resumeSuspendedThread(proxy); // finish
     }
+
+    public void testBulkBreakpointsInstallation() throws Exception {
+        final RubyDebuggerProxy proxy = prepareProxy(
+                "1.upto(3) do |i|", // 1
+                "  sleep 0.01",     // 2
+                "  sleep 0.01",     // 3
+                "  sleep 0.01",     // 4
+                "end");             // 5
+        final TestBreakpoint disabled = new TestBreakpoint("test.rb", 2);
+        disabled.setEnabled(false);
+        final TestBreakpoint[] breakpoints = new TestBreakpoint[]{
+            disabled,
+            new TestBreakpoint("test.rb", 3, "i>2"),
+            new TestBreakpoint("test.rb", 4),
+        };
+        attach(proxy, breakpoints, 1);    // 4, i == 1
+        resumeSuspendedThread(proxy);     // 4, i == 2
+        resumeSuspendedThread(proxy);     // 3, i == 3
+        resumeSuspendedThread(proxy);     // 4, i == 3
+        resumeSuspendedThread(proxy);     // finish
+    }
     
     public void testCatchpoint() throws Exception {
         final RubyDebuggerProxy proxy = prepareProxy(
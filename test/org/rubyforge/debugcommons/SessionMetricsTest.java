@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.model.RubyVariableInfo;
+
+public class SessionMetricsTest extends TestCase {
+
+    private PipedOutputStream backend;
+    private ReadersSupport readersSupport;
+
+    public SessionMetricsTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        backend = new PipedOutputStream();
+        readersSupport = new ReadersSupport(5);
+        readersSupport.startCommandLoop(new PipedInputStream(backend));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        backend.close();
+        super.tearDown();
+    }
+
+    public void testCommandsAndTrafficAreCounted() throws Exception {
+        SessionMetrics metrics = readersSupport.getMetrics();
+        RubyDebugFuture<RubyVariableInfo[]> variables = readersSupport.register(readersSupport.variablesResponse());
+        assertEquals(1, metrics.getPendingResponses());
+        assertEquals(1, metrics.getPendingResponses("variables"));
+        assertEquals(0, metrics.getPendingResponses("frames"));
+        byte[] response = "<variables><variable name='a' kind='local'/></variables>".getBytes("UTF-8");
+        backend.write(response);
+        backend.flush();
+        readersSupport.await(variables);
+        assertEquals(0, metrics.getPendingResponses());
+        assertEquals(0, metrics.getPendingResponses("variables"));
+        assertEquals(1, metrics.getCommandCount("VARIABLES"));
+        assertEquals(0, metrics.getCommandFailures("VARIABLES"));
+        assertEquals(0, metrics.getCommandCount("FRAMES"));
+        assertTrue("latency recorded", metrics.getLatencyPercentile("VARIABLES", 0.5) >= 0);
+        backend.close();
+        assertTrue("drained", readersSupport.awaitDrained(5000));
+        assertEquals(response.length, metrics.getBytesRead());
+    }
+
+    public void testReportToRegistry() throws Exception {
+        final Map<String, Long> values = new HashMap<String, Long>();
+        readersSupport.getMetrics().commandCompleted(CommandType.FRAMES, 3);
+        readersSupport.getMetrics().commandFailed(CommandType.FRAMES);
+        readersSupport.getMetrics().reportTo(new MetricsRegistry() {
+            public void counter(String session, String name, long value) {
+                values.put(name, value);
+            }
+            public void gauge(String session, String name, long value) {
+                values.put(name, value);
+            }
+            public void histogram(String session, String name, long[] upperBounds, long[] counts) {
+                long count = 0;
+                for (long c : counts) {
+                    count += c;
+                }
+                values.put(name, count);
+            }
+        }, "test");
+        assertEquals(Long.valueOf(2), values.get("commands.frames.count"));
+        assertEquals(Long.valueOf(1), values.get("commands.frames.failures"));
+        assertEquals(Long.valueOf(1), values.get("commands.frames.latency"));
+        assertEquals(Long.valueOf(0), values.get("queues.pending.frames"));
+    }
+
+    public void testJmxRegistration() throws Exception {
+        RubyDebuggerProxy proxy = new RubyDebuggerProxy(RubyDebuggerProxy.RUBY_DEBUG);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.rubyforge.debugcommons:type=DebuggerSession,name=" +
+                DebuggerMetrics.getSessionId(proxy));
+        boolean jmxEnabled = DebuggerMetrics.isJmxEnabled();
+        DebuggerMetrics.setJmxEnabled(true);
+        try {
+            DebuggerMetrics.register(proxy);
+            assertTrue("registered", server.isRegistered(name));
+            assertEquals(Long.valueOf(0), server.getAttribute(name, "BytesRead"));
+            DebuggerMetrics.unregister(proxy);
+            assertFalse("unregistered", server.isRegistered(name));
+        } finally {
+            DebuggerMetrics.setJmxEnabled(jmxEnabled);
+        }
+    }
+
+}
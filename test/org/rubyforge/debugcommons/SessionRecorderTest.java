@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.model.IRubyBreakpoint;
+import org.rubyforge.debugcommons.model.RubyDebugTarget;
+import org.rubyforge.debugcommons.model.RubyFrameInfo;
+
+public class SessionRecorderTest extends TestCase {
+
+    private File recording;
+    private FakeRubyDebugBackend backend;
+
+    public SessionRecorderTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        recording = File.createTempFile("session", ".rec");
+        backend = new FakeRubyDebugBackend();
+        backend.start();
+        backend.populate(3, 2, 5);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        backend.stop();
+        recording.delete();
+        super.tearDown();
+    }
+
+    private void recordSession() throws Exception {
+        RubyDebuggerProxy proxy = new RubyDebuggerProxy(RubyDebuggerProxy.RUBY_DEBUG, 5);
+        proxy.setDebugTarget(new RubyDebugTarget(proxy, "127.0.0.1", backend.getPort()));
+        SessionRecorder recorder = new SessionRecorder(recording);
+        proxy.setRecorder(recorder);
+        final CountDownLatch suspended = new CountDownLatch(1);
+        proxy.addRubyDebugEventListener(new RubyDebugEventListener() {
+            public void onDebugEvent(RubyDebugEvent e) {
+                if (e.isSuspensionType()) {
+                    suspended.countDown();
+                }
+            }
+        });
+        proxy.attach(new IRubyBreakpoint[] { new DebuggerTestBase.TestBreakpoint("/fake/a.rb", 3) });
+        backend.hitBreakpoint(2, "/fake/a.rb", 3);
+        assertTrue("suspended", suspended.await(5, TimeUnit.SECONDS));
+        proxy.getDebugTarget().getThreadById(2).getFrames()[0].getVariables();
+        proxy.finish(true);
+        recorder.close();
+        assertTrue("records written", recorder.getRecords() > 0);
+    }
+
+    public void testSessionIsReplayed() throws Exception {
+        recordSession();
+        SessionReplayer replayer = new SessionReplayer(recording);
+        List<String> commands = replayer.getCommands();
+        assertEquals("b /fake/a.rb:3", commands.get(0));
+        assertTrue(commands.contains("start"));
+        assertTrue(commands.contains("w"));
+        SessionMetrics metrics = replayer.replay(false, 5000);
+        assertEquals(replayer.getInputLength(), metrics.getBytesRead());
+        assertEquals(0, metrics.getParserErrors());
+        assertEquals(1, metrics.getSuspensions());
+    }
+
+    public void testReplayedResponsesReachCommands() throws Exception {
+        recordSession();
+        final ReadersSupport readersSupport = new ReadersSupport(5);
+        final List<RubyDebugFuture<RubyFrameInfo[]>> frames = new ArrayList<RubyDebugFuture<RubyFrameInfo[]>>();
+        new SessionReplayer(recording).startReplay(readersSupport, true, new SessionReplayer.CommandHandler() {
+            public void commandSent(String command) {
+                if (command.equals("w")) {
+                    frames.add(readersSupport.register(readersSupport.framesResponse()));
+                }
+            }
+        });
+        assertTrue("drained", readersSupport.awaitDrained(5000));
+        assertEquals(1, frames.size());
+        assertEquals(2, readersSupport.await(frames.get(0)).length);
+    }
+
+    public void testTruncatedRecordingIsRead() throws Exception {
+        recordSession();
+        int commands = new SessionReplayer(recording).getCommands().size();
+        RandomAccessFile file = new RandomAccessFile(recording, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+        SessionReplayer truncated = new SessionReplayer(recording);
+        assertTrue(truncated.getCommands().size() <= commands);
+        truncated.replay(false, 5000);
+    }
+
+}
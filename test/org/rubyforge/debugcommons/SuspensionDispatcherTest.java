@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.SuspensionDispatcher.OverflowPolicy;
+import org.rubyforge.debugcommons.model.BreakpointSuspensionPoint;
+import org.rubyforge.debugcommons.model.SuspensionPoint;
+
+public class SuspensionDispatcherTest extends TestCase {
+
+    private SuspensionDispatcher dispatcher;
+
+    public SuspensionDispatcherTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+        super.tearDown();
+    }
+
+    private static SuspensionPoint suspension(final int threadId, final int line) {
+        SuspensionPoint sp = new BreakpointSuspensionPoint();
+        sp.setFile("test.rb");
+        sp.setThreadId(threadId);
+        sp.setLine(line);
+        return sp;
+    }
+
+    public void testSuspensionsOfThreadAreOrdered() throws Exception {
+        dispatcher = new SuspensionDispatcher(4, 1000, OverflowPolicy.BLOCK);
+        final List<Integer> lines = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(100);
+        SuspensionDispatcher.Handler handler = new SuspensionDispatcher.Handler() {
+            public void suspensionOccurred(SuspensionPoint sp) {
+                lines.add(sp.getLine());
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(handler, suspension(1, i));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), lines.get(i));
+        }
+    }
+
+    public void testThreadsAreHandledConcurrently() throws Exception {
+        dispatcher = new SuspensionDispatcher(2, 10, OverflowPolicy.BLOCK);
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        SuspensionDispatcher.Handler handler = new SuspensionDispatcher.Handler() {
+            public void suspensionOccurred(SuspensionPoint sp) {
+                bothRunning.countDown();
+                try {
+                    if (bothRunning.await(5, TimeUnit.SECONDS)) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        dispatcher.dispatch(handler, suspension(1, 1));
+        dispatcher.dispatch(handler, suspension(2, 1));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testOverflowPolicies() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> lines = Collections.synchronizedList(new ArrayList<Integer>());
+        SuspensionDispatcher.Handler handler = new SuspensionDispatcher.Handler() {
+            public void suspensionOccurred(SuspensionPoint sp) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                lines.add(sp.getLine());
+            }
+        };
+        dispatcher = new SuspensionDispatcher(1, 1, OverflowPolicy.COALESCE);
+        dispatcher.dispatch(handler, suspension(1, 1)); // running
+        while (dispatcher.getPendingCount() > 0) {
+            Thread.sleep(1);
+        }
+        dispatcher.dispatch(handler, suspension(1, 2)); // waiting
+        dispatcher.dispatch(handler, suspension(1, 3)); // replaces 2
+        dispatcher.dispatch(handler, suspension(2, 4)); // nothing to coalesce, accepted over the bound
+        dispatcher.dispatch(handler, suspension(2, 5)); // replaces 4
+        assertEquals(2, dispatcher.getCoalescedCount());
+        assertEquals(0, dispatcher.getDroppedCount());
+        release.countDown();
+        while (lines.size() < 3) {
+            Thread.sleep(1);
+        }
+        assertEquals(Integer.valueOf(1), lines.get(0));
+        assertTrue(lines.contains(3));
+        assertTrue(lines.contains(5));
+        assertEquals(3, lines.size());
+    }
+
+    public void testDropWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        SuspensionDispatcher.Handler handler = new SuspensionDispatcher.Handler() {
+            public void suspensionOccurred(SuspensionPoint sp) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        dispatcher = new SuspensionDispatcher(1, 1, OverflowPolicy.DROP);
+        dispatcher.dispatch(handler, suspension(1, 1)); // running
+        while (dispatcher.getPendingCount() > 0) {
+            Thread.sleep(1);
+        }
+        dispatcher.dispatch(handler, suspension(1, 2)); // waiting
+        dispatcher.dispatch(handler, suspension(1, 3)); // dropped
+        assertEquals(1, dispatcher.getDroppedCount());
+        release.countDown();
+    }
+
+    public void testCapacityIsPerSession() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch other = new CountDownLatch(1);
+        SuspensionDispatcher.Handler flooding = new SuspensionDispatcher.Handler() {
+            public void suspensionOccurred(SuspensionPoint sp) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        SuspensionDispatcher.Handler quiet = new SuspensionDispatcher.Handler() {
+            public void suspensionOccurred(SuspensionPoint sp) {
+                other.countDown();
+            }
+        };
+        dispatcher = new SuspensionDispatcher(2, 1, OverflowPolicy.BLOCK);
+        dispatcher.dispatch(flooding, suspension(1, 1)); // running
+        while (dispatcher.getPendingCount() > 0) {
+            Thread.sleep(1);
+        }
+        dispatcher.dispatch(flooding, suspension(1, 2)); // waiting, flooding session is full
+        dispatcher.dispatch(quiet, suspension(1, 1)); // does not block
+        assertTrue(other.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.model.IRubyBreakpoint;
+import org.rubyforge.debugcommons.model.RubyDebugTarget;
+import org.rubyforge.debugcommons.model.RubyFrame;
+import org.rubyforge.debugcommons.model.RubyThread;
+
+public class SuspensionPrefetcherTest extends TestCase {
+
+    private FakeRubyDebugBackend backend;
+    private RubyDebuggerProxy proxy;
+
+    public SuspensionPrefetcherTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        backend = new FakeRubyDebugBackend();
+        backend.start();
+        backend.populate(2, 3, 4);
+        proxy = new RubyDebuggerProxy(RubyDebuggerProxy.RUBY_DEBUG, 5);
+        proxy.setDebugTarget(new RubyDebugTarget(proxy, "127.0.0.1", backend.getPort()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        proxy.finish(true);
+        backend.stop();
+        super.tearDown();
+    }
+
+    private RubyThread suspend(final int threadId) throws Exception {
+        final CountDownLatch suspended = new CountDownLatch(1);
+        final RubyThread[] thread = new RubyThread[1];
+        proxy.addRubyDebugEventListener(new RubyDebugEventListener() {
+            public void onDebugEvent(RubyDebugEvent e) {
+                if (e.isSuspensionType()) {
+                    thread[0] = e.getRubyThread();
+                    suspended.countDown();
+                }
+            }
+        });
+        backend.suspend(threadId);
+        assertTrue("suspended", suspended.await(5, TimeUnit.SECONDS));
+        return thread[0];
+    }
+
+    private int count(final String command) {
+        int count = 0;
+        for (String sent : backend.getCommands()) {
+            if (sent.equals(command)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testTopFrameStateIsPrefetched() throws Exception {
+        proxy.getPrefetcher().setEnabled(true);
+        proxy.getPrefetcher().addExpression("var0.size");
+        proxy.attach(new IRubyBreakpoint[0]);
+        RubyThread thread = suspend(2);
+        RubyFrame top = thread.getTopFrame();
+        assertEquals(3, thread.getFrames().length);
+        assertEquals(4, top.getVariables().length);
+        assertEquals("var0.size", top.inspectExpression("var0.size").getName());
+        assertEquals("one round trip each", 1, count("w"));
+        assertEquals(1, count("frame 1; v l"));
+        assertEquals(1, count("frame 1; v inspect var0.size"));
+        assertEquals(3, proxy.getPrefetcher().getUsed());
+    }
+
+    public void testPrefetchIsUsedOnce() throws Exception {
+        proxy.getPrefetcher().setEnabled(true);
+        proxy.attach(new IRubyBreakpoint[0]);
+        RubyThread thread = suspend(1);
+        RubyFrame top = thread.getTopFrame();
+        top.getVariables();
+        top.clearCachedVariables();
+        top.getVariables();
+        assertEquals("re-read after the prefetch was used", 2, count("frame 1; v l"));
+    }
+
+    public void testDisabledByDefault() throws Exception {
+        proxy.attach(new IRubyBreakpoint[0]);
+        suspend(1);
+        assertEquals(0, count("w"));
+        assertEquals(0, proxy.getPrefetcher().getPrefetched());
+    }
+
+}
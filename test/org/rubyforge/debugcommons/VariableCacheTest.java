@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.model.IRubyBreakpoint;
+import org.rubyforge.debugcommons.model.RubyDebugTarget;
+import org.rubyforge.debugcommons.model.RubyFrame;
+import org.rubyforge.debugcommons.model.RubyThread;
+import org.rubyforge.debugcommons.model.RubyVariable;
+import org.rubyforge.debugcommons.model.RubyVariableInfo;
+
+public class VariableCacheTest extends TestCase {
+
+    public VariableCacheTest(String testName) {
+        super(testName);
+    }
+
+    private static RubyVariableInfo[] variables(final int count) {
+        RubyVariableInfo[] infos = new RubyVariableInfo[count];
+        for (int i = 0; i < count; i++) {
+            infos[i] = new RubyVariableInfo("@v" + i, "instance", "1", "Fixnum", false, null);
+        }
+        return infos;
+    }
+
+    public void testEntriesAreInvalidatedOnResume() {
+        VariableCache cache = new VariableCache();
+        RubyVariableInfo[] infos = variables(2);
+        cache.put("+0x1", "Point", infos, cache.getGeneration());
+        assertSame(infos, cache.get("+0x1", "Point"));
+        cache.nextGeneration();
+        assertNull("stale", cache.get("+0x1", "Point"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testReadStartedBeforeResumeIsStale() {
+        VariableCache cache = new VariableCache();
+        long generation = cache.getGeneration();
+        cache.nextGeneration();
+        cache.put("+0x1", "Point", variables(1), generation);
+        assertNull(cache.get("+0x1", "Point"));
+    }
+
+    public void testImmutableTypesAreKept() {
+        VariableCache cache = new VariableCache();
+        cache.addImmutableType("Money");
+        cache.put("+0x1", "Money", variables(1), cache.getGeneration());
+        cache.put("+0x2", "Point", variables(1), cache.getGeneration());
+        cache.nextGeneration();
+        assertNotNull(cache.get("+0x1", "Money"));
+        assertNull(cache.get("+0x2", "Point"));
+        assertNull("reused object id", cache.get("+0x1", "Point"));
+    }
+
+    public void testAllKeptWithoutInvalidation() {
+        VariableCache cache = new VariableCache();
+        cache.setInvalidateOnResume(false);
+        cache.put("+0x1", "Point", variables(1), cache.getGeneration());
+        cache.nextGeneration();
+        assertNotNull(cache.get("+0x1", "Point"));
+    }
+
+    public void testLeastRecentlyUsedAreEvicted() {
+        VariableCache cache = new VariableCache();
+        cache.setMaxVariables(10);
+        cache.put("+0x1", "A", variables(4), 0);
+        cache.put("+0x2", "A", variables(4), 0);
+        assertNotNull(cache.get("+0x1", "A")); // +0x2 is now the eldest
+        cache.put("+0x3", "A", variables(4), 0);
+        assertEquals(2, cache.getSize());
+        assertEquals(8, cache.getCachedVariables());
+        assertNull(cache.get("+0x2", "A"));
+        assertNotNull(cache.get("+0x1", "A"));
+        cache.put("+0x4", "A", variables(11), 0);
+        assertNull("larger than the bound", cache.get("+0x4", "A"));
+    }
+
+    public void testExpansionAfterStepIsServedFromCache() throws Exception {
+        FakeRubyDebugBackend backend = new FakeRubyDebugBackend();
+        backend.start();
+        RubyDebuggerProxy proxy = new RubyDebuggerProxy(RubyDebuggerProxy.RUBY_DEBUG, 5);
+        try {
+            backend.addFrame(1, "/fake/loop.rb", 3);
+            backend.addLocal(1, 1, new FakeRubyDebugBackend.Variable("price", "local", "#<Money>", "Money", "+0x10", true));
+            backend.addChild("+0x10", new FakeRubyDebugBackend.Variable("@cents", "instance", "100", "Fixnum", "+0xc9", false));
+            proxy.setDebugTarget(new RubyDebugTarget(proxy, "127.0.0.1", backend.getPort()));
+            proxy.getVariableCache().addImmutableType("Money");
+            final CountDownLatch suspended = new CountDownLatch(2);
+            final RubyThread[] thread = new RubyThread[1];
+            proxy.addRubyDebugEventListener(new RubyDebugEventListener() {
+                public void onDebugEvent(RubyDebugEvent e) {
+                    if (e.isSuspensionType()) {
+                        thread[0] = e.getRubyThread();
+                        suspended.countDown();
+                    }
+                }
+            });
+            proxy.attach(new IRubyBreakpoint[0]);
+            backend.suspend(1);
+            assertEquals("@cents", expandFirstLocal(proxy, thread)[0].getName());
+            thread[0].getTopFrame().stepOver();
+            assertTrue("stepped", suspended.await(5, TimeUnit.SECONDS));
+            assertEquals("@cents", expandFirstLocal(proxy, thread)[0].getName());
+            int reads = 0;
+            for (String command : backend.getCommands()) {
+                if (command.endsWith("v i +0x10")) {
+                    reads++;
+                }
+            }
+            assertEquals("read only once", 1, reads);
+        } finally {
+            proxy.finish(true);
+            backend.stop();
+        }
+    }
+
+    private static RubyVariable[] expandFirstLocal(final RubyDebuggerProxy proxy, final RubyThread[] thread) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread[0] == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        RubyFrame frame = thread[0].getFrames()[0];
+        return proxy.readInstanceVariables(frame.getVariables()[0]);
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.FakeRubyDebugBackend.Variable;
+import org.rubyforge.debugcommons.model.IRubyBreakpoint;
+import org.rubyforge.debugcommons.model.RubyDebugTarget;
+import org.rubyforge.debugcommons.model.RubyFrame;
+import org.rubyforge.debugcommons.model.RubyThread;
+import org.rubyforge.debugcommons.model.RubyVariable;
+
+public class WatchEngineTest extends TestCase {
+
+    private FakeRubyDebugBackend backend;
+    private RubyDebuggerProxy proxy;
+    private CountDownLatch suspended;
+    private volatile RubyThread thread;
+
+    public WatchEngineTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        backend = new FakeRubyDebugBackend();
+        backend.start();
+        backend.addFrame(1, "/fake/watch.rb", 3);
+        backend.addExpression("a", new Variable("a", "watch", "1", "Fixnum", "+0x3", false));
+        backend.addExpression("b.size", new Variable("b.size", "watch", "2", "Fixnum", "+0x5", false));
+        proxy = new RubyDebuggerProxy(RubyDebuggerProxy.RUBY_DEBUG, 5);
+        proxy.setDebugTarget(new RubyDebugTarget(proxy, "127.0.0.1", backend.getPort()));
+        suspended = new CountDownLatch(1);
+        proxy.addRubyDebugEventListener(new RubyDebugEventListener() {
+            public void onDebugEvent(RubyDebugEvent e) {
+                if (e.isSuspensionType()) {
+                    thread = e.getRubyThread();
+                    suspended.countDown();
+                }
+            }
+        });
+        proxy.attach(new IRubyBreakpoint[0]);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        proxy.finish(true);
+        backend.stop();
+        super.tearDown();
+    }
+
+    private RubyFrame suspend() throws Exception {
+        backend.suspend(1);
+        assertTrue("suspended", suspended.await(5, TimeUnit.SECONDS));
+        return thread.getTopFrame();
+    }
+
+    private int count(final String command) {
+        int count = 0;
+        for (String sent : backend.getCommands()) {
+            if (sent.equals(command)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testWatchesAreEvaluatedOncePerGeneration() throws Exception {
+        WatchEngine engine = proxy.getWatchEngine();
+        engine.addExpression("a");
+        engine.addExpression("b.size");
+        engine.addExpression("a");
+        assertEquals(2, engine.getExpressions().size());
+        RubyFrame frame = suspend();
+        Map<String, RubyDebugFuture<RubyVariable>> results = engine.evaluate(frame);
+        assertEquals("1", results.get("a").await().getValue().getValueString());
+        assertEquals("2", results.get("b.size").await().getValue().getValueString());
+        assertSame(results.get("a"), engine.evaluate(frame).get("a"));
+        assertEquals(1, count("frame 1; v inspect a"));
+        assertEquals(2, engine.getEvaluated());
+        assertEquals(2, engine.getReused());
+
+        suspended = new CountDownLatch(1);
+        frame.stepOver();
+        assertTrue("stepped", suspended.await(5, TimeUnit.SECONDS));
+        engine.evaluate(thread.getTopFrame()).get("a").await();
+        assertEquals("re-evaluated after step", 2, count("frame 1; v inspect a"));
+    }
+
+    public void testResultsAreDeliveredToListener() throws Exception {
+        WatchEngine engine = proxy.getWatchEngine();
+        engine.addExpression("a");
+        engine.addExpression("b.size");
+        engine.removeExpression("b.size");
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final String[] value = new String[1];
+        engine.evaluate(suspend(), new WatchEngine.Listener() {
+            public void evaluated(RubyFrame frame, String expression, RubyVariable result) {
+                value[0] = expression + '=' + result.getValue().getValueString();
+                delivered.countDown();
+            }
+            public void failed(RubyFrame frame, String expression, RubyDebuggerException e) {
+                fail(e.getMessage());
+            }
+        });
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals("a=1", value[0]);
+        assertEquals(0, count("frame 1; v inspect b.size"));
+    }
+
+}
@@ -22,25 +22,54 @@
 
 package org.rubyforge.debugcommons.model;
 
-import org.rubyforge.debugcommons.DebuggerTestBase;
+import junit.framework.TestCase;
 import org.rubyforge.debugcommons.RubyDebuggerProxy;
 
-public class RubyDebugTargetTest extends DebuggerTestBase {
-    
+public class RubyDebugTargetTest extends TestCase {
+
+    private RubyDebugTarget target;
+
     public RubyDebugTargetTest(String testName) {
         super(testName);
     }
-    
-    public void testFinishWhenSpawnedThreadIsSuspended() throws Exception {
-        final RubyDebuggerProxy proxy = prepareProxy(
-                "a = Thread.start {",
-                "    puts '1'",
-                "}");
-        final IRubyLineBreakpoint[] breakpoints = new IRubyLineBreakpoint[]{
-            new TestBreakpoint("test.rb", 2)
-        };
-        attach(proxy, breakpoints, 1);
-        proxy.finish(true);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        target = new RubyDebugTarget(new RubyDebuggerProxy(RubyDebuggerProxy.RUBY_DEBUG), "127.0.0.1", 1234);
+    }
+
+    private static RubyThreadInfo[] infos(final int... ids) {
+        RubyThreadInfo[] infos = new RubyThreadInfo[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            infos[i] = new RubyThreadInfo(ids[i], "run");
+        }
+        return infos;
+    }
+
+    private String ids() {
+        StringBuilder ids = new StringBuilder();
+        for (RubyThread thread : target.getThreads()) {
+            ids.append(thread.getId()).append(' ');
+        }
+        return ids.toString().trim();
+    }
+
+    public void testDeadThreadsArePruned() {
+        target.mergeThreads(infos(1, 2, 3), target.getThreads());
+        RubyThread first = target.getThreadById(1);
+        target.mergeThreads(infos(1, 3, 4), target.getThreads());
+        assertEquals("1 3 4", ids());
+        assertSame("known threads are kept", first, target.getThreadById(1));
     }
-    
+
+    public void testThreadsLearntDuringListingAreKept() {
+        target.mergeThreads(infos(1, 2, 3), target.getThreads());
+        RubyThread[] listed = target.getThreads();
+        // thread 5 is learnt, e.g. from a suspension, while the listing is in flight
+        target.mergeThreads(infos(1, 2, 3, 5), target.getThreads());
+        target.mergeThreads(infos(1, 3), listed);
+        assertEquals("1 3 5", ids());
+    }
+
 }
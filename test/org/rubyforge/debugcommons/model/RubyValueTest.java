@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons.model;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.FakeRubyDebugBackend;
+import org.rubyforge.debugcommons.FakeRubyDebugBackend.Variable;
+import org.rubyforge.debugcommons.RubyDebugEvent;
+import org.rubyforge.debugcommons.RubyDebugEventListener;
+import org.rubyforge.debugcommons.RubyDebuggerProxy;
+
+public class RubyValueTest extends TestCase {
+
+    private FakeRubyDebugBackend backend;
+    private RubyDebuggerProxy proxy;
+
+    public RubyValueTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        backend = new FakeRubyDebugBackend();
+        backend.start();
+        backend.addFrame(1, "/fake/paging.rb", 5);
+        backend.addLocal(1, 1, new Variable("items", "local", "[...]", "Array", "+0x10", true));
+        backend.addLocal(1, 1, new Variable("point", "local", "#<Point>", "Point", "+0x30", true));
+        for (String name : new String[] { "@x", "@y", "@z" }) {
+            backend.addChild("+0x30", new Variable(name, "instance", "1", "Fixnum", "+0x3", false));
+        }
+        proxy = new RubyDebuggerProxy(RubyDebuggerProxy.RUBY_DEBUG, 5);
+        proxy.setDebugTarget(new RubyDebugTarget(proxy, "127.0.0.1", backend.getPort()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        proxy.finish(true);
+        backend.stop();
+        super.tearDown();
+    }
+
+    private RubyVariable[] suspendAndReadLocals() throws Exception {
+        final CountDownLatch suspended = new CountDownLatch(1);
+        final RubyThread[] thread = new RubyThread[1];
+        proxy.addRubyDebugEventListener(new RubyDebugEventListener() {
+            public void onDebugEvent(RubyDebugEvent e) {
+                if (e.isSuspensionType()) {
+                    thread[0] = e.getRubyThread();
+                    suspended.countDown();
+                }
+            }
+        });
+        proxy.attach(new IRubyBreakpoint[0]);
+        backend.suspend(1);
+        assertTrue("suspended", suspended.await(5, TimeUnit.SECONDS));
+        return thread[0].getFrames()[0].getVariables();
+    }
+
+    public void testArrayIsPagedByDebuggee() throws Exception {
+        backend.addExpression("ObjectSpace._id2ref(+0x10).size",
+                new Variable("size", "watch", "5", "Fixnum", "+0xb", false));
+        backend.addExpression("ObjectSpace._id2ref(+0x10)[2, 2] || []",
+                new Variable("page", "watch", "[...]", "Array", "+0x40", true));
+        backend.addExpression("ObjectSpace._id2ref(+0x10)[4, " + Integer.MAX_VALUE + "] || []",
+                new Variable("page", "watch", "[...]", "Array", "+0x41", true));
+        for (int i = 0; i < 2; i++) {
+            backend.addChild("+0x40", new Variable("[" + i + "]", "instance", "v" + (2 + i), "String", "+0x2" + i, false));
+        }
+        backend.addChild("+0x41", new Variable("[0]", "instance", "v4", "String", "+0x24", false));
+        RubyValue items = suspendAndReadLocals()[0].getValue();
+        assertEquals(5, items.getVariablesCount());
+        RubyVariable[] page = items.getVariables(2, 2);
+        assertEquals(2, page.length);
+        assertEquals("[2]", page[0].getName());
+        assertEquals("items[3]", page[1].getQualifiedName());
+        assertEquals("v3", page[1].getValue().getValueString());
+        page = items.getVariables(4, Integer.MAX_VALUE);
+        assertEquals(1, page.length);
+        assertEquals("[4]", page[0].getName());
+        for (String command : backend.getCommands()) {
+            assertFalse("whole Array not read: " + command, command.contains("v i +0x10"));
+            assertFalse("no global assigned: " + command, command.contains("$"));
+        }
+    }
+
+    public void testOtherObjectsAreSlicedLocally() throws Exception {
+        RubyValue point = suspendAndReadLocals()[1].getValue();
+        assertEquals(3, point.getVariablesCount());
+        RubyVariable[] page = point.getVariables(1, 5);
+        assertEquals(2, page.length);
+        assertEquals("@y", page[0].getName());
+        assertEquals(0, point.getVariables(5, 5).length);
+        assertEquals(2, point.getVariables(1, Integer.MAX_VALUE).length);
+    }
+
+}
@@ -22,6 +22,7 @@
 
 package org.rubyforge.debugcommons.model;
 
+import java.util.Collections;
 import junit.framework.TestCase;
 
 public class RubyVariableTest extends TestCase {
@@ -51,4 +52,64 @@ public class RubyVariableTest extends TestCase {
         assertFalse("different hashcode for nil and v1a", nil.hashCode() == v1a.hashCode());
         assertFalse("different hashcode for nil and v1b", nil.hashCode() == v1b.hashCode());
     }
+
+    public void testKinds() {
+        assertTrue(new RubyVariable(null, new RubyVariableInfo("a", "local")).isLocal());
+        assertTrue(new RubyVariable(null, new RubyVariableInfo("@a", new String("instance"))).isInstance());
+        assertTrue(new RubyVariable(null, new RubyVariableInfo("$a", "global")).isGlobal());
+        RubyVariable watch = new RubyVariable(null, new RubyVariableInfo("a.size", "watch"));
+        assertEquals(RubyVariable.Kind.OTHER, watch.getKind());
+        assertFalse(watch.isLocal() || watch.isInstance() || watch.isClass() || watch.isConstant() || watch.isGlobal());
+    }
+
+    public void testQualifiedNames() {
+        RubyVariable hash = new RubyVariable(null, new RubyVariableInfo("h", "global", "{}", "Hash", true, "+0x1"));
+        RubyVariable key = new RubyVariable(new RubyVariableInfo("'k'", "instance", "1", "String", false, "+0x2"), hash);
+        RubyVariable other = new RubyVariable(new RubyVariableInfo("1", "instance", "1", "Fixnum", false, "+0x3"), hash);
+        assertTrue(key.isHashValue());
+        assertEquals("h['k']", key.getQualifiedName());
+        assertSame("memoized", key.getQualifiedName(), key.getQualifiedName());
+        assertEquals("[ObjectSpace._id2ref(+0x3)]", other.getQualifiedName());
+        RubyVariable array = new RubyVariable(new RubyVariableInfo("[0]", "instance", "[]", "Array", true, "+0x4"), key);
+        assertFalse(array.isHashValue());
+        assertEquals("h['k'][0]", array.getQualifiedName());
+        RubyVariable field = new RubyVariable(new RubyVariableInfo("@x", "instance", "1", "Fixnum", false, "+0x5"), array);
+        assertEquals("h['k'][0].@x", field.getQualifiedName());
+    }
+
+    public void testValueIsCreatedOnce() {
+        RubyVariable v = new RubyVariable(null, new RubyVariableInfo("a", "local", "1", "Fixnum", false, "+0x3"));
+        assertSame(v.getValue(), v.getValue());
+        assertEquals("Fixnum", v.getValue().getReferenceTypeName());
+    }
+
+    public void testValueChangesAreTracked() {
+        RubyThread thread = new RubyThread(new RubyDebugTarget(null, "127.0.0.1", 1), 1);
+        RubyFrame frame = new RubyFrame(thread, new RubyFrameInfo("t.rb", 3, 1), 0);
+        RubyVariable a = new RubyVariable(new RubyVariableInfo("a", "local", "1", "Fixnum", false, "+0x3"), frame);
+        frame.recordValues(new RubyVariable[] { a });
+        assertFalse("first read", a.hasValueChanged());
+
+        thread.getValueFingerprints().nextGeneration();
+        frame = new RubyFrame(thread, new RubyFrameInfo("t.rb", 4, 1), 0);
+        a = new RubyVariable(new RubyVariableInfo("a", "local", "2", "Fixnum", false, "+0x5"), frame);
+        RubyVariable b = new RubyVariable(new RubyVariableInfo("b", "local", "1", "Fixnum", false, "+0x3"), frame);
+        frame.recordValues(new RubyVariable[] { a, b });
+        assertTrue(a.hasValueChanged());
+        assertFalse(b.hasValueChanged());
+        RubyVariable again = new RubyVariable(new RubyVariableInfo("a", "local", "1", "Fixnum", false, "+0x3"), frame);
+        assertTrue("created later in the same suspension", again.hasValueChanged());
+        frame.recordValues(new RubyVariable[] { again });
+        assertTrue("recorded once per suspension", a.hasValueChanged());
+        assertEquals(Collections.singleton("a"), frame.getChangedVariables());
+
+        thread.getValueFingerprints().nextGeneration();
+        RubyFrame callee = new RubyFrame(thread, new RubyFrameInfo("u.rb", 1, 1), 1);
+        RubyVariable other = new RubyVariable(new RubyVariableInfo("a", "local", "3", "Fixnum", false, "+0x7"), callee);
+        callee.recordValues(new RubyVariable[] { other });
+        assertFalse("other depth", other.hasValueChanged());
+        assertFalse("not read in this suspension", a.hasValueChanged());
+        assertTrue(frame.getChangedVariables().isEmpty());
+    }
+
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons.reader;
+
+import java.io.StringReader;
+import junit.framework.TestCase;
+import org.kxml2.io.KXmlParser;
+import org.rubyforge.debugcommons.model.RubyVariableInfo;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+public class ProtocolParserTest extends TestCase {
+
+    private static final String PROTOCOL_SAMPLE =
+            "<?xml version='1.0'?>\n" +
+            "<breakpoint file=\"/tmp/t.rb\" line=\"4\" threadId=\"1\"/>\n" +
+            "PROMPT " +
+            "<threads><thread id=\"1\" status=\"run\"/>\n<thread id='2' status='sleep'/></threads>" +
+            "<frames>\n  <frame no=\"1\" file=\"/tmp/t.rb\" line=\"4\"/>\n</frames>" +
+            "<variables><variable name=\"s\" kind=\"local\" value=\"&quot;a&lt;b&gt;&amp;c&apos;&#65;&#x42;\" " +
+            "type=\"String\" hasChildren=\"false\" objectId=\"+0x1f\"/></variables>" +
+            "<message debug='true'>some &lt;text&gt;</message>" +
+            "<error><![CDATA[<cdata>]]> text</error>" +
+            "<!-- comment -->" +
+            "<variables></variables>";
+
+    public ProtocolParserTest(String testName) {
+        super(testName);
+    }
+
+    public void testSameEventsAsKXml() throws Exception {
+        assertEquals(dumpEvents(new KXmlParser(), PROTOCOL_SAMPLE), dumpEvents(new ProtocolParser(), PROTOCOL_SAMPLE));
+    }
+
+    public void testAttributeIntValue() throws Exception {
+        ProtocolParser parser = new ProtocolParser();
+        parser.setInput(new StringReader("<frame no='12' line='-7' file='x' bad='1a'/>"));
+        assertEquals(XmlPullParser.START_TAG, parser.next());
+        assertEquals(12, parser.getAttributeIntValue("no"));
+        assertEquals(-7, parser.getAttributeIntValue("line"));
+        try {
+            parser.getAttributeIntValue("bad");
+            fail("NumberFormatException expected");
+        } catch (NumberFormatException e) {
+            // OK - expected
+        }
+        try {
+            parser.getAttributeIntValue("missing");
+            fail("NumberFormatException expected");
+        } catch (NumberFormatException e) {
+            // OK - expected
+        }
+    }
+
+    public void testUnclosedElementFails() throws Exception {
+        ProtocolParser parser = new ProtocolParser();
+        parser.setInput(new StringReader("<frames><frame no='1'/>"));
+        parser.next();
+        parser.next();
+        parser.next();
+        try {
+            parser.next();
+            fail("XmlPullParserException expected");
+        } catch (XmlPullParserException e) {
+            // OK - expected
+        }
+    }
+
+    public void testReadersGiveSameResults() throws Exception {
+        String xml = createVariables(50);
+        RubyVariableInfo[] expected = readVariables(new KXmlParser(), xml);
+        RubyVariableInfo[] actual = readVariables(new ProtocolParser(), xml);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getName(), actual[i].getName());
+            assertEquals(expected[i].getValue(), actual[i].getValue());
+            assertEquals(expected[i].getType(), actual[i].getType());
+            assertEquals(expected[i].getObjectId(), actual[i].getObjectId());
+            assertEquals(expected[i].hasChildren(), actual[i].hasChildren());
+        }
+    }
+
+    private static RubyVariableInfo[] readVariables(final XmlPullParser xpp, final String xml) throws Exception {
+        xpp.setInput(new StringReader(xml));
+        assertEquals(XmlPullParser.START_TAG, xpp.next());
+        return VariablesReader.readVariables(xpp);
+    }
+
+    private static String createVariables(final int count) {
+        StringBuilder xml = new StringBuilder("<variables>");
+        for (int i = 0; i < count; i++) {
+            xml.append("<variable name=\"var").append(i).append("\" kind=\"instance\" value=\"&quot;value ")
+                    .append(i).append("&quot;\" type=\"String\" hasChildren=\"").append(i % 2 == 0)
+                    .append("\" objectId=\"+0x").append(Integer.toHexString(i)).append("\"/>\n");
+        }
+        return xml.append("</variables>").toString();
+    }
+
+    private static String dumpEvents(final XmlPullParser xpp, final String xml) throws Exception {
+        xpp.setInput(new StringReader(xml));
+        StringBuilder dump = new StringBuilder();
+        int eventType;
+        while ((eventType = xpp.next()) != XmlPullParser.END_DOCUMENT) {
+            dump.append(XmlPullParser.TYPES[eventType]).append(' ').append(xpp.getDepth()).append(' ');
+            if (eventType == XmlPullParser.TEXT) {
+                dump.append('[').append(xpp.getText()).append(']');
+            } else {
+                dump.append(xpp.getName());
+            }
+            if (eventType == XmlPullParser.START_TAG) {
+                dump.append(xpp.isEmptyElementTag() ? "/" : "");
+                for (int i = 0; i < xpp.getAttributeCount(); i++) {
+                    dump.append(' ').append(xpp.getAttributeName(i)).append("=[").append(xpp.getAttributeValue(i)).append(']');
+                }
+            }
+            dump.append('\n');
+        }
+        return dump.toString();
+    }
+
+}
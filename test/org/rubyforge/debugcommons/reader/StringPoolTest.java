@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2007-2008, debug-commons team
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.rubyforge.debugcommons.reader;
+
+import java.io.StringReader;
+import junit.framework.TestCase;
+import org.rubyforge.debugcommons.model.RubyFrameInfo;
+import org.rubyforge.debugcommons.model.RubyVariableInfo;
+import org.xmlpull.v1.XmlPullParser;
+
+public class StringPoolTest extends TestCase {
+
+    public StringPoolTest(String testName) {
+        super(testName);
+    }
+
+    public void testInternFromChars() {
+        StringPool pool = new StringPool();
+        char[] chars = "xxinstancexx".toCharArray();
+        String first = pool.intern(chars, 2, 8);
+        assertEquals("instance", first);
+        assertSame(first, pool.intern(chars, 2, 8));
+        assertSame(first, pool.intern(new String("instance")));
+        assertEquals(2, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(0.666, pool.getHitRatio(), 0.001);
+        assertTrue(pool.getBytesSaved() >= 2 * 16);
+    }
+
+    public void testBounded() {
+        StringPool pool = new StringPool(3, 4);
+        assertEquals(4, pool.getCapacity());
+        for (int i = 0; i < 100; i++) {
+            pool.intern(String.valueOf(i));
+        }
+        assertEquals(0, pool.getHits());
+        String longer = "longer";
+        assertSame("not pooled", longer, pool.intern(longer));
+        assertNotSame(pool.intern(longer.toCharArray(), 0, 6), pool.intern(longer.toCharArray(), 0, 6));
+        assertEquals(100, pool.getMisses());
+    }
+
+    public void testReadersShareStrings() throws Exception {
+        StringPool pool = new StringPool();
+        String frames = "<frames><frame no='1' file='/tmp/t.rb' line='4'/>"
+                + "<frame no='2' file='/tmp/t.rb' line='9'/></frames>";
+        String variables = "<variables>"
+                + "<variable name='a' kind='local' value='1' type='Fixnum' hasChildren='false' objectId='+0x3'/>"
+                + "<variable name='b' kind='local' value='1' type='Fixnum' hasChildren='false' objectId='+0x5'/>"
+                + "</variables>";
+        RubyFrameInfo[] readFrames = FramesReader.readFrames(parser(frames), pool);
+        assertSame(readFrames[0].getFile(), readFrames[1].getFile());
+        RubyVariableInfo[] readVariables = VariablesReader.readVariables(parser(variables), pool);
+        assertSame(readVariables[0].getKind(), readVariables[1].getKind());
+        assertSame(readVariables[0].getType(), readVariables[1].getType());
+        assertSame(readVariables[0].getValue(), readVariables[1].getValue());
+        assertNotSame(readVariables[0].getName(), readVariables[1].getName());
+        assertEquals(4, pool.getHits());
+    }
+
+    private static XmlPullParser parser(final String input) throws Exception {
+        ProtocolParser parser = new ProtocolParser();
+        parser.setInput(new StringReader(input));
+        parser.nextTag();
+        return parser;
+    }
+
+}